@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static etherip.types.CNPath.MessageRouter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import etherip.protocol.Encapsulation.Command;
+import etherip.types.CNService;
+
+/** Benchmark of encoding a multi-request that reads N tags,
+ *  and decoding its reply
+ *
+ *  <p>Uses the same protocol stack as
+ *  {@link Connection#createRequest(Protocol)} for an unconnected
+ *  request: Encapsulation, SendRRData, Unconnected_Send, Message Router,
+ *  multi-request with one read per tag.
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MultiReadBenchmark
+{
+    private static final int SESSION = 0x1234;
+
+    /** Number of tags to read */
+    @Param({ "1", "10", "100" })
+    public int tags;
+
+    private String[] names;
+    private MRChipReadProtocol[] reads;
+    private Encapsulation request;
+    private CompiledRequest compiled;
+    private final ByteBuffer buffer = ByteBuffer.allocate(EncapsulationFramer.MAX_PACKET_SIZE).order(Connection.BYTE_ORDER);
+    private ByteBuffer reply;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        this.names = new String[this.tags];
+        for (int i=0; i<this.tags; ++i)
+            this.names[i] = (i % 2) == 0 ? "Tag_" + i : "Program:MainProgram.Array[" + i + "]";
+        this.reads = new MRChipReadProtocol[this.tags];
+        this.request = this.createRequest(this.reads);
+        this.compiled = new CompiledRequest(this.createRequest(new MRChipReadProtocol[this.tags]), null, SESSION, null);
+
+        // Reply with the context of the request, one DINT per tag
+        this.buffer.clear();
+        this.request.encode(this.buffer, null);
+        final int mr_size = 4 + 2 + 2 * this.tags + 10 * this.tags;
+        this.reply = ByteBuffer.allocate(Encapsulation.ENCAPSULATION_HEADER_SIZE + SendRRDataProtocol.RR_DATA_HEADER_SIZE + mr_size);
+        this.reply.order(Connection.BYTE_ORDER);
+        this.reply.putShort(Command.SendRRData.code());
+        this.reply.putShort((short) (SendRRDataProtocol.RR_DATA_HEADER_SIZE + mr_size));
+        this.reply.putInt(SESSION);
+        this.reply.putInt(0);
+        this.reply.putLong(this.buffer.getLong(Encapsulation.CONTEXT_OFFSET));
+        this.reply.putInt(0);
+        this.reply.putInt(0);
+        this.reply.putShort((short) 0);
+        this.reply.putShort((short) 2);
+        this.reply.putShort((short) 0);
+        this.reply.putShort((short) 0);
+        this.reply.putShort((short) 0xB2);
+        this.reply.putShort((short) mr_size);
+        this.reply.put((byte) 0x8A).put((byte) 0).put((byte) 0).put((byte) 0);
+        this.reply.putShort((short) this.tags);
+        for (int i=0; i<this.tags; ++i)
+            this.reply.putShort((short) (2 + 2 * this.tags + 10 * i));
+        for (int i=0; i<this.tags; ++i)
+        {
+            this.reply.put((byte) 0xCC).put((byte) 0).put((byte) 0).put((byte) 0);
+            this.reply.putShort((short) 0xC4);
+            this.reply.putInt(i);
+        }
+    }
+
+    /** @param reads Array that will be filled with the reads
+     *  @return Request for reading all tags
+     */
+    private Encapsulation createRequest(final MRChipReadProtocol[] reads)
+    {
+        for (int i=0; i<this.tags; ++i)
+            reads[i] = new MRChipReadProtocol(this.names[i]);
+        return new Encapsulation(Command.SendRRData, SESSION,
+                new SendRRDataProtocol(
+                    new UnconnectedSendProtocol(0,
+                        new MessageRouterProtocol(CNService.CIP_MultiRequest, MessageRouter(),
+                            new CIPMultiRequestProtocol(reads)))));
+    }
+
+    /** Create request for all tags and encode it, as done for each scan */
+    @Benchmark
+    public int createAndEncode() throws Exception
+    {
+        final Encapsulation request = this.createRequest(new MRChipReadProtocol[this.tags]);
+        this.buffer.clear();
+        request.encode(this.buffer, null);
+        return this.buffer.position();
+    }
+
+    /** Encode existing request */
+    @Benchmark
+    public int encode() throws Exception
+    {
+        this.buffer.clear();
+        this.request.encode(this.buffer, null);
+        return this.buffer.position();
+    }
+
+    /** Encode compiled request, which only patches the context */
+    @Benchmark
+    public int encodeCompiled() throws Exception
+    {
+        this.buffer.clear();
+        this.compiled.encode(this.buffer, null);
+        return this.buffer.position();
+    }
+
+    /** Decode reply to the request */
+    @Benchmark
+    public Object decode() throws Exception
+    {
+        this.reply.clear();
+        this.request.decode(this.reply, this.reply.remaining(), null);
+        return this.reads[this.tags - 1].getData();
+    }
+
+    /** Decode reply, re-using the data from the previous decode */
+    @Benchmark
+    public Object decodeRecycled() throws Exception
+    {
+        for (final MRChipReadProtocol read : this.reads)
+            read.recycle(read.getData());
+        this.reply.clear();
+        this.request.decode(this.reply, this.reply.remaining(), null);
+        return this.reads[this.tags - 1].getData();
+    }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import etherip.sim.PLCSimulator;
+import etherip.types.CIPData;
+
+/** Scale benchmark of {@link NioEngine}
+ *
+ *  <p>Many {@link PLCSimulator}s in this process
+ *  are polled by a few event loop threads.
+ *  Each simulated PLC has a tag with its own port number.
+ *  One benchmark operation reads that tag from all devices.
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NioEngineBenchmark
+{
+    /** Number of simulated devices */
+    @Param({ "300" })
+    public int devices;
+
+    /** Number of event loop threads */
+    @Param({ "1", "2" })
+    public int threads;
+
+    private PLCSimulator[] plcs;
+    private NioEngine engine;
+    private NioConnection[] connections;
+    private MRChipReadProtocol[] reads;
+    private CompletableFuture<?>[] done;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        this.plcs = new PLCSimulator[this.devices];
+        for (int i=0; i<this.devices; ++i)
+        {
+            this.plcs[i] = new PLCSimulator();
+            final CIPData port = new CIPData(CIPData.Type.DINT, 1);
+            port.set(0, this.plcs[i].getPort());
+            this.plcs[i].setTag("tag", port);
+        }
+        this.engine = new NioEngine(this.threads);
+        this.connections = new NioConnection[this.devices];
+        this.reads = new MRChipReadProtocol[this.devices];
+        this.done = new CompletableFuture<?>[this.devices];
+        final RegisterSession[] registers = new RegisterSession[this.devices];
+        for (int i=0; i<this.devices; ++i)
+        {
+            this.connections[i] = this.engine.connect("127.0.0.1", this.plcs[i].getPort(), 0);
+            registers[i] = new RegisterSession();
+            this.done[i] = this.connections[i].executeAsync(registers[i]);
+        }
+        CompletableFuture.allOf(this.done).get();
+        for (int i=0; i<this.devices; ++i)
+            this.connections[i].setSession(registers[i].getSession());
+
+        // Check that each device returns its own tag
+        this.readAll();
+        for (int i=0; i<this.devices; ++i)
+            if (this.reads[i].getData().getNumber(0).intValue() != this.plcs[i].getPort())
+                throw new Exception("Device " + i + " returned wrong value");
+    }
+
+    /** Read the tag of each device, all concurrently */
+    @Benchmark
+    public Object readAll() throws Exception
+    {
+        for (int i=0; i<this.devices; ++i)
+        {
+            this.reads[i] = new MRChipReadProtocol("tag");
+            this.done[i] = this.connections[i].executeAsync(this.connections[i].createRequest(this.reads[i]));
+        }
+        CompletableFuture.allOf(this.done).get();
+        return this.reads[this.devices - 1].getData();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        for (NioConnection connection : this.connections)
+            connection.close();
+        this.engine.close();
+        for (PLCSimulator plc : this.plcs)
+            plc.close();
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.types;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import etherip.types.CIPData.Type;
+
+/** Benchmark of accessing all elements of {@link CIPData}
+ *
+ *  <p>Compares the boxed {@link CIPData#getNumber(int)} with
+ *  primitive and bulk access.
+ *
+ *  @author Kay Kasemir
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CIPDataBenchmark
+{
+    @Param({ "100", "2000" })
+    public int elements;
+
+    @Param({ "DINT", "REAL" })
+    public Type type;
+
+    private CIPData data;
+    private float[] floats;
+    private int[] ints;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        this.data = new CIPData(this.type, this.elements);
+        for (int i=0; i<this.elements; ++i)
+            this.data.set(i, i);
+        this.floats = new float[this.elements];
+        this.ints = new int[this.elements];
+    }
+
+    /** Read all elements */
+    @Benchmark
+    public double getNumber() throws Exception
+    {
+        double sum = 0;
+        for (int i=0; i<this.elements; ++i)
+            sum += this.data.getNumber(i).doubleValue();
+        return sum;
+    }
+
+    /** Read all elements as primitive */
+    @Benchmark
+    public double getDouble() throws Exception
+    {
+        double sum = 0;
+        for (int i=0; i<this.elements; ++i)
+            sum += this.data.getDouble(i);
+        return sum;
+    }
+
+    /** Copy all elements into array */
+    @Benchmark
+    public Object copyTo() throws Exception
+    {
+        if (this.type == Type.REAL)
+        {
+            this.data.copyTo(this.floats, 0);
+            return this.floats;
+        }
+        this.data.copyTo(this.ints, 0);
+        return this.ints;
+    }
+
+    /** Write all elements */
+    @Benchmark
+    public CIPData set() throws Exception
+    {
+        for (int i=0; i<this.elements; ++i)
+            this.data.set(i, i);
+        return this.data;
+    }
+
+    /** Write all elements from array */
+    @Benchmark
+    public CIPData copyFrom() throws Exception
+    {
+        if (this.type == Type.REAL)
+            this.data.copyFrom(this.floats, 0);
+        else
+            this.data.copyFrom(this.ints, 0);
+        return this.data;
+    }
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.types;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import etherip.protocol.Connection;
+
+/** Benchmark of {@link CNSymbolPath} and {@link TagHandle} for typical tag names
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CNSymbolPathBenchmark
+{
+    @Param({ "Counter", "Array[17]", "Program:MainProgram.Motor.Speed", "Struct.Array[300].Value" })
+    public String tag;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(200).order(Connection.BYTE_ORDER);
+
+    /** Parse tag name into path */
+    @Benchmark
+    public Object create()
+    {
+        return CNPath.Symbol(this.tag);
+    }
+
+    /** Parse tag name into path and encode it */
+    @Benchmark
+    public int createAndEncode()
+    {
+        this.buffer.clear();
+        CNPath.Symbol(this.tag).encode(this.buffer, null);
+        return this.buffer.position();
+    }
+
+    /** Get cached handle for tag name and encode its path */
+    @Benchmark
+    public int tagHandle()
+    {
+        this.buffer.clear();
+        TagHandle.of(this.tag).encode(this.buffer, null);
+        return this.buffer.position();
+    }
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip;
+
+import java.util.concurrent.TimeUnit;
+
+import etherip.types.CIPData;
+import etherip.types.CIPData.Type;
+
+/**
+ * {@link TagListener} that only forwards changed values to another listener
+ * <p>
+ * Each value is compared with the value that was last forwarded.
+ * Without a deadband, any change in the raw bytes is forwarded.
+ * With a deadband, a REAL or DINT value (also SINT, INT) is forwarded
+ * when at least one array element changed by more than the deadband.
+ * Other data types are compared byte by byte.
+ * <p>
+ * An optional heartbeat forwards the value even if it did not change,
+ * once the heartbeat interval has passed since the last forwarded update.
+ * Errors are always forwarded, and so is the first value after an error.
+ * <p>
+ * The filter keeps the state of one subscription,
+ * so each listener added to a {@link Tag} needs its own filter.
+ *
+ * @author Kay Kasemir
+ */
+public class ChangeFilter implements TagListener
+{
+    /** How a numeric change is compared to the deadband */
+    public enum Deadband
+    {
+        /** Any change of the raw data */
+        NONE,
+        /** Change larger than the deadband */
+        ABSOLUTE,
+        /** Change larger than the deadband in percent of the last forwarded value */
+        PERCENT
+    }
+
+    final private TagListener listener;
+    final private Deadband mode;
+    final private double deadband;
+    final private long heartbeat_ns;
+
+    /** Copy of the value last forwarded, <code>null</code> to forward the next value. SYNC on <code>this</code> */
+    private CIPData last = null;
+
+    /** Time of last forwarded update, {@link System#nanoTime()}. SYNC on <code>this</code> */
+    private long last_time = 0;
+
+    /** Statistics. SYNC on <code>this</code> */
+    private long forwarded = 0, suppressed = 0;
+
+    /**
+     * Forward any change of the raw data
+     *
+     * @param listener
+     *            {@link TagListener} to call with changed values
+     */
+    public ChangeFilter(final TagListener listener)
+    {
+        this(listener, Deadband.NONE, 0.0, 0);
+    }
+
+    /**
+     * @param listener
+     *            {@link TagListener} to call with changed values
+     * @param mode
+     *            {@link Deadband} mode
+     * @param deadband
+     *            Absolute deadband or percentage
+     * @param heartbeat_ms
+     *            Forward unchanged value after this time in milliseconds, 0 to disable
+     */
+    public ChangeFilter(final TagListener listener, final Deadband mode, final double deadband, final long heartbeat_ms)
+    {
+        this.listener = listener;
+        this.mode = mode;
+        this.deadband = Math.abs(deadband);
+        this.heartbeat_ns = TimeUnit.MILLISECONDS.toNanos(heartbeat_ms);
+    }
+
+    @Override
+    public void tagUpdate(final Tag tag)
+    {
+        final CIPData value = tag.getValue();
+        if (value == null)
+        {
+            return;
+        }
+        final boolean forward;
+        synchronized (this)
+        {
+            final long now = System.nanoTime();
+            forward = this.last == null  ||
+                      this.hasChanged(value)  ||
+                      (this.heartbeat_ns > 0  &&  now - this.last_time >= this.heartbeat_ns);
+            if (forward)
+            {   // Keep a copy, since double buffering may re-use the value
+                this.last = new CIPData(value);
+                this.last_time = now;
+                ++this.forwarded;
+            }
+            else
+            {
+                ++this.suppressed;
+            }
+        }
+        if (forward)
+        {
+            this.listener.tagUpdate(tag);
+        }
+    }
+
+    @Override
+    public void tagError(final Tag tag)
+    {
+        synchronized (this)
+        {
+            this.last = null;
+            ++this.forwarded;
+        }
+        this.listener.tagError(tag);
+    }
+
+    /**
+     * @param value
+     *            Received value
+     * @return <code>true</code> if value differs from the last forwarded value by more than the deadband
+     */
+    private boolean hasChanged(final CIPData value)
+    {
+        if (value.isSameData(this.last))
+        {
+            return false;
+        }
+        final Type type = value.getType();
+        if (this.mode == Deadband.NONE  ||
+            type != this.last.getType()  ||
+            value.getElementCount() != this.last.getElementCount()  ||
+            !(type == Type.REAL  ||  type == Type.DINT  ||  type == Type.INT  ||  type == Type.SINT))
+        {
+            return true;
+        }
+        try
+        {
+            for (int i = 0; i < value.getElementCount(); ++i)
+            {
+                final double current = value.getDouble(i);
+                final double previous = this.last.getDouble(i);
+                if (Double.isNaN(current)  ||  Double.isNaN(previous))
+                {
+                    if (Double.isNaN(current) != Double.isNaN(previous))
+                    {
+                        return true;
+                    }
+                    continue;
+                }
+                final double limit = this.mode == Deadband.ABSOLUTE
+                        ? this.deadband
+                        : this.deadband / 100.0 * Math.abs(previous);
+                if (Math.abs(current - previous) > limit)
+                {
+                    return true;
+                }
+            }
+        }
+        catch (final Exception ex)
+        {
+            return true;
+        }
+        return false;
+    }
+
+    /** @return Number of updates and errors forwarded to the listener */
+    public synchronized long getForwardedCount()
+    {
+        return this.forwarded;
+    }
+
+    /** @return Number of updates that were suppressed as unchanged */
+    public synchronized long getSuppressedCount()
+    {
+        return this.suppressed;
+    }
+}
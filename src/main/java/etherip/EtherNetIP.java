@@ -9,13 +9,26 @@ package etherip;
 
 import static etherip.protocol.Encapsulation.Command.SendRRData;
 import static etherip.protocol.Encapsulation.Command.UnRegisterSession;
-import static etherip.types.CNPath.MessageRouter;
+import static etherip.types.CNPath.ConnectionManager;
+import static etherip.types.CNService.CM_ForwardClose;
 import static etherip.types.CNService.Get_Attribute_All;
 import static etherip.types.CNService.Get_Attribute_Single;
 
+import java.nio.Buffer;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,10 +38,14 @@ import etherip.data.EthernetLink;
 import etherip.data.Identity;
 import etherip.data.InterfaceConfiguration;
 import etherip.data.TcpIpInterface;
-import etherip.protocol.CIPMultiRequestProtocol;
+import etherip.protocol.CIPConnection;
+import etherip.protocol.CIPReadFragmentedProtocol;
+import etherip.protocol.CIPWriteFragmentedProtocol;
 import etherip.protocol.Connection;
 import etherip.protocol.ConnectionDataProtocol;
 import etherip.protocol.Encapsulation;
+import etherip.protocol.ForwardCloseProtocol;
+import etherip.protocol.ForwardOpenProtocol;
 import etherip.protocol.GetConnectionDataProtocol;
 import etherip.protocol.GetEthernetLinkProtocol;
 import etherip.protocol.GetHexStringDataProtocol;
@@ -45,9 +62,14 @@ import etherip.protocol.ListServicesProtocol.Service;
 import etherip.protocol.MRChipReadProtocol;
 import etherip.protocol.MRChipWriteProtocol;
 import etherip.protocol.MessageRouterProtocol;
+import etherip.protocol.MultiRequestPacker;
+import etherip.protocol.MultiRequestResult;
+import etherip.protocol.NioEngine;
+import etherip.protocol.PipelinedTcpConnection;
 import etherip.protocol.Protocol;
 import etherip.protocol.ProtocolAdapter;
 import etherip.protocol.RegisterSession;
+import etherip.protocol.RequestCoalescer;
 import etherip.protocol.SendRRDataProtocol;
 import etherip.protocol.TcpConnection;
 import etherip.protocol.UdpConnection;
@@ -56,9 +78,14 @@ import etherip.types.CIPData;
 import etherip.types.CNClassPath;
 import etherip.types.CNPath;
 import etherip.types.CNService;
+import etherip.types.TagHandle;
 
 /**
  * API for communicating via EtherNet/IP
+ * <p>
+ * Futures returned by the <code>..Async</code> methods complete
+ * off the thread that handles the network I/O,
+ * so their dependent stages may call blocking methods of this API.
  *
  * @author Kay Kasemir, László Pataki
  */
@@ -70,19 +97,42 @@ public class EtherNetIP implements AutoCloseable
     final public static Logger logger = Logger
             .getLogger(EtherNetIP.class.getName());
 
-    private static final int MAX_REQUEST_SIZE = 450;
-
     final private String address;
+    final private int port;
     final private int slot;
     private Connection connection = null;
+    private volatile RequestCoalescer coalescer = null;
+    private ScheduledFuture<?> keepalive = null;
+
+    /** Timer for keepalive messages, shared by all instances */
+    private static class KeepaliveTimer
+    {
+        final static ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, "EtherIP Keepalive");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
     /** Initialize
      *  @param address IP address of device
      *  @param slot Slot (0, 1, ...) of the controller on the backplane
      */
     public EtherNetIP(final String address, final int slot)
+    {
+        this(address, Connection.DEFAULT_PORT, slot);
+    }
+
+    /** Initialize
+     *  @param address IP address of device
+     *  @param port TCP port of device
+     *  @param slot Slot (0, 1, ...) of the controller on the backplane
+     */
+    public EtherNetIP(final String address, final int port, final int slot)
     {
         this.address = address;
+        this.port = port;
         this.slot = slot;
     }
 
@@ -91,7 +141,37 @@ public class EtherNetIP implements AutoCloseable
      */
     public void connectTcp() throws Exception
     {
-        this.connection = new TcpConnection(this.address, this.slot);
+        this.connection = new TcpConnection(this.address, this.port, this.slot);
+        this.registerSession();
+    }
+
+    /**
+     * Connect to device via TCP with several requests in flight, register session
+     * <p>
+     * Calls from several threads then share the connection
+     * instead of waiting for each other's round trip.
+     *
+     * @param max_outstanding
+     *            Maximum number of requests awaiting a response
+     */
+    public void connectTcp(final int max_outstanding) throws Exception
+    {
+        this.connection = new PipelinedTcpConnection(this.address, this.port, this.slot, max_outstanding);
+        this.registerSession();
+    }
+
+    /**
+     * Connect to device via TCP, handled by an {@link NioEngine}, register session
+     * <p>
+     * The engine's event loop threads serve many connections,
+     * so calling threads only block while they wait for a response.
+     *
+     * @param engine
+     *            {@link NioEngine} that handles the network I/O
+     */
+    public void connectTcp(final NioEngine engine) throws Exception
+    {
+        this.connection = engine.connect(this.address, this.port, this.slot);
         this.registerSession();
     }
 
@@ -163,6 +243,137 @@ public class EtherNetIP implements AutoCloseable
         this.connection.setSession(register.getSession());
     }
 
+    /**
+     * Open CIP connection to the controller
+     * <p>
+     * Tag reads and writes will then use connected messaging
+     * instead of routing each request through the connection manager.
+     * <p>
+     * Attempts a Large_Forward_Open for packets of about 4000 bytes,
+     * falling back to a Forward_Open with 500 bytes
+     * when the device does not support the larger connection.
+     * <p>
+     * Uses the default requested packet interval of 2 seconds.
+     *
+     * @throws Exception
+     *             on error, for example when the device does not support more connections
+     * @see #openConnection(int)
+     */
+    public void openConnection() throws Exception
+    {
+        this.openConnection(ForwardOpenProtocol.DEFAULT_RPI);
+    }
+
+    /**
+     * Open CIP connection to the controller
+     * <p>
+     * The device closes the connection after it received no request
+     * for 32 times the requested packet interval (RPI).
+     * While the connection is open, a keepalive request is sent
+     * whenever the connection has been idle for a quarter of that timeout,
+     * so the connection remains open even when no tags are read.
+     *
+     * @param rpi
+     *            Requested packet interval in microseconds
+     * @throws Exception
+     *             on error, for example when the device does not support more connections
+     */
+    public void openConnection(final int rpi) throws Exception
+    {
+        CIPConnection cip_connection;
+        try
+        {
+            cip_connection = this.forwardOpen(new ForwardOpenProtocol(this.slot, ForwardOpenProtocol.LARGE_SIZE, true, rpi));
+        }
+        catch (final CipException ex)
+        {
+            // 0x08: Large_Forward_Open not supported,
+            // 0x01 with 0x0109: Invalid connection size
+            if (ex.getStatusCode() != 0x08  &&
+                !(ex.getStatusCode() == 0x01  &&  ex.getExtendedStatusCode() == 0x0109))
+                throw ex;
+            logger.log(Level.FINE, "Large Forward Open failed, using Forward Open: {0}", ex.getMessage());
+            cip_connection = this.forwardOpen(new ForwardOpenProtocol(this.slot, ForwardOpenProtocol.DEFAULT_SIZE, false, rpi));
+        }
+        logger.log(Level.FINE, "Opened {0}", cip_connection);
+        this.connection.setCIPConnection(cip_connection);
+        this.startKeepalive(cip_connection);
+    }
+
+    /** @param cip_connection {@link CIPConnection} to keep open */
+    private synchronized void startKeepalive(final CIPConnection cip_connection)
+    {
+        this.stopKeepalive();
+        final long period = cip_connection.getTimeoutMillis() / 4;
+        if (period <= 0)
+            return;
+        this.keepalive = KeepaliveTimer.timer.scheduleAtFixedRate(() -> this.keepAlive(cip_connection, period),
+                                                                  period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopKeepalive()
+    {
+        if (this.keepalive != null)
+        {
+            this.keepalive.cancel(false);
+            this.keepalive = null;
+        }
+    }
+
+    /** Send request on idle connection
+     *  @param cip_connection {@link CIPConnection} to keep open
+     *  @param idle Milliseconds of idle time that trigger a request
+     */
+    private void keepAlive(final CIPConnection cip_connection, final long idle)
+    {
+        if (this.connection.getCIPConnection() != cip_connection  ||
+            cip_connection.getIdleMillis() < idle)
+            return;
+        logger.log(Level.FINE, "Keepalive for {0}", cip_connection);
+        // Any connected request resets the timeout of the device; read the identity
+        this.connection.executeAsync(this.connection.createRequest(
+                new MessageRouterProtocol(Get_Attribute_All, CNPath.Identity(), new GetIdentityProtocol())))
+                       .exceptionally(ex ->
+                       {
+                           logger.log(Level.WARNING, "Keepalive for " + cip_connection + " failed", ex);
+                           return null;
+                       });
+    }
+
+    /** @param forward_open Forward_Open or Large_Forward_Open request
+     *  @return {@link CIPConnection} that was opened
+     *  @throws Exception on error
+     */
+    private CIPConnection forwardOpen(final ForwardOpenProtocol forward_open) throws Exception
+    {
+        this.connection.execute(new Encapsulation(SendRRData, this.connection.getSession(),
+                new SendRRDataProtocol(
+                    new MessageRouterProtocol(forward_open.getService(), ConnectionManager(), forward_open))));
+        return forward_open.getConnection();
+    }
+
+    /**
+     * Close CIP connection to the controller
+     * <p>
+     * Tag reads and writes return to unconnected messaging.
+     *
+     * @throws Exception
+     *             on error
+     */
+    public void closeConnection() throws Exception
+    {
+        this.stopKeepalive();
+        final CIPConnection cip_connection = this.connection.getCIPConnection();
+        if (cip_connection == null)
+            return;
+        this.connection.setCIPConnection(null);
+        this.connection.execute(new Encapsulation(SendRRData, this.connection.getSession(),
+                new SendRRDataProtocol(
+                    new MessageRouterProtocol(CM_ForwardClose, ConnectionManager(),
+                        new ForwardCloseProtocol(this.slot, cip_connection)))));
+        logger.log(Level.FINE, "Closed {0}", cip_connection);
+    }
+
     // Turning off the formatter for the gradual form layout in methods.
     // With this style more readable the structure of the encapsulation in the packet.
     //@formatter:off
@@ -304,6 +515,21 @@ public class EtherNetIP implements AutoCloseable
         return attr_proto.getValue();
     }
 
+    /** Get identity without blocking
+     *  @return {@link CompletableFuture} for the {@link Identity} of the device
+     */
+    public CompletableFuture<Identity> getIdentityAsync()
+    {
+        final GetIdentityProtocol attr_proto;
+        final Encapsulation encap =
+                new Encapsulation(SendRRData, this.connection.getSession(),
+                    new SendRRDataProtocol(
+                        new MessageRouterProtocol(Get_Attribute_All, CNPath.Identity(),
+                            (attr_proto = new GetIdentityProtocol()))));
+        return this.connection.executeAsync(encap)
+                              .thenApply(ignored -> attr_proto.getValue());
+    }
+
     public Identity getSlotIdentity(final int slot) throws Exception
     {
             final GetIdentityProtocol attr_proto;
@@ -423,13 +649,65 @@ public class EtherNetIP implements AutoCloseable
      */
     public CIPData readTag(final String tag) throws Exception
     {
+        final RequestCoalescer coalescer = this.coalescer;
+        if (coalescer != null)
+            return await(coalescer.read(tag));
         return this.readTag(tag, (short) 1);
     }
 
+    /** Enable coalescing of concurrent single-tag reads and writes
+     *  <p>
+     *  Calls to {@link #readTag(String)} and {@link #writeTag(String, CIPData)}
+     *  and their asynchronous variants from several threads
+     *  that arrive within the given window, or while the previous batch
+     *  is still handled, are combined into one multi-request.
+     *  Concurrent reads of the same tag result in just one read.
+     *  @param window_ms Time to wait for more requests, 0 to only combine requests that arrive while a batch is handled
+     *  @see RequestCoalescer
+     */
+    public synchronized void enableCoalescing(final long window_ms)
+    {
+        this.disableCoalescing();
+        this.coalescer = new RequestCoalescer(this.connection, window_ms, TimeUnit.MILLISECONDS);
+    }
+
+    /** Disable coalescing of reads and writes */
+    public synchronized void disableCoalescing()
+    {
+        final RequestCoalescer coalescer = this.coalescer;
+        if (coalescer != null)
+        {
+            this.coalescer = null;
+            coalescer.close();
+        }
+    }
+
+    /** @return {@link RequestCoalescer}, <code>null</code> if not enabled */
+    public RequestCoalescer getCoalescer()
+    {
+        return this.coalescer;
+    }
+
+    /** @param future Future to await
+     *  @return Value of the future
+     *  @throws Exception Original error of the future
+     */
+    private static <T> T await(final CompletableFuture<T> future) throws Exception
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (final ExecutionException ex)
+        {
+            if (ex.getCause() instanceof Exception)
+                throw (Exception) ex.getCause();
+            throw ex;
+        }
+    }
+
     public void executeRequest(Protocol request) throws Exception {
-        final Encapsulation encap = new Encapsulation(SendRRData, this.connection.getSession(), 
-                new SendRRDataProtocol(new UnconnectedSendProtocol(slot, request)));
-        connection.execute(encap);
+        connection.execute(connection.createRequest(request));
     }
 
     /** Read a single array tag
@@ -440,152 +718,487 @@ public class EtherNetIP implements AutoCloseable
      */
     public CIPData readTag(final String tag, final short count) throws Exception
     {
+        if (count > 1)
+        {   // Array may exceed one reply, read in fragments
+            final CIPReadFragmentedProtocol fragments = new CIPReadFragmentedProtocol(count, null, null);
+            this.readFragmented(tag, fragments);
+            return fragments.getData();
+        }
         final MRChipReadProtocol cip_read = new MRChipReadProtocol(tag, count);
-        final Encapsulation encap =
-            new Encapsulation(SendRRData, this.connection.getSession(),
-                new SendRRDataProtocol(
-                    new UnconnectedSendProtocol(this.slot,
-                        cip_read)));
-        this.connection.execute(encap);
+        this.connection.execute(this.connection.createRequest(cip_read));
+        this.connection.learnReplySizes(cip_read);
 
         return cip_read.getData();
     }
 
+    /** Read REAL array tag
+     *  <p>
+     *  Array is read in fragments as needed,
+     *  each fragment is placed directly into the provided array.
+     *  @param tag Name of tag
+     *  @param values Array that receives the values, its length determines the number of elements to read
+     *  @throws Exception on error
+     */
+    public void readArray(final String tag, final float[] values) throws Exception
+    {
+        this.readFragmented(tag, new CIPReadFragmentedProtocol(values.length, CIPData.Type.REAL, FloatBuffer.wrap(values)));
+    }
+
+    /** Read DINT array tag
+     *  @param tag Name of tag
+     *  @param values Array that receives the values, its length determines the number of elements to read
+     *  @throws Exception on error
+     *  @see #readArray(String, float[])
+     */
+    public void readArray(final String tag, final int[] values) throws Exception
+    {
+        this.readFragmented(tag, new CIPReadFragmentedProtocol(values.length, CIPData.Type.DINT, IntBuffer.wrap(values)));
+    }
+
+    /** Read INT array tag
+     *  @param tag Name of tag
+     *  @param values Array that receives the values, its length determines the number of elements to read
+     *  @throws Exception on error
+     *  @see #readArray(String, float[])
+     */
+    public void readArray(final String tag, final short[] values) throws Exception
+    {
+        this.readFragmented(tag, new CIPReadFragmentedProtocol(values.length, CIPData.Type.INT, ShortBuffer.wrap(values)));
+    }
+
+    /** Read array tag of any type into a buffer
+     *  <p>
+     *  Raw data is placed into the buffer, starting at its current position.
+     *  The buffer may be a direct buffer and should use {@link Connection#BYTE_ORDER}.
+     *  @param tag Name of tag
+     *  @param count Number of array elements to read
+     *  @param buffer Buffer that receives the data
+     *  @return Data type of the array
+     *  @throws Exception on error, including a buffer that's too small
+     */
+    public CIPData.Type readArray(final String tag, final int count, final ByteBuffer buffer) throws Exception
+    {
+        final CIPReadFragmentedProtocol fragments = new CIPReadFragmentedProtocol(count, null, buffer);
+        this.readFragmented(tag, fragments);
+        return fragments.getType();
+    }
+
+    /** Read array in fragments
+     *  @param tag Name of tag
+     *  @param fragments {@link CIPReadFragmentedProtocol} that receives the data
+     *  @throws Exception on error
+     */
+    private void readFragmented(final String tag, final CIPReadFragmentedProtocol fragments) throws Exception
+    {
+        final MessageRouterProtocol cip_read = new MessageRouterProtocol(CNService.CIP_ReadDataFragmented, TagHandle.of(tag), fragments);
+        do
+        {
+            this.connection.execute(this.connection.createRequest(cip_read));
+            if (cip_read.isPartialTransfert()  &&  fragments.getFragmentSize() <= 0)
+                throw new Exception("Read of " + tag + " stalled at offset " + fragments.getOffset());
+            fragments.advance();
+        }
+        while (cip_read.isPartialTransfert());
+    }
+
 
     /** Read multiple scalar tags in one network transaction
      *  @param tags Tag names
-     *  @return Current values of the tags
+     *  @return Current values of the tags, <code>null</code> for tags that could not be read
      *  @throws Exception on error
+     *  @see #readTagsWithStatus(int, String...)
      */
     public CIPData[] readTags(final String... tags) throws Exception
     {
-        return readTags(100, tags);
+        return readTags(MultiRequestPacker.DEFAULT_MAX_COUNT, tags);
     }
 
-    /** Read multiple strings tags in one network transaction.
-     *  Transaction size is adjsuted for the size of string response.
+    /** Read multiple strings tags in as few network transactions as possible.
+     *  <p>
+     *  Same as {@link #readTags(String...)}:
+     *  Reads are packed based on the estimated reply size of each tag,
+     *  which the connection learns from previous reads.
+     *  Until then, large replies are assumed,
+     *  so the first read of many strings may take more transactions.
      *  @param tags Tag names
-     *  @return Current values of the tags
+     *  @return Current values of the tags, <code>null</code> for tags that could not be read
      *  @throws Exception on error
      */
     public CIPData[] readStringTags(final String... tags) throws Exception
     {
-        return readTags(5, tags);
+        return readTags(tags);
     }
     
-    /** Read multiple strings tags in one network transaction.
-     *  Messages are splitted in groups with a maximum number of elements and total request size.
-     *  maxGroupSize can be large for small atomic type reads, for large response like string reads, the number should be reduce to make 
-     *  sure the response fit in a controller total response size limit (about 500 bytes for Logix 5000).
+    /** Read multiple tags in as few network transactions as possible.
+     *  Messages are split into groups that fit the request and response size limits,
+     *  see {@link #sendMultiMessages(int, MessageRouterProtocol...)}.
      *  @param maxNumberOfRequestsPerGroup maximum number of requests allowed in a single transaction.
      *  @param tags Tag names
-     *  @return Current values of the tags
+     *  @return Current values of the tags, <code>null</code> for tags that could not be read
      *  @throws Exception on error
+     *  @see #readTagsWithStatus(int, String...)
      */
     public CIPData[] readTags(final int maxNumberOfRequestsPerGroup, final String... tags) throws Exception
+    {
+        return readTagsWithStatus(maxNumberOfRequestsPerGroup, tags).getValues();
+    }
+
+    /** Read multiple tags in as few network transactions as possible.
+     *  Tags that cannot be read, for example because of a bad tag name,
+     *  do not prevent reading the remaining tags.
+     *  @param maxNumberOfRequestsPerGroup maximum number of requests allowed in a single transaction.
+     *  @param tags Tag names
+     *  @return {@link MultiRequestResult} with status and value of each tag
+     *  @throws Exception on error
+     */
+    public MultiRequestResult readTagsWithStatus(final int maxNumberOfRequestsPerGroup, final String... tags) throws Exception
     {
         final MRChipReadProtocol[] reads = new MRChipReadProtocol[tags.length];
         for (int i=0; i<reads.length; ++i)
         {
             reads[i] = new MRChipReadProtocol(tags[i]);
         }
-        sendMultiMessages(maxNumberOfRequestsPerGroup, reads);
+        return sendMultiMessages(maxNumberOfRequestsPerGroup, reads);
+    }
 
-        final CIPData[] results = new CIPData[reads.length];
-        for (int i=0; i<results.length; ++i)
+    /** send multiple messages in as few transactions as possible.
+     *  Messages are packed into groups such that both the request and the reply
+     *  fit the size limit of the connection, about 500 bytes for unconnected messages
+     *  and about 4000 bytes for a Large_Forward_Open connection.
+     *  Reply sizes are estimated from previous reads of the same tag,
+     *  assuming a string-sized reply for tags that have not been read, yet.
+     *  @param maxNumberOfRequestsPerGroup maximum number of requests allowed in a single transaction.
+     *  @param messages messages to send
+     *  @return {@link MultiRequestResult} with the status of each message
+     *  @throws Exception on error
+     */
+    public MultiRequestResult sendMultiMessages(final int maxNumberOfRequestsPerGroup, final MessageRouterProtocol... messages) throws Exception
+    {
+        this.connection.executeMultiRequest(maxNumberOfRequestsPerGroup, messages);
+        return new MultiRequestResult(messages);
+    }
+
+    /** Write a tag
+     *  @param tag Tag name
+     *  @param value Value to write
+     *  @throws Exception on error
+     */
+    public void writeTag(final String tag, final CIPData value) throws Exception
+    {
+        final RequestCoalescer coalescer = this.coalescer;
+        if (coalescer != null)
         {
-            results[i] = reads[i].getData();
+            await(coalescer.write(tag, value));
+            return;
         }
+        final MRChipWriteProtocol cip_write = new MRChipWriteProtocol(tag, value);
+        this.connection.execute(this.connection.createRequest(cip_write));
+    }
 
-        return results;
+    /** Write REAL array tag
+     *  <p>
+     *  Array is written in fragments that fit the connection's message size.
+     *  Fragments are encoded straight from the provided array,
+     *  and a pipelined connection keeps several fragments in flight.
+     *  @param tag Name of tag
+     *  @param values Values to write, starting at the first array element of the tag
+     *  @throws Exception on error
+     */
+    public void writeArray(final String tag, final float[] values) throws Exception
+    {
+        this.writeFragmented(tag, CIPData.Type.REAL, (short) 0, values.length, FloatBuffer.wrap(values));
     }
 
-    /** send multiple messages in a single transaction. 
-     *  Messages are splitted in groups with a maximum number of elements and total request size.
-     *  maxGroupSize can be large for small atomic type reads, for large response like string reads, the number should be reduce to make 
-     *  sure the response fit in a controller total response size limit (about 500 bytes for Logix 5000).
-     *  @param maxNumberOfRequestsPerGroup maximum number of requests allowed in a single transaction.
-     *  @param messages messages to send
+    /** Write DINT array tag
+     *  @param tag Name of tag
+     *  @param values Values to write, starting at the first array element of the tag
+     *  @throws Exception on error
+     *  @see #writeArray(String, float[])
+     */
+    public void writeArray(final String tag, final int[] values) throws Exception
+    {
+        this.writeFragmented(tag, CIPData.Type.DINT, (short) 0, values.length, IntBuffer.wrap(values));
+    }
+
+    /** Write INT array tag
+     *  @param tag Name of tag
+     *  @param values Values to write, starting at the first array element of the tag
+     *  @throws Exception on error
+     *  @see #writeArray(String, float[])
+     */
+    public void writeArray(final String tag, final short[] values) throws Exception
+    {
+        this.writeFragmented(tag, CIPData.Type.INT, (short) 0, values.length, ShortBuffer.wrap(values));
+    }
+
+    /** Write array tag of an atomic type from a buffer
+     *  @param tag Name of tag
+     *  @param type Data type of the tag
+     *  @param count Number of array elements to write
+     *  @param data Raw data between position and limit, using {@link Connection#BYTE_ORDER}
+     *  @throws Exception on error
+     *  @see #writeArray(String, float[])
+     */
+    public void writeArray(final String tag, final CIPData.Type type, final int count, final ByteBuffer data) throws Exception
+    {
+        if (type == CIPData.Type.STRUCT)
+            throw new IllegalArgumentException("Use writeStructArray for " + tag);
+        this.writeFragmented(tag, type, (short) 0, count, data);
+    }
+
+    /** Write structure (UDT) or array of structures from a buffer
+     *  @param tag Name of tag
+     *  @param struct_handle Structure handle of the UDT
+     *  @param count Number of structures to write
+     *  @param data Raw data of the structures between position and limit
      *  @throws Exception on error
+     *  @see #writeArray(String, float[])
+     */
+    public void writeStructArray(final String tag, final short struct_handle, final int count, final ByteBuffer data) throws Exception
+    {
+        this.writeFragmented(tag, CIPData.Type.STRUCT, struct_handle, count, data);
+    }
+
+    /** Write array in fragments
+     *  @param tag Name of tag
+     *  @param type Data type
+     *  @param struct_handle Structure handle for STRUCT
+     *  @param count Number of array elements in complete write
+     *  @param data Data between position and limit
+     *  @throws Exception on error
+     */
+    private void writeFragmented(final String tag, final CIPData.Type type, final short struct_handle,
+                                 final int count, final Buffer data) throws Exception
+    {
+        final TagHandle handle = TagHandle.of(tag);
+        // Message router header, write header
+        final int overhead = 2 + handle.getRequestSize() + CIPWriteFragmentedProtocol.OVERHEAD
+                           + (type == CIPData.Type.STRUCT ? 2 : 0);
+        // Fragments must hold complete elements.
+        // Structures are split on 4-byte boundaries
+        final int alignment = type == CIPData.Type.STRUCT ? 4 : type.getElementSize();
+        final int room = ((this.connection.getMaxMessageSize() - overhead) / alignment) * alignment;
+        final int element_bytes = CIPWriteFragmentedProtocol.getBytesPerElement(data);
+        final int chunk = room / element_bytes;
+        if (chunk <= 0)
+            throw new Exception("Cannot fit fragment of " + tag + " into message");
+
+        final int start = data.position();
+        final int end = data.limit();
+        final List<Protocol> requests = new ArrayList<>();
+        for (int pos = start; pos < end; pos += chunk)
+        {
+            final Buffer fragment = data.duplicate();
+            fragment.limit(Math.min(end, pos + chunk));
+            fragment.position(pos);
+            requests.add(this.connection.createRequest(
+                new MessageRouterProtocol(CNService.CIP_WriteDataFragmented, handle,
+                    new CIPWriteFragmentedProtocol(type, struct_handle, count, (pos - start) * element_bytes, fragment))));
+        }
+        this.connection.executeAll(requests.toArray(new Protocol[requests.size()]));
+    }
+
+    /** Write multiple tags in as few network transactions as possible
+     *  @param tags Tag names to write
+     *  @param values Values to write
+     *  @throws Exception on error, including a tag that could not be written
+     *  @see #writeTagsWithStatus(String[], CIPData[])
+     */
+    public void writeTags(final String[] tags, final CIPData[] values) throws Exception
+    {
+        writeTagsWithStatus(tags, values).check();
+    }
+
+    /** Write multiple tags in as few network transactions as possible
+     *  <p>
+     *  Tags that cannot be written do not prevent writing the remaining tags.
+     *  @param tags Tag names to write
+     *  @param values Values to write
+     *  @return {@link MultiRequestResult} with the status of each write
+     *  @throws Exception on error
+     */
+    public MultiRequestResult writeTagsWithStatus(final String[] tags, final CIPData[] values) throws Exception
+    {
+        if (tags.length != values.length)
+            throw new IllegalArgumentException("Got " + tags.length + " tags but " + values.length + " values");
+
+        final MRChipWriteProtocol[] writes = new MRChipWriteProtocol[tags.length];
+        for (int i=0; i<tags.length; ++i)
+            writes[i] = new MRChipWriteProtocol(tags[i], values[i]);
+
+        return sendMultiMessages(MultiRequestPacker.DEFAULT_MAX_COUNT, writes);
+    }
+
+    /** Read a single scalar tag without blocking
+     *  <p>
+     *  Errors are reported via the returned future.
+     *  @param tag Name of tag
+     *  @return {@link CompletableFuture} for the current value of the tag
      */
-    public void sendMultiMessages(final int maxNumberOfRequestsPerGroup, final MessageRouterProtocol... messages) throws Exception
+    public CompletableFuture<CIPData> readTagAsync(final String tag)
     {
-        int currentGroupByteCount = 0;
-        List<MessageRouterProtocol> groupMessages = new ArrayList<>();
-        
-        for (MessageRouterProtocol message : messages)
+        final RequestCoalescer coalescer = this.coalescer;
+        if (coalescer != null)
+            return coalescer.read(tag);
+        return this.readTagAsync(tag, (short) 1);
+    }
+
+    /** Read a single array tag without blocking
+     *  <p>
+     *  Like {@link #readTag(String, short)}, arrays are read in fragments,
+     *  sending the request for the next fragment once the previous one has been received.
+     *  @param tag Name of tag
+     *  @param count Number of array elements to read
+     *  @return {@link CompletableFuture} for the current value of the tag
+     */
+    public CompletableFuture<CIPData> readTagAsync(final String tag, final short count)
+    {
+        if (count > 1)
         {
-            int messageSize = message.getRequestSize();
-            if (currentGroupByteCount + messageSize > MAX_REQUEST_SIZE || groupMessages.size() == maxNumberOfRequestsPerGroup)
+            final CIPReadFragmentedProtocol fragments = new CIPReadFragmentedProtocol(count, null, null);
+            final MessageRouterProtocol cip_read = new MessageRouterProtocol(CNService.CIP_ReadDataFragmented, TagHandle.of(tag), fragments);
+            return this.readFragmentedAsync(tag, cip_read, fragments).thenCompose(ignored ->
             {
-                executeMultiMessages(groupMessages.toArray(new MessageRouterProtocol[groupMessages.size()]));
-                currentGroupByteCount = 0;
-                groupMessages.clear();
-            }
-            currentGroupByteCount += messageSize;
-            groupMessages.add(message);
+                try
+                {
+                    return CompletableFuture.completedFuture(fragments.getData());
+                }
+                catch (final Exception ex)
+                {
+                    return CompletableFuture.failedFuture(ex);
+                }
+            });
+        }
+        final MRChipReadProtocol cip_read = new MRChipReadProtocol(tag, count);
+        return this.connection.executeAsync(this.connection.createRequest(cip_read))
+                              .thenApply(ignored ->
+                              {
+                                  this.connection.learnReplySizes(cip_read);
+                                  return cip_read.getData();
+                              });
+    }
+
+    /** Read array in fragments without blocking
+     *  @param tag Name of tag
+     *  @param cip_read Request for the fragments
+     *  @param fragments {@link CIPReadFragmentedProtocol} of the request that receives the data
+     *  @return {@link CompletableFuture} that completes when all fragments have been read
+     */
+    private CompletableFuture<Void> readFragmentedAsync(final String tag, final MessageRouterProtocol cip_read,
+                                                        final CIPReadFragmentedProtocol fragments)
+    {
+        return this.connection.executeAsync(this.connection.createRequest(cip_read)).thenCompose(ignored ->
+        {
+            if (cip_read.isPartialTransfert()  &&  fragments.getFragmentSize() <= 0)
+                return CompletableFuture.failedFuture(
+                    new Exception("Read of " + tag + " stalled at offset " + fragments.getOffset()));
+            fragments.advance();
+            if (cip_read.isPartialTransfert())
+                return this.readFragmentedAsync(tag, cip_read, fragments);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /** Read multiple scalar tags without blocking
+     *  @param tags Tag names
+     *  @return {@link CompletableFuture} for the current values of the tags, <code>null</code> for tags that could not be read
+     */
+    public CompletableFuture<CIPData[]> readTagsAsync(final String... tags)
+    {
+        return readTagsAsync(MultiRequestPacker.DEFAULT_MAX_COUNT, tags);
+    }
+
+    /** Read multiple tags without blocking
+     *  <p>
+     *  Groups of messages are sent as in {@link #readTags(int, String...)},
+     *  but a pipelined connection can handle them concurrently.
+     *  @param maxNumberOfRequestsPerGroup maximum number of requests allowed in a single transaction.
+     *  @param tags Tag names
+     *  @return {@link CompletableFuture} for the current values of the tags, <code>null</code> for tags that could not be read
+     */
+    public CompletableFuture<CIPData[]> readTagsAsync(final int maxNumberOfRequestsPerGroup, final String... tags)
+    {
+        final MRChipReadProtocol[] reads = new MRChipReadProtocol[tags.length];
+        for (int i=0; i<reads.length; ++i)
+        {
+            reads[i] = new MRChipReadProtocol(tags[i]);
         }
-        if (groupMessages.size() > 0)
-            executeMultiMessages(groupMessages.toArray(new MessageRouterProtocol[groupMessages.size()]));
+        return sendMultiMessagesAsync(maxNumberOfRequestsPerGroup, reads).thenApply(MultiRequestResult::getValues);
     }
 
-    /** send multiple messages to controller in a single transaction. 
-     *  Messages are assumed to fit in controller limits for request and response sizes.
+    /** send multiple messages without blocking
+     *  <p>
+     *  Messages are packed for the learned limits of the connection
+     *  as in {@link #sendMultiMessages(int, MessageRouterProtocol...)}.
+     *  Groups that fail because they are too large lower the limits and are split and retried.
+     *  @param maxNumberOfRequestsPerGroup maximum number of requests allowed in a single transaction.
      *  @param messages messages to send
-     *  @throws Exception on error
+     *  @return {@link CompletableFuture} for the {@link MultiRequestResult} with the status of each message
      */
-    private void executeMultiMessages(final MessageRouterProtocol[] messages) throws Exception
+    public CompletableFuture<MultiRequestResult> sendMultiMessagesAsync(final int maxNumberOfRequestsPerGroup, final MessageRouterProtocol... messages)
     {
-        final Encapsulation encap =
-            new Encapsulation(SendRRData, this.connection.getSession(),
-                new SendRRDataProtocol(
-                    new UnconnectedSendProtocol(this.slot,
-                        new MessageRouterProtocol(CNService.CIP_MultiRequest, MessageRouter(),
-                            new CIPMultiRequestProtocol(messages)))));
-        this.connection.execute(encap);
+        return this.connection.executeMultiRequestAsync(maxNumberOfRequestsPerGroup, messages)
+                              .thenApply(ignored -> new MultiRequestResult(messages));
     }
 
-    /** Write a tag
+    /** Write a tag without blocking
      *  @param tag Tag name
      *  @param value Value to write
-     *  @throws Exception on error
+     *  @return {@link CompletableFuture} that completes when the value has been written
      */
-    public void writeTag(final String tag, final CIPData value) throws Exception
+    public CompletableFuture<Void> writeTagAsync(final String tag, final CIPData value)
     {
+        final RequestCoalescer coalescer = this.coalescer;
+        if (coalescer != null)
+            return coalescer.write(tag, value);
         final MRChipWriteProtocol cip_write = new MRChipWriteProtocol(tag, value);
+        return this.connection.executeAsync(this.connection.createRequest(cip_write));
+    }
 
-        final Encapsulation encap =
-                new Encapsulation(SendRRData, this.connection.getSession(),
-                    new SendRRDataProtocol(
-                        new UnconnectedSendProtocol(this.slot,
-                                cip_write)));
-        this.connection.execute(encap);
+    /** Write multiple tags in as few network transactions as possible without blocking
+     *  <p>
+     *  Writes are packed as in {@link #sendMultiMessagesAsync(int, MessageRouterProtocol...)}.
+     *  @param tags Tag names to write
+     *  @param values Values to write
+     *  @return {@link CompletableFuture} that completes when the values have been written,
+     *          or fails with the {@link CipException} of the first tag that could not be written
+     *  @see #writeTagsWithStatusAsync(String[], CIPData[])
+     */
+    public CompletableFuture<Void> writeTagsAsync(final String[] tags, final CIPData[] values)
+    {
+        return writeTagsWithStatusAsync(tags, values).thenApply(result ->
+        {
+            try
+            {
+                result.check();
+            }
+            catch (final CipException ex)
+            {
+                throw new CompletionException(ex);
+            }
+            return null;
+        });
     }
 
-    /** Write multiple tags in one network transaction
+    /** Write multiple tags in as few network transactions as possible without blocking
+     *  <p>
+     *  Tags that cannot be written do not prevent writing the remaining tags.
      *  @param tags Tag names to write
      *  @param values Values to write
-     *  @throws Exception on error
+     *  @return {@link CompletableFuture} for the {@link MultiRequestResult} with the status of each write
      */
-    public void writeTags(final String[] tags, final CIPData[] values) throws Exception
+    public CompletableFuture<MultiRequestResult> writeTagsWithStatusAsync(final String[] tags, final CIPData[] values)
     {
         if (tags.length != values.length)
-            throw new IllegalArgumentException("Got " + tags.length + " tags but " + values.length + " values");
+            return CompletableFuture.failedFuture(
+                new IllegalArgumentException("Got " + tags.length + " tags but " + values.length + " values"));
 
         final MRChipWriteProtocol[] writes = new MRChipWriteProtocol[tags.length];
         for (int i=0; i<tags.length; ++i)
             writes[i] = new MRChipWriteProtocol(tags[i], values[i]);
 
-        final Encapsulation encap =
-                new Encapsulation(SendRRData, this.connection.getSession(),
-                    new SendRRDataProtocol(
-                        new UnconnectedSendProtocol(this.slot,
-                                new MessageRouterProtocol(CNService.CIP_MultiRequest, MessageRouter(),
-                                        new CIPMultiRequestProtocol(writes)))));
-        this.connection.execute(encap);
+        return sendMultiMessagesAsync(MultiRequestPacker.DEFAULT_MAX_COUNT, writes);
     }
-    
-    
 
     //@formatter:on
 
@@ -613,8 +1226,17 @@ public class EtherNetIP implements AutoCloseable
     @Override
     public void close() throws Exception
     {
+        this.disableCoalescing();
         if (this.connection != null)
         {
+            try
+            {
+                this.closeConnection();
+            }
+            catch (final Exception ex)
+            {
+                logger.log(Level.WARNING, "Error closing CIP connection", ex);
+            }
             this.unregisterSession();
             this.connection.close();
         }
@@ -9,6 +9,7 @@ package etherip;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import etherip.types.CIPData;
 
@@ -38,22 +39,35 @@ public class Tag
     // At the same time, user code can try to read the current value,
     // or request a new value to be written.
     //
-    // getState() etc. are synchronized, but code that requires
-    // access to both Tag.state and Tag.value must synchronize on the whole Tag.
-    // Avoid locking all the time!
-    // Synchronize (this) when accessing Tag.data and/or Tag.state,
-    // then unlock as soon as possible.
+    // Value, state and error are published together as an immutable Snapshot
+    // via an AtomicReference.
+    // Readers simply fetch the current snapshot and never block.
+    // Changes create a new snapshot and install it with compareAndSet,
+    // retrying if another thread changed the tag in between,
+    // so the state machine READING -> TO_BE_WRITTEN -> WRITING -> READING
+    // advances in atomic steps.
+    // Listeners are called after the new snapshot has been installed,
+    // without holding any lock.
+    //
+    // The CIPData of a snapshot is not modified.
+    // setWriteValue() updates a copy of the data.
+    //
+    // Exception: With TagList.setDoubleBuffering(true), the TagList decodes
+    // the read after next into the CIPData of an older snapshot, in place,
+    // while other threads may still be reading it.
+    // Values are then only safe to use within TagListener.tagUpdate()
+    // on the thread that reads the tags.
     //
     // Scenarios:
     //
     // - Simple Read -
-    // 1) TagList reads value from device
+    // 1) TagList reads value from device, installs snapshot
     // 2) User reads value
     // -> Probably the most likely case. No issues.
     //
     // - Simple Write -
-    // 1) User sets new value to be written
-    // 2) TagList writes the value
+    // 1) User sets new value to be written: TO_BE_WRITTEN
+    // 2) TagList writes the value: WRITING, then READING
     // -> No overlap
     //
     // - Read while writing -
@@ -63,35 +77,52 @@ public class Tag
     // -> Will get the value to-be-written, not the current value on the device.
     // So what?
     // 4) TagList finishes writing the value (read 'OK' response)
-    // -> No overlap, but CIPData is locked in 1, 2, 3
     //
     // - Try to write while reading -
     // 1) TagList start reading the value
     // 2) User sets new value to be written
     // 3) TagList receives response
-    // -> TagList notices that tag switched to write mode.
-    // Will NOT update the Tag, but write as in Simple Write
-    // on the next TagList.process().
+    // -> Tag is no longer in READING state, so the value that was read is dropped.
+    // Will write as in Simple Write on the next TagList.process().
     //
     // - Try to write faster than communication is processed -
     // 1) User sets new value A to be written
-    // 2) TagList starts writing the value A
-    // 3) User sets yet another value B to be written
-    // At this point, MRChipWriteProtocol could be using the same data!
-    // CIPData is synchronized, so it will write either A or B, depending
-    // on detailed timing.
-    // TagList finishes writing the first value (A or B)
+    // 2) TagList starts writing the value A: WRITING
+    // 3) User sets yet another value B to be written: TO_BE_WRITTEN
+    // TagList finishes writing A, notices TO_BE_WRITTEN and keeps that state
     // TagList starts writing the value B
     // TagList finishes writing the value B
 
+    /** Immutable value, state and error of the tag */
+    private static final class Snapshot
+    {
+        /** Current value, or the value to be written */
+        final CIPData data;
+
+        final State state;
+
+        /** Most recent error, <code>null</code> after successful read */
+        final Exception error;
+
+        Snapshot(final CIPData data, final State state, final Exception error)
+        {
+            this.data = data;
+            this.state = state;
+            this.error = error;
+        }
+    }
+
     /** Tag name */
     final private String name;
 
-    /** Current value, or the value to be written */
-    private CIPData data = null;
+    /** Current {@link Snapshot} */
+    final private AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(null, State.READING, null));
 
-    /** State */
-    private State state = State.READING;
+    /**
+     * Previous value that may be reused to receive the next value, see {@link TagList#setDoubleBuffering(boolean)}.
+     * Only accessed by the {@link TagList}.
+     */
+    private CIPData spare = null;
 
     /** Listeners */
     final private List<TagListener> listeners = new CopyOnWriteArrayList<>();
@@ -121,12 +152,9 @@ public class Tag
     {
         this.listeners.add(listener);
         // Perform initial update if there's already known value
-        synchronized (this)
+        if (this.snapshot.get().data != null)
         {
-            if (this.data != null)
-            {
-                listener.tagUpdate(this);
-            }
+            listener.tagUpdate(this);
         }
     }
 
@@ -145,34 +173,42 @@ public class Tag
     }
 
     /** @return Tag state */
-    public synchronized State getState()
+    public State getState()
     {
-        return this.state;
+        return this.snapshot.get().state;
     }
 
     /**
-     * Update state tag
+     * Get current value of the tag.
      * <p>
-     * To be called by {@link TagList}
+     * This is either the most recent value read from the device, or the value that is about to be written to the device.
+     * The returned data is not modified when the tag receives a new value,
+     * <b>except</b> when the tag is read by a {@link TagList} with {@link TagList#setDoubleBuffering(boolean)}.
+     * Then the read after next places its data into the returned {@link CIPData},
+     * possibly while the caller still uses it.
+     * With double buffering, only access the value within {@link TagListener#tagUpdate(Tag)}
+     * on the thread that reads the tags, and copy it there if it is needed later.
      *
-     * @param state
-     *            {@link State}
+     * @return {@link CIPData}
      */
-    synchronized void setState(final State state)
+    public CIPData getValue()
     {
-        this.state = state;
+        return this.snapshot.get().data;
     }
 
     /**
-     * Get current value of the tag.
+     * Update value of the tag with data read from device
      * <p>
-     * This is either the most recent value read from the device, or the value that is about to be written to the device.
+     * To be called by {@link TagList}
      *
-     * @return {@link CIPData}
+     * @param data
+     *            {@link CIPData}
+     * @return <code>true</code> if value was updated,
+     *         <code>false</code> if the tag is no longer {@link State#READING}
      */
-    synchronized public CIPData getValue()
+    boolean setValue(final CIPData data)
     {
-        return this.data;
+        return this.setValue(data, false);
     }
 
     /**
@@ -182,10 +218,26 @@ public class Tag
      *
      * @param data
      *            {@link CIPData}
+     * @param keep_spare
+     *            Keep the previous value so it can be reused for the next read?
+     * @return <code>true</code> if value was updated,
+     *         <code>false</code> if the tag is no longer {@link State#READING}
      */
-    synchronized void setValue(final CIPData data)
+    boolean setValue(final CIPData data, final boolean keep_spare)
     {
-        this.data = data;
+        final Snapshot update = new Snapshot(data, State.READING, null);
+        Snapshot current;
+        do
+        {
+            current = this.snapshot.get();
+            if (current.state != State.READING)
+            {
+                return false;
+            }
+        }
+        while (!this.snapshot.compareAndSet(current, update));
+
+        this.spare = (keep_spare  &&  current.data != data) ? current.data : null;
         for (final TagListener listener : this.listeners)
         {
             if (data == null)
@@ -197,10 +249,105 @@ public class Tag
                 listener.tagUpdate(this);
             }
         }
+        return true;
+    }
+
+    /**
+     * To be called by {@link TagList}
+     *
+     * @return Previous value that may be overwritten with the next value, or <code>null</code>
+     */
+    CIPData takeSpare()
+    {
+        final CIPData spare = this.spare;
+        this.spare = null;
+        return spare;
+    }
+
+    /**
+     * @return Most recent error in reading or writing the tag, <code>null</code> if the tag was read successfully
+     */
+    public Exception getError()
+    {
+        return this.snapshot.get().error;
+    }
+
+    /**
+     * Report error in reading or writing the tag
+     * <p>
+     * To be called by {@link TagList}.
+     * Keeps the last known value.
+     *
+     * @param error
+     *            Error
+     */
+    void setError(final Exception error)
+    {
+        Snapshot current;
+        do
+        {
+            current = this.snapshot.get();
+        }
+        while (!this.snapshot.compareAndSet(current, new Snapshot(current.data, current.state, error)));
+
+        for (final TagListener listener : this.listeners)
+        {
+            listener.tagError(this);
+        }
+    }
+
+    /**
+     * Start writing the tag
+     * <p>
+     * To be called by {@link TagList}.
+     * Changes state from {@link State#TO_BE_WRITTEN} to {@link State#WRITING}.
+     *
+     * @return Value to write, <code>null</code> if tag was not {@link State#TO_BE_WRITTEN}
+     */
+    CIPData startWrite()
+    {
+        Snapshot current;
+        do
+        {
+            current = this.snapshot.get();
+            if (current.state != State.TO_BE_WRITTEN)
+            {
+                return null;
+            }
+        }
+        while (!this.snapshot.compareAndSet(current, new Snapshot(current.data, State.WRITING, current.error)));
+        return current.data;
+    }
+
+    /**
+     * Finish writing the tag
+     * <p>
+     * To be called by {@link TagList}.
+     * Changes state from {@link State#WRITING} back to {@link State#READING}.
+     *
+     * @return <code>true</code> if tag returned to reading,
+     *         <code>false</code> if another value needs to be written
+     */
+    boolean finishWrite()
+    {
+        Snapshot current;
+        do
+        {
+            current = this.snapshot.get();
+            if (current.state != State.WRITING)
+            {
+                return false;
+            }
+        }
+        while (!this.snapshot.compareAndSet(current, new Snapshot(current.data, State.READING, current.error)));
+        return true;
     }
 
     /**
      * Set CIP data to be written to the device
+     * <p>
+     * Updates a copy of the current value,
+     * so readers that obtained the current value are not affected.
      *
      * @param index
      *            Element index 0, 1, ...
@@ -215,16 +362,23 @@ public class Tag
      * @throws IndexOutOfBoundsException
      *             if index is invalid
      */
-    synchronized public void setWriteValue(final int index, final Number value)
+    public void setWriteValue(final int index, final Number value)
             throws IllegalStateException, Exception, IndexOutOfBoundsException
     {
-        if (this.data == null)
+        Snapshot current;
+        CIPData data;
+        do
         {
-            throw new IllegalStateException("Cannot write tag " + this.name
-                    + " because data type is unknown");
+            current = this.snapshot.get();
+            if (current.data == null)
+            {
+                throw new IllegalStateException("Cannot write tag " + this.name
+                        + " because data type is unknown");
+            }
+            data = new CIPData(current.data);
+            data.set(index, value);
         }
-        this.data.set(index, value);
-        this.state = State.TO_BE_WRITTEN;
+        while (!this.snapshot.compareAndSet(current, new Snapshot(data, State.TO_BE_WRITTEN, current.error)));
     }
 
     @Override
@@ -232,13 +386,18 @@ public class Tag
     {
         final StringBuilder buf = new StringBuilder();
         buf.append("Tag '").append(this.name).append("'");
-        if (this.data == null)
+        final Snapshot current = this.snapshot.get();
+        if (current.data == null)
         {
             buf.append(" (no value)");
         }
         else
         {
-            buf.append(" = ").append(this.data);
+            buf.append(" = ").append(current.data);
+        }
+        if (current.error != null)
+        {
+            buf.append(" (error: ").append(current.error.getMessage()).append(")");
         }
         return buf.toString();
     }
@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip;
+
+import static etherip.EtherNetIP.logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Calls {@link TagListener}s on an executor instead of the thread that reads the tags
+ * <p>
+ * Listeners obtained from {@link #wrap(TagListener)} only post the event
+ * to a mailbox for each tag and return right away,
+ * so slow listeners do not delay the scan of the tags.
+ * <p>
+ * Each mailbox holds at most one event.
+ * When a tag is updated again before the listener handled the previous update,
+ * the listener only receives the latest one.
+ * Slow listeners thus skip intermediate values instead of building a backlog.
+ * The listener is called for one tag at a time, never concurrently for the same tag.
+ * <p>
+ * The listener reads the value via {@link Tag#getValue()} when it is called,
+ * which is the latest value at that time.
+ * <p>
+ * A dispatcher must not be used for tags that are read with {@link TagList#setDoubleBuffering(boolean)}.
+ * The thread that reads the tags then overwrites values in place
+ * while the listener reads them, even while it tries to copy them.
+ * <p>
+ * To only dispatch changed values, wrap the listener like this:
+ * <code>new ChangeFilter(dispatcher.wrap(listener))</code>
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class TagDispatcher implements AutoCloseable
+{
+    /** Executor created by this dispatcher, <code>null</code> if executor was provided */
+    final private ExecutorService own_executor;
+
+    final private Executor executor;
+
+    /** Statistics */
+    final private AtomicLong dispatched = new AtomicLong(), conflated = new AtomicLong();
+
+    /** Listener that posts to mailboxes */
+    private class DispatchingListener implements TagListener
+    {
+        final private TagListener listener;
+
+        final private Map<Tag, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+        DispatchingListener(final TagListener listener)
+        {
+            this.listener = listener;
+        }
+
+        @Override
+        public void tagUpdate(final Tag tag)
+        {
+            this.getMailbox(tag).post(Boolean.FALSE);
+        }
+
+        @Override
+        public void tagError(final Tag tag)
+        {
+            this.getMailbox(tag).post(Boolean.TRUE);
+        }
+
+        private Mailbox getMailbox(final Tag tag)
+        {
+            final Mailbox mailbox = this.mailboxes.get(tag);
+            if (mailbox != null)
+            {
+                return mailbox;
+            }
+            return this.mailboxes.computeIfAbsent(tag, t -> new Mailbox(t, this.listener));
+        }
+    }
+
+    /** Latest event of one tag for one listener */
+    private class Mailbox implements Runnable
+    {
+        final private Tag tag;
+        final private TagListener listener;
+
+        /** Pending event: <code>true</code> for error, <code>false</code> for update, <code>null</code> if none. SYNC on <code>this</code> */
+        private Boolean pending = null;
+
+        /** Is this mailbox submitted to the executor? SYNC on <code>this</code> */
+        private boolean scheduled = false;
+
+        Mailbox(final Tag tag, final TagListener listener)
+        {
+            this.tag = tag;
+            this.listener = listener;
+        }
+
+        /** @param error Post error, or update? */
+        void post(final Boolean error)
+        {
+            synchronized (this)
+            {
+                if (this.pending != null)
+                {
+                    TagDispatcher.this.conflated.incrementAndGet();
+                }
+                this.pending = error;
+                if (this.scheduled)
+                {
+                    return;
+                }
+                this.scheduled = true;
+            }
+            this.submit();
+        }
+
+        private void submit()
+        {
+            try
+            {
+                TagDispatcher.this.executor.execute(this);
+            }
+            catch (final RejectedExecutionException ex)
+            {   // Dispatcher has been closed, drop the event
+                synchronized (this)
+                {
+                    this.pending = null;
+                    this.scheduled = false;
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            final Boolean error;
+            synchronized (this)
+            {
+                error = this.pending;
+                this.pending = null;
+            }
+            try
+            {
+                if (error)
+                {
+                    this.listener.tagError(this.tag);
+                }
+                else
+                {
+                    this.listener.tagUpdate(this.tag);
+                }
+            }
+            catch (final Exception ex)
+            {
+                logger.log(Level.WARNING, "Listener of " + this.tag.getName() + " failed", ex);
+            }
+            finally
+            {   // Even after an Error, keep dispatching this tag
+                TagDispatcher.this.dispatched.incrementAndGet();
+                this.reschedule();
+            }
+        }
+
+        /** Re-submit if another event is pending, else mark as idle */
+        private void reschedule()
+        {
+            // Re-submit instead of looping, so one busy tag doesn't keep the thread
+            synchronized (this)
+            {
+                if (this.pending == null)
+                {
+                    this.scheduled = false;
+                    return;
+                }
+            }
+            this.submit();
+        }
+    }
+
+    /**
+     * Create dispatcher with its own threads
+     *
+     * @param threads
+     *            Number of threads that call listeners
+     */
+    public TagDispatcher(final int threads)
+    {
+        this.own_executor = Executors.newFixedThreadPool(threads, runnable ->
+        {
+            final Thread thread = new Thread(runnable, "TagDispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor = this.own_executor;
+    }
+
+    /**
+     * Create dispatcher that uses an existing executor
+     *
+     * @param executor
+     *            {@link Executor} that calls listeners
+     */
+    public TagDispatcher(final Executor executor)
+    {
+        this.own_executor = null;
+        this.executor = executor;
+    }
+
+    /**
+     * @param listener
+     *            {@link TagListener} to call via this dispatcher
+     * @return {@link TagListener} to add to {@link Tag}s
+     */
+    public TagListener wrap(final TagListener listener)
+    {
+        return new DispatchingListener(listener);
+    }
+
+    /** @return Number of events passed to listeners */
+    public long getDispatchedCount()
+    {
+        return this.dispatched.get();
+    }
+
+    /** @return Number of events that were replaced by a newer event before reaching the listener */
+    public long getConflatedCount()
+    {
+        return this.conflated.get();
+    }
+
+    /** Stop own threads. Pending events are dropped. */
+    @Override
+    public void close()
+    {
+        if (this.own_executor != null)
+        {
+            this.own_executor.shutdownNow();
+        }
+    }
+}
@@ -8,26 +8,39 @@
 package etherip;
 
 import static etherip.EtherNetIP.logger;
-import static etherip.protocol.Encapsulation.Command.SendRRData;
 import static etherip.types.CNPath.MessageRouter;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import etherip.Tag.State;
+import etherip.data.CipException;
 import etherip.protocol.CIPMultiRequestProtocol;
+import etherip.protocol.CompiledRequest;
 import etherip.protocol.Connection;
-import etherip.protocol.Encapsulation;
 import etherip.protocol.MRChipReadProtocol;
 import etherip.protocol.MRChipWriteProtocol;
 import etherip.protocol.MessageRouterProtocol;
-import etherip.protocol.SendRRDataProtocol;
-import etherip.protocol.UnconnectedSendProtocol;
+import etherip.protocol.MultiRequestPacker;
+import etherip.protocol.MultiRequestResult;
+import etherip.protocol.PacketLimits;
+import etherip.protocol.ReplySizes;
+import etherip.types.CIPData;
 import etherip.types.CNService;
 
 /**
  * List of {@link Tag}s on the PLC
+ * <p>
+ * Tags that cannot be read, for example because of a typo in the tag name,
+ * are placed in quarantine.
+ * They are removed from the multi-requests for the remaining tags
+ * and retried by themselves, with a delay that doubles after each failure.
+ * Once they can be read again, they re-join the remaining tags.
  *
  * @author Kay Kasemir
  */
@@ -42,17 +55,205 @@ public class TagList
     final private List<Tag> tags = new ArrayList<>();
 
     /**
+     * {@link #tags} by name
+     * <p>
+     * SYNC on <code>this</code> for access
+     */
+    final private Map<String, Tag> tags_by_name = new HashMap<>();
+
+    /** Quarantine info for a {@link Tag} */
+    private static class Quarantine
+    {
+        /** Number of failed reads */
+        int failures = 1;
+
+        /** Time for next retry, {@link System#nanoTime()} */
+        long retry;
+    }
+
+    /**
+     * {@link Tag}s in quarantine
+     * <p>
+     * SYNC on <code>this</code> for access
+     */
+    final private Map<Tag, Quarantine> quarantine = new HashMap<>();
+
+    /** Delay before first retry of a quarantined tag */
+    private long min_backoff_ms = 1000;
+
+    /** Maximum delay between retries of a quarantined tag */
+    private long max_backoff_ms = 60000;
+
+    /**
+     * {@link Tag}s that are not in quarantine, <code>null</code> to determine anew
+     * <p>
+     * SYNC on <code>this</code> for access
+     */
+    private List<Tag> active = null;
+
+    /**
+     * Reads of all {@link #active} tags, used while no tag needs to be written
+     * <p>
+     * SYNC on <code>this</code> for access
+     */
+    private MRChipReadProtocol[] reads = null;
+
+    /**
+     * {@link #reads} packed into groups for multi-requests
+     * <p>
+     * SYNC on <code>this</code> for access
+     */
+    private List<MessageRouterProtocol[]> read_groups = null;
+
+    /**
+     * Compiled request for each of the {@link #read_groups}, <code>null</code> when tags have been added
+     * <p>
+     * SYNC on <code>this</code> for access
+     */
+    private CompiledRequest[] read_requests = null;
+
+    /** {@link PacketLimits#getChanges()} when {@link #read_requests} were compiled */
+    private long read_limits = 0;
+
+    /** Estimated reply size of all {@link #reads} when {@link #read_requests} were compiled */
+    private int read_estimate = 0;
+
+    /** Reuse the previous value of each tag to receive the next value? */
+    private boolean double_buffering = false;
+
+    /**
+     * Add tag to list
+     * <p>
+     * A tag is only read once, even when added several times.
+     *
      * @param name
      *            Name of tag to add to list
-     * @return {@link Tag}
+     * @return {@link Tag}, the existing one if the list already holds a tag of that name
      */
     public synchronized Tag add(final String name)
     {
+        final Tag existing = this.tags_by_name.get(name);
+        if (existing != null)
+        {
+            return existing;
+        }
         final Tag tag = new Tag(name);
-        this.tags.add(tag);
+        this.add(tag);
         return tag;
     }
 
+    /**
+     * Add tag to list
+     * <p>
+     * Allows moving a {@link Tag} between lists while keeping its listeners.
+     *
+     * @param tag
+     *            {@link Tag} to add
+     * @throws IllegalArgumentException
+     *             when list already holds a different tag of that name
+     */
+    public synchronized void add(final Tag tag)
+    {
+        final Tag existing = this.tags_by_name.putIfAbsent(tag.getName(), tag);
+        if (existing == tag)
+        {
+            return;
+        }
+        if (existing != null)
+        {
+            throw new IllegalArgumentException("Duplicate tag '" + tag.getName() + "'");
+        }
+        this.tags.add(tag);
+        this.active = null;
+    }
+
+    /**
+     * @param tag
+     *            {@link Tag} to remove from list
+     * @return <code>true</code> if tag was on the list
+     */
+    public synchronized boolean remove(final Tag tag)
+    {
+        if (this.tags_by_name.get(tag.getName()) != tag)
+        {
+            return false;
+        }
+        this.tags_by_name.remove(tag.getName());
+        this.tags.remove(tag);
+        this.quarantine.remove(tag);
+        this.active = null;
+        return true;
+    }
+
+    /** @return Number of tags on the list */
+    public synchronized int size()
+    {
+        return this.tags.size();
+    }
+
+    /**
+     * Configure the delay between retries of a quarantined tag
+     *
+     * @param min_backoff_ms
+     *            Delay before first retry
+     * @param max_backoff_ms
+     *            Maximum delay, reached by doubling the delay after each failure
+     */
+    public synchronized void setBackoff(final long min_backoff_ms, final long max_backoff_ms)
+    {
+        this.min_backoff_ms = min_backoff_ms;
+        this.max_backoff_ms = max_backoff_ms;
+    }
+
+    /**
+     * Configure double buffering of tag values
+     * <p>
+     * By default, each read creates new {@link CIPData} for each tag.
+     * With double buffering, each tag keeps its previous value
+     * and the next read places its data into that previous value,
+     * so scanning the same tags over and over creates hardly any garbage.
+     * <p>
+     * The {@link CIPData} obtained via {@link Tag#getValue()} or in {@link TagListener#tagUpdate(Tag)}
+     * then only remains unchanged until the <u>second</u> following update of the tag,
+     * which overwrites it in place on the thread that reads the tags.
+     * This breaks the promise of {@link Tag#getValue()} that the value is not modified:
+     * Only access values within {@link TagListener#tagUpdate(Tag)} on that thread,
+     * and copy them there if they are needed later.
+     * Other threads must not read the values, and listeners must not be called
+     * via a {@link TagDispatcher}.
+     *
+     * @param double_buffering
+     *            Reuse values?
+     */
+    public synchronized void setDoubleBuffering(final boolean double_buffering)
+    {
+        this.double_buffering = double_buffering;
+    }
+
+    /** @return Number of tags in quarantine */
+    public synchronized int getQuarantineCount()
+    {
+        return this.quarantine.size();
+    }
+
+    /** @return Size of one multi-request that reads all tags not in quarantine */
+    public synchronized int getRequestSize()
+    {
+        this.getActive();
+        return MultiRequestPacker.getRequestSize(this.getReads());
+    }
+
+    /**
+     * @param sizes
+     *            {@link ReplySizes} learned by the connection
+     * @return Estimated reply size for {@link #getRequestSize()}
+     */
+    public synchronized int getEstimatedResponseSize(final ReplySizes sizes)
+    {
+        this.getActive();
+        return MultiRequestPacker.getEstimatedResponseSize(sizes, this.getReads());
+    }
+
     /**
      * Locate tag for name
      *
@@ -64,86 +265,362 @@ public class TagList
      */
     public synchronized Tag get(final String name)
     {
-        for (final Tag tag : this.tags)
+        final Tag tag = this.tags_by_name.get(name);
+        if (tag == null)
         {
-            if (tag.getName().equals(name))
-            {
-                return tag;
-            }
+            throw new IllegalArgumentException("Unknown tag '" + name + "'");
         }
-        throw new IllegalArgumentException("Unknown tag '" + name + "'");
+        return tag;
     }
 
     /**
      * Process tags on list
      * <p>
      * Reads most tags and updates their value. Exception are tags marked for writing, which are written once, then reset to read-mode.
+     * <p>
+     * Tags that fail to read are placed in quarantine and their listeners receive
+     * {@link TagListener#tagError(Tag)}, but that does not affect the remaining tags.
+     * Tags that fail to write report the error and return to reading.
+     * <p>
+     * Tags are packed into multi-requests that fit the learned {@link PacketLimits} of the connection.
+     * While all tags are only read, the same requests are sent over and over.
+     * They are encoded once and then only patched for each call.
      *
      * @param connection
      *            {@link Connection} to use for the communication
      * @throws Exception
-     *             on error
+     *             on communication error
      */
     public synchronized void process(final Connection connection)
             throws Exception
     {
+        this.retryQuarantined(connection);
+        final List<Tag> processed = this.getActive();
+
         // Determine which tags are to read and which to write
-        final MessageRouterProtocol[] readwrite = new MessageRouterProtocol[this.tags
-                .size()];
-        for (int i = 0; i < this.tags.size(); ++i)
+        final MessageRouterProtocol[] readwrite;
+        if (this.isReadOnly())
+        {
+            readwrite = this.prepareReads();
+            // Pack and compile again when the connection, limits or reply estimates changed
+            final int estimate = MultiRequestPacker.getEstimatedResponseSize(connection.getReplySizes(), this.reads);
+            if (!this.isCompiledFor(connection, estimate))
+            {
+                this.read_groups = connection.packMultiRequest(MultiRequestPacker.DEFAULT_MAX_COUNT, this.reads);
+                this.read_requests = new CompiledRequest[this.read_groups.size()];
+                for (int i = 0; i < this.read_requests.length; ++i)
+                {
+                    this.read_requests[i] = connection.compileRequest(new MessageRouterProtocol(
+                            CNService.CIP_MultiRequest, MessageRouter(),
+                            new CIPMultiRequestProtocol(this.read_groups.get(i))));
+                }
+                this.read_limits = connection.getPacketLimits().getChanges();
+                this.read_estimate = estimate;
+            }
+
+            // Perform the protocol exchange
+            for (int i = 0; i < this.read_requests.length; ++i)
+            {
+                connection.executeMultiRequest(MultiRequestPacker.DEFAULT_MAX_COUNT,
+                        this.read_groups.get(i), this.read_requests[i]);
+            }
+        }
+        else
+        {
+            readwrite = this.prepareReadWrite();
+
+            // Perform the protocol exchange
+            connection.executeMultiRequest(MultiRequestPacker.DEFAULT_MAX_COUNT, readwrite);
+        }
+
+        this.handleResponses(processed, readwrite);
+    }
+
+    /**
+     * Process several lists together
+     * <p>
+     * The reads and writes of all lists are packed into shared multi-requests,
+     * so lists that are due at the same time can share network packets.
+     * Unlike {@link #process(Connection)} of a single list,
+     * the shared requests are encoded anew for each call.
+     * <p>
+     * The lists must not be processed by other threads at the same time.
+     *
+     * @param connection
+     *            {@link Connection} to use for the communication
+     * @param lists
+     *            {@link TagList}s to process
+     * @throws Exception
+     *             on communication error
+     */
+    public static void process(final Connection connection, final List<TagList> lists)
+            throws Exception
+    {
+        if (lists.size() == 1)
         {
-            final Tag tag = this.tags.get(i);
-            synchronized (tag)
+            lists.get(0).process(connection);
+            return;
+        }
+
+        final List<List<Tag>> processed = new ArrayList<>(lists.size());
+        final List<MessageRouterProtocol[]> requests = new ArrayList<>(lists.size());
+        int count = 0;
+        for (final TagList list : lists)
+        {
+            synchronized (list)
+            {
+                list.retryQuarantined(connection);
+                processed.add(list.getActive());
+                final MessageRouterProtocol[] readwrite = list.isReadOnly()
+                        ? list.prepareReads()
+                        : list.prepareReadWrite();
+                requests.add(readwrite);
+                count += readwrite.length;
+            }
+        }
+        if (count <= 0)
+        {
+            return;
+        }
+
+        // Perform the protocol exchange for all lists
+        final MessageRouterProtocol[] all = new MessageRouterProtocol[count];
+        int pos = 0;
+        for (final MessageRouterProtocol[] readwrite : requests)
+        {
+            System.arraycopy(readwrite, 0, all, pos, readwrite.length);
+            pos += readwrite.length;
+        }
+        connection.executeMultiRequest(MultiRequestPacker.DEFAULT_MAX_COUNT, all);
+
+        for (int i = 0; i < lists.size(); ++i)
+        {
+            final TagList list = lists.get(i);
+            synchronized (list)
             {
-                switch (tag.getState())
+                list.handleResponses(processed.get(i), requests.get(i));
+            }
+        }
+    }
+
+    /** @return {@link #active} tags, determined anew if necessary. SYNC on <code>this</code> */
+    private List<Tag> getActive()
+    {
+        if (this.active == null)
+        {
+            this.active = new ArrayList<>(this.tags.size());
+            for (final Tag tag : this.tags)
+            {
+                if (!this.quarantine.containsKey(tag))
                 {
-                case READING:
-                    readwrite[i] = new MRChipReadProtocol(tag.getName());
-                    break;
-                default:
-                    readwrite[i] = new MRChipWriteProtocol(tag.getName(),
-                            tag.getValue());
-                    tag.setState(State.WRITING);
+                    this.active.add(tag);
                 }
             }
+            this.reads = null;
+            this.read_requests = null;
+        }
+        return this.active;
+    }
+
+    /** @return {@link #reads} for all {@link #active} tags. SYNC on <code>this</code> */
+    private MRChipReadProtocol[] getReads()
+    {
+        if (this.reads == null)
+        {
+            this.reads = new MRChipReadProtocol[this.active.size()];
+            for (int i = 0; i < this.reads.length; ++i)
+            {
+                this.reads[i] = new MRChipReadProtocol(this.active.get(i).getName());
+            }
         }
+        return this.reads;
+    }
 
-        // Perform the protocol exchange
-        final Encapsulation encap = new Encapsulation(SendRRData,
-                connection.getSession(),
-                new SendRRDataProtocol(new UnconnectedSendProtocol(
-                        connection.getSlot(), new MessageRouterProtocol(
-                                CNService.CIP_MultiRequest, MessageRouter(),
-                                new CIPMultiRequestProtocol(readwrite)))));
-        connection.execute(encap);
+    /** @return {@link #reads} prepared for the next exchange. SYNC on <code>this</code> */
+    private MRChipReadProtocol[] prepareReads()
+    {
+        this.getReads();
+        if (this.double_buffering)
+        {
+            for (int i = 0; i < this.reads.length; ++i)
+            {
+                this.reads[i].recycle(this.active.get(i).takeSpare());
+            }
+        }
+        return this.reads;
+    }
+
+    /** @return Reads or writes for all {@link #active} tags. SYNC on <code>this</code> */
+    private MessageRouterProtocol[] prepareReadWrite()
+    {
+        final MessageRouterProtocol[] readwrite = new MessageRouterProtocol[this.active.size()];
+        for (int i = 0; i < readwrite.length; ++i)
+        {
+            final Tag tag = this.active.get(i);
+            final CIPData value = tag.startWrite();
+            if (value == null)
+            {
+                readwrite[i] = new MRChipReadProtocol(tag.getName());
+            }
+            else
+            {
+                readwrite[i] = new MRChipWriteProtocol(tag.getName(), value);
+            }
+        }
+        return readwrite;
+    }
 
-        // Handle responses: Fetch data, reset 'write' flags
-        for (int i = 0; i < this.tags.size(); ++i)
+    /**
+     * Handle responses: Fetch data, reset 'write' flags
+     *
+     * @param processed
+     *            {@link Tag}s that were processed
+     * @param readwrite
+     *            Read or write for each of the tags
+     */
+    private void handleResponses(final List<Tag> processed, final MessageRouterProtocol[] readwrite)
+    {
+        final MultiRequestResult result = new MultiRequestResult(readwrite);
+        for (int i = 0; i < readwrite.length; ++i)
         {
-            final Tag tag = this.tags.get(i);
-            synchronized (tag)
+            final Tag tag = processed.get(i);
+            if (!result.isOk(i))
             {
-                switch (tag.getState())
+                this.handleError(tag, readwrite[i], result.getError(i));
+                continue;
+            }
+            if (readwrite[i] instanceof MRChipReadProtocol)
+            {   // Read, update the tag's value unless it's meanwhile meant to be written
+                final MRChipReadProtocol reader = (MRChipReadProtocol) readwrite[i];
+                if (tag.setValue(reader.getData(), this.double_buffering))
                 {
-                case READING:
-                    // Read, update the tag's value
-                    final MRChipReadProtocol reader = (MRChipReadProtocol) readwrite[i];
-                    tag.setValue(reader.getData());
                     logger.log(Level.FINE, "Read {0}", tag);
-                    break;
-                case WRITING:
-                    // Finished writing, return to reading
-                    tag.setState(State.READING);
-                    logger.log(Level.FINE, "Wrote {0}", tag);
-                    break;
-                case TO_BE_WRITTEN:
-                    // Received yet another value to be written while writing the
-                    // previous one, so keep the TO_BE_WRITTEN state
-                    logger.log(Level.FINE,
-                            "Wrote {0}, need to write updated value", tag);
                 }
             }
+            else if (tag.finishWrite())
+            {   // Finished writing, returned to reading
+                logger.log(Level.FINE, "Wrote {0}", tag);
+            }
+            else
+            {   // Received yet another value to be written while writing the
+                // previous one, so keep the TO_BE_WRITTEN state
+                logger.log(Level.FINE, "Wrote {0}, need to write updated value", tag);
+            }
+        }
+    }
+
+    /**
+     * Handle tag that failed to read or write
+     *
+     * @param tag
+     *            {@link Tag}
+     * @param request
+     *            Failed read or write
+     * @param error
+     *            Error
+     */
+    private void handleError(final Tag tag, final MessageRouterProtocol request, final Exception error)
+    {
+        if (request instanceof MRChipWriteProtocol)
+        {   // Return to reading, which may then also fail
+            tag.finishWrite();
+            logger.log(Level.WARNING, "Cannot write " + tag.getName() + ": " + error.getMessage());
+        }
+        else
+        {
+            final Quarantine info = new Quarantine();
+            info.retry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.min_backoff_ms);
+            this.quarantine.put(tag, info);
+            this.active = null;
+            logger.log(Level.WARNING, "Cannot read " + tag.getName() + ", placing it in quarantine: " + error.getMessage());
+        }
+        tag.setError(error);
+    }
+
+    /**
+     * Retry reading quarantined tags that are due
+     *
+     * @param connection
+     *            {@link Connection}
+     * @throws Exception
+     *             on communication error
+     */
+    private void retryQuarantined(final Connection connection) throws Exception
+    {
+        if (this.quarantine.isEmpty())
+        {
+            return;
+        }
+        final long now = System.nanoTime();
+        final Iterator<Map.Entry<Tag, Quarantine>> entries = this.quarantine.entrySet().iterator();
+        while (entries.hasNext())
+        {
+            final Map.Entry<Tag, Quarantine> entry = entries.next();
+            final Tag tag = entry.getKey();
+            final Quarantine info = entry.getValue();
+            if (now - info.retry < 0)
+            {
+                continue;
+            }
+            final MRChipReadProtocol read = new MRChipReadProtocol(tag.getName());
+            try
+            {
+                connection.execute(connection.createRequest(read));
+            }
+            catch (final CipException ex)
+            {
+                ++info.failures;
+                final long delay = Math.min(this.max_backoff_ms,
+                        this.min_backoff_ms << Math.min(info.failures - 1, 30));
+                info.retry = now + TimeUnit.MILLISECONDS.toNanos(delay);
+                logger.log(Level.FINE, "Cannot read {0} after {1} attempts, next retry in {2} ms",
+                        new Object[] { tag.getName(), info.failures, delay });
+                tag.setError(ex);
+                continue;
+            }
+            entries.remove();
+            this.active = null;
+            logger.log(Level.INFO, "Read {0}, leaving quarantine", tag.getName());
+            tag.setValue(read.getData());
+        }
+    }
+
+    /**
+     * @param connection
+     *            {@link Connection}
+     * @param estimate
+     *            Current estimate for the reply size of all reads
+     * @return <code>true</code> if the {@link #read_requests} can be sent as they are
+     */
+    private boolean isCompiledFor(final Connection connection, final int estimate)
+    {
+        if (this.read_requests == null  ||
+            this.read_limits != connection.getPacketLimits().getChanges()  ||
+            this.read_estimate != estimate)
+        {
+            return false;
+        }
+        for (final CompiledRequest request : this.read_requests)
+        {
+            if (!request.isValidFor(connection))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return <code>true</code> if no active tag needs to be written */
+    private boolean isReadOnly()
+    {
+        for (final Tag tag : this.active)
+        {
+            if (tag.getState() != State.READING)
+            {
+                return false;
+            }
         }
+        return true;
     }
 
     @Override
@@ -9,6 +9,10 @@ package etherip;
 
 /**
  * Listener to {@link Tag}
+ * <p>
+ * Called for every read of the tag.
+ * Wrap in a {@link ChangeFilter} to only receive changed values,
+ * use a {@link TagDispatcher} to call slow listeners on other threads.
  *
  * @author Kay Kasemir
  */
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CIP connection for connected (class 3) explicit messaging
+ * <p>
+ * Opened via Forward_Open, then used by {@link SendUnitDataProtocol}
+ * to send requests to the controller's message router
+ * without routing each of them through the connection manager.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class CIPConnection
+{
+    final private int o_t_id, t_o_id;
+    final private short serial;
+    final private short vendor;
+    final private int originator_serial;
+    final private int size;
+    final private long timeout_ms;
+
+    /** Sequence count of connected messages */
+    final private AtomicInteger sequence = new AtomicInteger();
+
+    /** Time of last message, {@link System#nanoTime()} */
+    private volatile long last_used = System.nanoTime();
+
+    /**
+     * Initialize
+     *
+     * @param o_t_id
+     *            Originator to target connection ID, used for our requests
+     * @param t_o_id
+     *            Target to originator connection ID, used for replies
+     * @param serial
+     *            Connection serial number
+     * @param vendor
+     *            Originator vendor ID
+     * @param originator_serial
+     *            Originator serial number
+     * @param size
+     *            Connection size in bytes
+     */
+    public CIPConnection(final int o_t_id, final int t_o_id,
+            final short serial, final short vendor,
+            final int originator_serial, final int size)
+    {
+        this(o_t_id, t_o_id, serial, vendor, originator_serial, size, 0);
+    }
+
+    /**
+     * Initialize
+     *
+     * @param o_t_id
+     *            Originator to target connection ID, used for our requests
+     * @param t_o_id
+     *            Target to originator connection ID, used for replies
+     * @param serial
+     *            Connection serial number
+     * @param vendor
+     *            Originator vendor ID
+     * @param originator_serial
+     *            Originator serial number
+     * @param size
+     *            Connection size in bytes
+     * @param timeout_ms
+     *            Time without traffic after which the device closes the connection, 0 if not known
+     */
+    public CIPConnection(final int o_t_id, final int t_o_id,
+            final short serial, final short vendor,
+            final int originator_serial, final int size,
+            final long timeout_ms)
+    {
+        this.o_t_id = o_t_id;
+        this.t_o_id = t_o_id;
+        this.serial = serial;
+        this.vendor = vendor;
+        this.originator_serial = originator_serial;
+        this.size = size;
+        this.timeout_ms = timeout_ms;
+    }
+
+    /** @return Originator to target connection ID, used for our requests */
+    public int getOriginatorToTargetID()
+    {
+        return this.o_t_id;
+    }
+
+    /** @return Target to originator connection ID, used for replies */
+    public int getTargetToOriginatorID()
+    {
+        return this.t_o_id;
+    }
+
+    /** @return Connection serial number */
+    public short getSerial()
+    {
+        return this.serial;
+    }
+
+    /** @return Originator vendor ID */
+    public short getVendor()
+    {
+        return this.vendor;
+    }
+
+    /** @return Originator serial number */
+    public int getOriginatorSerial()
+    {
+        return this.originator_serial;
+    }
+
+    /** @return Connection size in bytes, i.e. maximum size of a connected message */
+    public int getSize()
+    {
+        return this.size;
+    }
+
+    /** @return Time without traffic after which the device closes the connection, 0 if not known */
+    public long getTimeoutMillis()
+    {
+        return this.timeout_ms;
+    }
+
+    /** @return Milliseconds since the last connected message */
+    public long getIdleMillis()
+    {
+        return (System.nanoTime() - this.last_used) / 1000000;
+    }
+
+    /** @return Sequence count for the next connected message */
+    short nextSequence()
+    {
+        this.last_used = System.nanoTime();
+        return (short) this.sequence.incrementAndGet();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("CIP connection O->T 0x%08X, T->O 0x%08X, serial 0x%04X, %d bytes",
+                this.o_t_id, this.t_o_id, this.serial, this.size);
+    }
+}
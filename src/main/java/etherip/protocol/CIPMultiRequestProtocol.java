@@ -9,18 +9,28 @@ package etherip.protocol;
 
 import java.nio.ByteBuffer;
 
+import etherip.data.CipException;
 import etherip.types.CNService;
 
 /**
  * Protocol for {@link CNService#CIP_MultiRequest}
  * <p>
  * Handles several embedded {@link MessageRouterProtocol} read or write requests.
+ * <p>
+ * An error in one embedded request does not fail the others.
+ * The status of each embedded request is available from the
+ * {@link MessageRouterProtocol} or via {@link MultiRequestResult}.
  *
  * @author Kay Kasemir
  */
 @SuppressWarnings("nls")
 public class CIPMultiRequestProtocol extends ProtocolAdapter
 {
+    /** Size of multi-request to message router without any embedded request:
+     *  Service and path size, path to message router, count
+     */
+    final public static int OVERHEAD = 2 + 4 + 2;
+
     final private MessageRouterProtocol[] services;
 
     public CIPMultiRequestProtocol(final MessageRouterProtocol... services)
@@ -55,26 +65,23 @@ public class CIPMultiRequestProtocol extends ProtocolAdapter
             log.append("UINT count              : ").append(count).append("\n");
         }
 
-        // Encode offsets to individual requests
-        // Offset to 1st item:
-        // 2 bytes for 'count', 2 bytes for each offset
-        short offset = (short) (2 + 2 * count);
+        // Offsets to individual requests are patched
+        // as each request is encoded,
+        // so sizes of the requests need not be computed
+        final int offsets = buf.position();
         for (int i = 0; i < count; ++i)
         {
-            buf.putShort(offset);
-            if (log != null)
-            {
-                log.append("UINT offset             : ").append(offset)
-                        .append("\n");
-            }
-            // Next offset: After bytes for this request
-            offset += this.services[i].getRequestSize();
+            buf.putShort((short) 0);
         }
 
         for (int i = 0; i < count; ++i)
         {
+            final short offset = (short) (buf.position() - start);
+            buf.putShort(offsets + 2 * i, offset);
             if (log != null)
             {
+                log.append("UINT offset             : ").append(offset)
+                        .append("\n");
                 log.append("    \\/\\/ request ").append(i + 1)
                         .append(" \\/\\/ (offset ")
                         .append(buf.position() - start).append(" bytes)\n");
@@ -151,7 +158,18 @@ public class CIPMultiRequestProtocol extends ProtocolAdapter
                         .append(" \\/\\/ (offset ").append(off)
                         .append(" bytes)\n");
             }
-            this.services[i].decode(buf, section_length, log);
+            try
+            {
+                this.services[i].decode(buf, section_length, log);
+            }
+            catch (final CipException ex)
+            {   // Status is kept in the service, continue with next section
+                buf.position(start + off + section_length);
+                if (log != null)
+                {
+                    log.append("    Error: ").append(ex.getMessage()).append("\n");
+                }
+            }
             if (log != null)
             {
                 log.append("    /\\/\\ response ").append(i + 1)
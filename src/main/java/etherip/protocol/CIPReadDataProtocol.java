@@ -23,6 +23,9 @@ public class CIPReadDataProtocol extends ProtocolAdapter
     private CIPData data;
     private final short count;
 
+    /** Data to reuse for the next reply, <code>null</code> to allocate new data */
+    private CIPData spare = null;
+
     /**
      * Create a read protocol message that requests a single element
      */
@@ -71,9 +74,16 @@ public class CIPReadDataProtocol extends ProtocolAdapter
             return;
         }
         final CIPData.Type type = CIPData.Type.forCode(buf.getShort());
-        final byte[] raw = new byte[available - 2];
-        buf.get(raw);
-        this.data = new CIPData(type, raw);
+        final int size = available - 2;
+        if (this.spare != null  &&  this.spare.update(type, buf, size))
+        {
+            this.data = this.spare;
+        }
+        else
+        {
+            this.data = new CIPData(type, buf, size);
+        }
+        this.spare = null;
         if (log != null)
         {
             log.append("USINT type, data        : ").append(this.data)
@@ -81,6 +91,26 @@ public class CIPReadDataProtocol extends ProtocolAdapter
         }
     }
 
+    /** @return Number of elements to read */
+    final public short getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Provide data to reuse for the next reply
+     * <p>
+     * If the reply has the same type and size, its data is
+     * placed into the spare instead of allocating new {@link CIPData}.
+     *
+     * @param spare
+     *            {@link CIPData} that may be overwritten, or <code>null</code>
+     */
+    final public void recycle(final CIPData spare)
+    {
+        this.spare = spare;
+    }
+
     final public CIPData getData()
     {
         return this.data;
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import etherip.types.CIPData;
+import etherip.types.CNService;
+
+/**
+ * Body of a {@link CNService#CIP_ReadDataFragmented} request and reply
+ * <p>
+ * Requests the elements of an array tag starting at a byte offset.
+ * When the reply indicates a partial transfer,
+ * the request is sent again for the next offset
+ * until all data has been received.
+ * <p>
+ * Each fragment is copied straight from the receive buffer into the target,
+ * which may be a {@link ByteBuffer} for the raw data,
+ * or a {@link FloatBuffer}, {@link IntBuffer} or {@link ShortBuffer}
+ * for example wrapping a primitive array of the caller.
+ * Without a target, fragments are collected for {@link #getData()}.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class CIPReadFragmentedProtocol extends ProtocolAdapter
+{
+    final private short count;
+
+    /** Expected data type, <code>null</code> to accept any */
+    final private CIPData.Type expected;
+
+    /** Target for data, <code>null</code> to collect in {@link #collected} */
+    final private Buffer target;
+
+    /** Collected data when there's no target */
+    private ByteBuffer collected = null;
+
+    /** Byte offset of the next fragment */
+    private int offset = 0;
+
+    /** Bytes in the most recent fragment */
+    private int fragment_size = 0;
+
+    private CIPData.Type type = null;
+
+    /** Structure handle that follows the STRUCT type code */
+    private short struct_handle = 0;
+
+    /**
+     * Initialize
+     *
+     * @param count
+     *            Number of array elements to read
+     * @param expected
+     *            Expected data type, <code>null</code> to accept any
+     * @param target
+     *            {@link ByteBuffer}, {@link FloatBuffer}, {@link IntBuffer} or {@link ShortBuffer}
+     *            where data will be placed, <code>null</code> to collect data for {@link #getData()}
+     */
+    public CIPReadFragmentedProtocol(final int count, final CIPData.Type expected, final Buffer target)
+    {
+        if (count <= 0  ||  count > 0xFFFF)
+        {
+            throw new IllegalArgumentException("Cannot read " + count + " elements");
+        }
+        this.count = (short) count;
+        this.expected = expected;
+        this.target = target;
+    }
+
+    /** @return Byte offset of the next fragment */
+    public int getOffset()
+    {
+        return this.offset;
+    }
+
+    /** @return Number of data bytes in the most recent fragment */
+    public int getFragmentSize()
+    {
+        return this.fragment_size;
+    }
+
+    /** Advance offset beyond the most recent fragment */
+    public void advance()
+    {
+        this.offset += this.fragment_size;
+    }
+
+    /** @return Data type, <code>null</code> until a fragment has been received */
+    public CIPData.Type getType()
+    {
+        return this.type;
+    }
+
+    @Override
+    public int getRequestSize()
+    {
+        return 2 + 4;
+    }
+
+    @Override
+    public void encode(final ByteBuffer buf, final StringBuilder log)
+    {
+        buf.putShort(this.count);
+        buf.putInt(this.offset);
+        if (log != null)
+        {
+            log.append("UINT elements           : ").append(this.count & 0xFFFF).append("\n");
+            log.append("UDINT offset            : ").append(this.offset).append("\n");
+        }
+    }
+
+    @Override
+    public void decode(final ByteBuffer buf, final int available,
+            final StringBuilder log) throws Exception
+    {
+        if (available < 2)
+        {
+            this.fragment_size = 0;
+            return;
+        }
+        final CIPData.Type type = CIPData.Type.forCode(buf.getShort());
+        if (type == null)
+        {
+            throw new Exception("Unknown CIP type code");
+        }
+        if (this.expected != null  &&  type != this.expected)
+        {
+            throw new Exception("Expected " + this.expected + ", got " + type);
+        }
+        int size = available - 2;
+        if (type == CIPData.Type.STRUCT)
+        {
+            this.struct_handle = buf.getShort();
+            size -= 2;
+        }
+        this.type = type;
+        this.fragment_size = size;
+        if (log != null)
+        {
+            log.append("USINT type, data        : ").append(type).append(", ")
+               .append(size).append(" bytes at offset ").append(this.offset).append("\n");
+        }
+
+        // View of the fragment within the receive buffer
+        final ByteBuffer fragment = buf.slice().order(Connection.BYTE_ORDER);
+        fragment.limit(size);
+        buf.position(buf.position() + size);
+
+        if (this.target == null)
+        {
+            this.collect(fragment);
+        }
+        else if (this.target instanceof ByteBuffer)
+        {
+            ((ByteBuffer) this.target).put(fragment);
+        }
+        else if (this.target instanceof FloatBuffer)
+        {
+            ((FloatBuffer) this.target).put(fragment.asFloatBuffer());
+        }
+        else if (this.target instanceof IntBuffer)
+        {
+            ((IntBuffer) this.target).put(fragment.asIntBuffer());
+        }
+        else if (this.target instanceof ShortBuffer)
+        {
+            ((ShortBuffer) this.target).put(fragment.asShortBuffer());
+        }
+        else
+        {
+            throw new Exception("Cannot place data into " + this.target.getClass().getName());
+        }
+    }
+
+    /** @param fragment Fragment to add to {@link #collected} */
+    private void collect(final ByteBuffer fragment)
+    {
+        if (this.collected == null)
+        {   // Size of complete data is known for atomic types, grow as needed for structures
+            final int size = this.type.getElementSize() * (this.count & 0xFFFF);
+            this.collected = ByteBuffer.allocate(Math.max(size, fragment.remaining()));
+        }
+        else if (this.collected.remaining() < fragment.remaining())
+        {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * this.collected.capacity(),
+                    this.collected.position() + fragment.remaining()));
+            this.collected.flip();
+            grown.put(this.collected);
+            this.collected = grown;
+        }
+        this.collected.put(fragment);
+    }
+
+    /**
+     * @return Data collected from all fragments
+     * @throws Exception
+     *             on error, or when data was placed into a target
+     */
+    public CIPData getData() throws Exception
+    {
+        if (this.collected == null)
+        {
+            throw new Exception("No data collected");
+        }
+        final int size = this.collected.position();
+        final byte[] raw;
+        if (this.type == CIPData.Type.STRUCT)
+        {   // Data is structure handle, then structure
+            raw = new byte[2 + size];
+            ByteBuffer.wrap(raw).order(Connection.BYTE_ORDER)
+                      .putShort(this.struct_handle)
+                      .put(this.collected.array(), 0, size);
+        }
+        else if (size == this.collected.capacity())
+        {
+            raw = this.collected.array();
+        }
+        else
+        {
+            raw = new byte[size];
+            System.arraycopy(this.collected.array(), 0, raw, 0, size);
+        }
+        return new CIPData(this.type, raw);
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import etherip.types.CIPData;
+import etherip.types.CNService;
+
+/**
+ * Body of a {@link CNService#CIP_WriteDataFragmented} request
+ * <p>
+ * Writes one fragment of an array tag at a byte offset.
+ * The fragment is encoded straight from the source,
+ * which may be a {@link ByteBuffer} with raw data,
+ * or a {@link FloatBuffer}, {@link IntBuffer} or {@link ShortBuffer}
+ * for example wrapping a primitive array of the caller.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class CIPWriteFragmentedProtocol extends ProtocolAdapter
+{
+    /** Size of request without structure handle and data: Type, elements, offset */
+    final public static int OVERHEAD = 2 + 2 + 4;
+
+    final private CIPData.Type type;
+
+    final private short struct_handle;
+
+    final private short count;
+
+    final private int offset;
+
+    /** Fragment data from position to limit */
+    final private Buffer fragment;
+
+    /** Size of fragment in bytes */
+    final private int size;
+
+    /**
+     * Initialize
+     *
+     * @param type
+     *            Data type of the array
+     * @param struct_handle
+     *            Structure handle for {@link CIPData.Type#STRUCT}, ignored for other types
+     * @param count
+     *            Number of elements in the complete array
+     * @param offset
+     *            Byte offset of this fragment
+     * @param fragment
+     *            {@link ByteBuffer}, {@link FloatBuffer}, {@link IntBuffer} or {@link ShortBuffer}
+     *            with the data of this fragment between its position and limit
+     */
+    public CIPWriteFragmentedProtocol(final CIPData.Type type, final short struct_handle,
+            final int count, final int offset, final Buffer fragment)
+    {
+        if (count <= 0  ||  count > 0xFFFF)
+        {
+            throw new IllegalArgumentException("Cannot write " + count + " elements");
+        }
+        this.type = type;
+        this.struct_handle = struct_handle;
+        this.count = (short) count;
+        this.offset = offset;
+        this.fragment = fragment;
+        this.size = fragment.remaining() * getBytesPerElement(fragment);
+    }
+
+    /**
+     * @param buffer
+     *            {@link Buffer}
+     * @return Number of bytes for each element of the buffer
+     */
+    public static int getBytesPerElement(final Buffer buffer)
+    {
+        if (buffer instanceof ByteBuffer)
+        {
+            return 1;
+        }
+        if (buffer instanceof FloatBuffer  ||  buffer instanceof IntBuffer)
+        {
+            return 4;
+        }
+        if (buffer instanceof ShortBuffer)
+        {
+            return 2;
+        }
+        throw new IllegalArgumentException("Cannot write data from " + buffer.getClass().getName());
+    }
+
+    /** @return Size of the fragment's data in bytes */
+    public int getFragmentSize()
+    {
+        return this.size;
+    }
+
+    @Override
+    public int getRequestSize()
+    {
+        return OVERHEAD + (this.type == CIPData.Type.STRUCT ? 2 : 0) + this.size;
+    }
+
+    @Override
+    public void encode(final ByteBuffer buf, final StringBuilder log)
+    {
+        buf.putShort(this.type.getCode());
+        if (this.type == CIPData.Type.STRUCT)
+        {
+            buf.putShort(this.struct_handle);
+        }
+        buf.putShort(this.count);
+        buf.putInt(this.offset);
+        if (log != null)
+        {
+            log.append("UINT type               : ").append(this.type).append("\n");
+            log.append("UINT elements           : ").append(this.count & 0xFFFF).append("\n");
+            log.append("UDINT offset            : ").append(this.offset).append("\n");
+            log.append("USINT data              : ").append(this.size).append(" bytes\n");
+        }
+
+        // Encode may be called again for a retry, so copy from duplicate of fragment
+        if (this.fragment instanceof ByteBuffer)
+        {
+            buf.put(((ByteBuffer) this.fragment).duplicate());
+            return;
+        }
+        final ByteBuffer view = buf.slice().order(buf.order());
+        if (this.fragment instanceof FloatBuffer)
+        {
+            view.asFloatBuffer().put(((FloatBuffer) this.fragment).duplicate());
+        }
+        else if (this.fragment instanceof IntBuffer)
+        {
+            view.asIntBuffer().put(((IntBuffer) this.fragment).duplicate());
+        }
+        else
+        {
+            view.asShortBuffer().put(((ShortBuffer) this.fragment).duplicate());
+        }
+        buf.position(buf.position() + this.size);
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static etherip.protocol.Encapsulation.CONTEXT_OFFSET;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Request that is encoded once, then sent over and over
+ * <p>
+ * When the same request is sent again, for example to read
+ * the tags of a scan list, its bytes only differ in the
+ * context of the encapsulation header and,
+ * for connected messaging, the sequence count.
+ * The complete protocol stack is encoded the first time,
+ * later calls just copy the bytes and patch those fields.
+ * Each response is decoded by the protocols of the original request.
+ * <p>
+ * Obtained via {@link Connection#compileRequest(Protocol)},
+ * a compiled request is only valid for the session and
+ * CIP connection that it was created for.
+ *
+ * @author Kay Kasemir
+ */
+public class CompiledRequest implements Protocol
+{
+    final private Encapsulation request;
+
+    /** SendUnitData within request, <code>null</code> for unconnected request */
+    final private SendUnitDataProtocol unit_data;
+
+    final private int session;
+
+    final private CIPConnection cip_connection;
+
+    /** Encoded request, <code>null</code> until first encoded */
+    private byte[] encoded = null;
+
+    /**
+     * Initialize
+     *
+     * @param request
+     *            Request to send
+     * @param unit_data
+     *            {@link SendUnitDataProtocol} within request or <code>null</code>
+     * @param session
+     *            Session of the request
+     * @param cip_connection
+     *            {@link CIPConnection} of the request or <code>null</code>
+     */
+    CompiledRequest(final Encapsulation request, final SendUnitDataProtocol unit_data,
+            final int session, final CIPConnection cip_connection)
+    {
+        this.request = request;
+        this.unit_data = unit_data;
+        this.session = session;
+        this.cip_connection = cip_connection;
+    }
+
+    /**
+     * @param connection
+     *            {@link Connection}
+     * @return <code>true</code> if request can be sent on the connection, <code>false</code> if it needs to be compiled again
+     */
+    public boolean isValidFor(final Connection connection)
+    {
+        return connection.getSession() == this.session  &&
+               connection.getCIPConnection() == this.cip_connection;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getRequestSize()
+    {
+        if (this.encoded != null)
+        {
+            return this.encoded.length;
+        }
+        return this.request.getRequestSize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void encode(final ByteBuffer buf, final StringBuilder log) throws Exception
+    {
+        if (this.encoded != null)
+        {   // Sent before: Next context, sequence
+            this.request.renewContext();
+            if (this.unit_data != null)
+            {
+                this.unit_data.renewSequence();
+            }
+        }
+
+        final int start = buf.position();
+        if (this.encoded == null  ||  log != null)
+        {   // Encode complete request, keep the bytes
+            this.request.encode(buf, log);
+            final ByteBuffer copy = buf.duplicate();
+            copy.flip();
+            copy.position(start);
+            this.encoded = new byte[copy.remaining()];
+            copy.get(this.encoded);
+            return;
+        }
+
+        buf.put(this.encoded);
+        final byte[] context = this.request.getContext();
+        for (int i = 0; i < context.length; ++i)
+        {
+            buf.put(start + CONTEXT_OFFSET + i, context[i]);
+        }
+        if (this.unit_data != null)
+        {
+            buf.putShort(start + SendUnitDataProtocol.SEQUENCE_OFFSET, this.unit_data.getSequence());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getResponseSize(final ByteBuffer buf) throws Exception
+    {
+        return this.request.getResponseSize(buf);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void decode(final ByteBuffer buf, final int available, final StringBuilder log) throws Exception
+    {
+        this.request.decode(buf, available, log);
+    }
+}
@@ -8,11 +8,23 @@
 package etherip.protocol;
 
 import static etherip.EtherNetIP.logger;
+import static etherip.protocol.Encapsulation.Command.SendRRData;
+import static etherip.protocol.Encapsulation.Command.SendUnitData;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 
+import etherip.data.CipException;
+import etherip.types.CNPath;
+import etherip.types.CNService;
+
 /**
  * Connection to EtherNet/IP device
  * <p>
@@ -26,14 +38,25 @@ public abstract class Connection implements AutoCloseable
     /** EtherIP uses little endian */
     final public static ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
 
-    final private static int BUFFER_SIZE = 600;
+    /** Default EtherNet/IP TCP and UDP port */
+    final public static int DEFAULT_PORT = 0xAF12;
+
+    /** Initial buffer size, suitable for unconnected messages */
+    final protected static int BUFFER_SIZE = 600;
+
+    /** Maximum size of an unconnected message router request or reply, Logix 5000 limit */
+    final public static int UNCONNECTED_MESSAGE_SIZE = 500;
 
     protected final int slot;
 
-    protected final ByteBuffer buffer;
+    /** Buffer for one request or response, grows with the size of the {@link CIPConnection} */
+    protected volatile ByteBuffer buffer;
 
     private int session = 0;
 
+    /** CIP connection for connected messaging, or <code>null</code> */
+    private volatile CIPConnection cip_connection = null;
+
     /** Timeout for individual read/write operation */
     protected long timeout_ms = 2000;
 
@@ -42,7 +65,13 @@ public abstract class Connection implements AutoCloseable
      */
     protected long max_retry_count = 10;
 
-    protected int port = 0xAF12;
+    protected final int port;
+
+    /** Learned size limits for multi-requests to this device */
+    private final PacketLimits limits = new PacketLimits();
+
+    /** Learned reply sizes of tags on this device */
+    private final ReplySizes reply_sizes = new ReplySizes();
 
     /**
      * Initialize
@@ -56,6 +85,24 @@ public abstract class Connection implements AutoCloseable
      */
     public Connection(final String address, final int slot) throws Exception
     {
+        this(address, DEFAULT_PORT, slot);
+    }
+
+    /**
+     * Initialize
+     *
+     * @param address
+     *            IP address of device
+     * @param port
+     *            TCP or UDP port of device
+     * @param slot
+     *            Slot number 0, 1, .. of the controller within PLC crate
+     * @throws Exception
+     *             on error
+     */
+    public Connection(final String address, final int port, final int slot) throws Exception
+    {
+        this.port = port;
         logger.log(Level.INFO, "Connecting to {0}:{1}",
                 new Object[] { address, String.format("0x%04X", this.port) });
         this.slot = slot;
@@ -85,6 +132,321 @@ public abstract class Connection implements AutoCloseable
         return this.session;
     }
 
+    /**
+     * Set CIP connection for requests
+     * <p>
+     * Grows the buffer to hold packets of the connection size.
+     *
+     * @param cip_connection
+     *            {@link CIPConnection} to use for requests, <code>null</code> to use unconnected messaging
+     */
+    public synchronized void setCIPConnection(final CIPConnection cip_connection)
+    {
+        if (cip_connection != null)
+        {
+            final int needed = getPacketSize(cip_connection.getSize());
+            if (needed > this.buffer.capacity())
+            {
+                logger.log(Level.FINE, "Buffer size {0}", needed);
+                this.buffer = ByteBuffer.allocateDirect(needed);
+                this.buffer.order(BYTE_ORDER);
+            }
+        }
+        this.cip_connection = cip_connection;
+    }
+
+    /** @param connection_size Size of a {@link CIPConnection}
+     *  @return Size of encapsulated packet for that connection
+     */
+    static int getPacketSize(final int connection_size)
+    {
+        return Encapsulation.ENCAPSULATION_HEADER_SIZE
+                + SendUnitDataProtocol.UNIT_DATA_HEADER_SIZE
+                + connection_size;
+    }
+
+    /** @return {@link CIPConnection} used for requests, or <code>null</code> */
+    public CIPConnection getCIPConnection()
+    {
+        return this.cip_connection;
+    }
+
+    /**
+     * Get the maximum size of a message router request
+     * <p>
+     * Replies are subject to the same limit.
+     * Depends on the connection size when using connected messaging.
+     *
+     * @return Maximum size of a message router request in bytes
+     */
+    public int getMaxMessageSize()
+    {
+        final CIPConnection connected = this.cip_connection;
+        if (connected != null)
+        {   // Connection size includes the sequence count
+            return connected.getSize() - 2;
+        }
+        return UNCONNECTED_MESSAGE_SIZE;
+    }
+
+    /**
+     * Create encapsulated request for the message router of the controller
+     * <p>
+     * Uses connected messaging when a {@link CIPConnection} has been set,
+     * otherwise an unconnected send via the slot of the controller.
+     *
+     * @param request
+     *            Message router request
+     * @return {@link Encapsulation} to execute on this connection
+     */
+    public Encapsulation createRequest(final Protocol request)
+    {
+        final CIPConnection connected = this.cip_connection;
+        if (connected != null)
+        {
+            return new Encapsulation(SendUnitData, this.session,
+                    new SendUnitDataProtocol(connected, request));
+        }
+        return new Encapsulation(SendRRData, this.session,
+                new SendRRDataProtocol(
+                        new UnconnectedSendProtocol(this.slot, request)));
+    }
+
+    /**
+     * Create request that is encoded once, then sent over and over
+     *
+     * @param request
+     *            Message router request
+     * @return {@link CompiledRequest} to execute on this connection
+     *         until {@link CompiledRequest#isValidFor(Connection)} turns <code>false</code>
+     */
+    public CompiledRequest compileRequest(final Protocol request)
+    {
+        final CIPConnection connected = this.cip_connection;
+        if (connected != null)
+        {
+            final SendUnitDataProtocol unit_data = new SendUnitDataProtocol(connected, request);
+            return new CompiledRequest(new Encapsulation(SendUnitData, this.session, unit_data),
+                    unit_data, this.session, connected);
+        }
+        return new CompiledRequest(this.createRequest(request), null, this.session, null);
+    }
+
+    /** @return Learned size limits for multi-requests to this device */
+    public PacketLimits getPacketLimits()
+    {
+        return this.limits;
+    }
+
+    /** @return Learned reply sizes of tags on this device */
+    public ReplySizes getReplySizes()
+    {
+        return this.reply_sizes;
+    }
+
+    /**
+     * Remember reply sizes of executed messages
+     *
+     * @param messages
+     *            Messages that have been executed
+     */
+    public void learnReplySizes(final MessageRouterProtocol... messages)
+    {
+        for (final MessageRouterProtocol message : messages)
+        {
+            message.learnReplySize(this.reply_sizes);
+        }
+    }
+
+    /**
+     * Pack messages into groups for multi-requests
+     * <p>
+     * Groups fit the current {@link PacketLimits} of this connection.
+     *
+     * @param max_count
+     *            Maximum number of messages per group
+     * @param messages
+     *            Messages to pack
+     * @return Groups of messages, each to be sent in one multi-request
+     */
+    public List<MessageRouterProtocol[]> packMultiRequest(final int max_count, final MessageRouterProtocol... messages)
+    {
+        final int max = this.getMaxMessageSize();
+        return MultiRequestPacker.pack(this.limits.getRequestLimit(max),
+                this.limits.getResponseLimit(max), max_count, this.reply_sizes, messages);
+    }
+
+    /**
+     * Execute messages in as few multi-requests as possible
+     *
+     * @param max_count
+     *            Maximum number of messages per multi-request
+     * @param messages
+     *            Messages to execute
+     * @throws Exception
+     *             on error
+     * @see #executeMultiRequest(int, MessageRouterProtocol[], Protocol)
+     */
+    public void executeMultiRequest(final int max_count, final MessageRouterProtocol... messages) throws Exception
+    {
+        for (final MessageRouterProtocol[] group : this.packMultiRequest(max_count, messages))
+        {
+            this.executeMultiRequest(max_count, group, null);
+        }
+    }
+
+    /**
+     * Execute one group of messages as a multi-request
+     * <p>
+     * When the device reports that the request or reply is too large,
+     * the {@link PacketLimits} are lowered and the group is split and retried.
+     *
+     * @param max_count
+     *            Maximum number of messages per multi-request
+     * @param group
+     *            Messages to execute in one multi-request
+     * @param request
+     *            Request for the group, for example a {@link CompiledRequest},
+     *            or <code>null</code> to create one
+     * @throws Exception
+     *             on error
+     */
+    public void executeMultiRequest(final int max_count, final MessageRouterProtocol[] group,
+            final Protocol request) throws Exception
+    {
+        // Note sizes before the reply updates the estimates
+        final int max = this.getMaxMessageSize();
+        final int request_size = MultiRequestPacker.getRequestSize(group);
+        final int response_size = MultiRequestPacker.getEstimatedResponseSize(this.reply_sizes, group);
+        try
+        {
+            this.execute(request != null
+                    ? request
+                    : this.createRequest(new MessageRouterProtocol(CNService.CIP_MultiRequest,
+                            CNPath.MessageRouter(), new CIPMultiRequestProtocol(group))));
+        }
+        catch (final CipException ex)
+        {
+            if (group.length <= 1  ||  !this.limits.failure(max, ex.getStatusCode(), request_size, response_size))
+            {
+                throw ex;
+            }
+            for (final MessageRouterProtocol[] part : this.split(max_count, group))
+            {
+                this.executeMultiRequest(max_count, part, null);
+            }
+            return;
+        }
+        this.limits.success(max, request_size, response_size);
+        this.learnReplySizes(group);
+    }
+
+    /**
+     * Split a group that was too large for the device
+     *
+     * @param max_count
+     *            Maximum number of messages per multi-request
+     * @param group
+     *            Messages that failed as one multi-request
+     * @return Smaller groups, packed for the lowered {@link PacketLimits}
+     */
+    private List<MessageRouterProtocol[]> split(final int max_count, final MessageRouterProtocol[] group)
+    {
+        logger.log(Level.FINE, "Splitting multi-request of {0} messages: {1}",
+                new Object[] { group.length, this.limits });
+        final List<MessageRouterProtocol[]> split = this.packMultiRequest(max_count, group);
+        if (split.size() > 1)
+        {
+            return split;
+        }
+        // Estimates don't reflect the failure, split in halves
+        final int half = group.length / 2;
+        return List.of(Arrays.copyOfRange(group, 0, half),
+                       Arrays.copyOfRange(group, half, group.length));
+    }
+
+    /**
+     * Execute messages in as few multi-requests as possible without blocking
+     * <p>
+     * Groups are handled concurrently if the connection supports it.
+     * As in {@link #executeMultiRequest(int, MessageRouterProtocol[], Protocol)},
+     * groups that are too large for the device lower the {@link PacketLimits}
+     * and are split and retried.
+     *
+     * @param max_count
+     *            Maximum number of messages per multi-request
+     * @param messages
+     *            Messages to execute
+     * @return {@link CompletableFuture} that completes when all groups have been executed
+     */
+    public CompletableFuture<Void> executeMultiRequestAsync(final int max_count, final MessageRouterProtocol... messages)
+    {
+        final List<MessageRouterProtocol[]> groups = this.packMultiRequest(max_count, messages);
+        final CompletableFuture<?>[] done = new CompletableFuture<?>[groups.size()];
+        for (int i = 0; i < done.length; ++i)
+        {
+            done[i] = this.executeGroupAsync(max_count, groups.get(i));
+        }
+        return CompletableFuture.allOf(done);
+    }
+
+    /**
+     * Execute one group of messages as a multi-request without blocking
+     *
+     * @param max_count
+     *            Maximum number of messages per multi-request
+     * @param group
+     *            Messages to execute in one multi-request
+     * @return {@link CompletableFuture} that completes when the group, or its parts after a split, have been executed
+     */
+    private CompletableFuture<Void> executeGroupAsync(final int max_count, final MessageRouterProtocol[] group)
+    {
+        final int max = this.getMaxMessageSize();
+        final int request_size = MultiRequestPacker.getRequestSize(group);
+        final int response_size = MultiRequestPacker.getEstimatedResponseSize(this.reply_sizes, group);
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        this.executeAsync(this.createRequest(new MessageRouterProtocol(CNService.CIP_MultiRequest,
+                CNPath.MessageRouter(), new CIPMultiRequestProtocol(group))))
+            .whenComplete((ignored, error) ->
+            {
+                if (error == null)
+                {
+                    this.limits.success(max, request_size, response_size);
+                    this.learnReplySizes(group);
+                    result.complete(null);
+                    return;
+                }
+                final Throwable cause = error instanceof CompletionException  &&  error.getCause() != null
+                                      ? error.getCause() : error;
+                if (group.length <= 1  ||
+                    !(cause instanceof CipException)  ||
+                    !this.limits.failure(max, ((CipException) cause).getStatusCode(), request_size, response_size))
+                {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                final List<MessageRouterProtocol[]> split = this.split(max_count, group);
+                final CompletableFuture<?>[] parts = new CompletableFuture<?>[split.size()];
+                for (int i = 0; i < parts.length; ++i)
+                {
+                    parts[i] = this.executeGroupAsync(max_count, split.get(i));
+                }
+                CompletableFuture.allOf(parts).whenComplete((done, part_error) ->
+                {
+                    if (part_error == null)
+                    {
+                        result.complete(null);
+                    }
+                    else
+                    {
+                        result.completeExceptionally(part_error instanceof CompletionException  &&  part_error.getCause() != null
+                                                     ? part_error.getCause() : part_error);
+                    }
+                });
+            });
+        return result;
+    }
+
     /** @return {@link ByteBuffer} */
     public ByteBuffer getBuffer()
     {
@@ -128,4 +490,117 @@ public abstract class Connection implements AutoCloseable
         this.read(protocol);
     }
 
+    /**
+     * Write protocol request and handle response without blocking
+     * <p>
+     * Base implementation executes the request in the calling thread.
+     * Connections that can keep several requests in flight override this.
+     * They complete the returned future on a thread other than
+     * the one handling network I/O, see {@link #completeAsync(CompletableFuture)},
+     * so dependent stages may block, for example call {@link #execute(Protocol)}.
+     *
+     * @param protocol
+     *            {@link Protocol}
+     * @return {@link CompletableFuture} that completes when the response has been decoded
+     */
+    public CompletableFuture<Void> executeAsync(final Protocol protocol)
+    {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        try
+        {
+            this.execute(protocol);
+            result.complete(null);
+        }
+        catch (final Exception ex)
+        {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * Execute several requests
+     * <p>
+     * Requests are submitted via {@link #executeAsync(Protocol)},
+     * so a connection that supports it keeps several of them in flight.
+     *
+     * @param protocols
+     *            {@link Protocol}s to execute
+     * @throws Exception
+     *             Error of the first request that failed, after all requests completed
+     */
+    public void executeAll(final Protocol... protocols) throws Exception
+    {
+        final List<CompletableFuture<Void>> pending = new ArrayList<>(protocols.length);
+        for (final Protocol protocol : protocols)
+        {
+            pending.add(this.executeAsync(protocol));
+        }
+        Exception error = null;
+        for (final CompletableFuture<Void> future : pending)
+        {
+            try
+            {
+                await(future);
+            }
+            catch (final Exception ex)
+            {
+                if (error == null)
+                {
+                    error = ex;
+                }
+            }
+        }
+        if (error != null)
+        {
+            throw error;
+        }
+    }
+
+    /**
+     * Complete future off the network I/O thread
+     * <p>
+     * Dependent stages of a future run in the thread that completes it.
+     * When a stage that runs on the network I/O thread blocks on
+     * another request of the same connection, nobody reads its response.
+     *
+     * @param done
+     *            Future that is completed by a network I/O thread
+     * @return Future that completes with the same result on another thread
+     */
+    protected static CompletableFuture<Void> completeAsync(final CompletableFuture<Void> done)
+    {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        done.whenCompleteAsync((value, error) ->
+        {
+            if (error == null)
+            {
+                result.complete(value);
+            }
+            else
+            {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    /** @param future Future to await
+     *  @throws Exception Original error of the future
+     */
+    protected static void await(final CompletableFuture<Void> future) throws Exception
+    {
+        try
+        {
+            future.get();
+        }
+        catch (final ExecutionException ex)
+        {
+            if (ex.getCause() instanceof Exception)
+            {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
 }
@@ -25,6 +25,9 @@ public class Encapsulation implements Protocol
     /** Byte size of encapsulation header */
     final public static int ENCAPSULATION_HEADER_SIZE = 24;
 
+    /** Byte offset of the 8-byte sender context within the header */
+    final public static int CONTEXT_OFFSET = 12;
+
     /**
      * Encapsulation commands
      * <p>
@@ -102,8 +105,10 @@ public class Encapsulation implements Protocol
         final int status = 0;
         final int options = 0;
 
+        final int start = buf.position();
         buf.putShort(this.command.code());
-        buf.putShort((short) this.body.getRequestSize());
+        // Length is patched once the body has been encoded
+        buf.putShort((short) 0);
         buf.putInt(this.session);
         buf.putInt(status);
         buf.put(context);
@@ -127,6 +132,7 @@ public class Encapsulation implements Protocol
         }
 
         this.body.encode(buf, log);
+        buf.putShort(start + 2, (short) (buf.position() - start - ENCAPSULATION_HEADER_SIZE));
     }
 
     /** {@inheritDoc} */
@@ -199,7 +205,9 @@ public class Encapsulation implements Protocol
 
         final byte[] recvd_context = new byte[8];
         buf.get(recvd_context);
-        if (!Arrays.equals(recvd_context, context))
+        // Connected messages are matched by their sequence count,
+        // the target need not echo the context
+        if (command != Command.SendUnitData  &&  !Arrays.equals(recvd_context, context))
             throw new Exception("Received context " + Hexdump.toAscii(recvd_context) + ", expected " + Hexdump.toAscii(context));
 
         final int options = buf.getInt();
@@ -257,6 +265,18 @@ public class Encapsulation implements Protocol
         return "<unknown>";
     }
 
+    /** Use a new context, for example when the request is sent again */
+    void renewContext()
+    {
+        Transaction.format(Transaction.nextTransaction(), this.context);
+    }
+
+    /** @return Context of the request */
+    byte[] getContext()
+    {
+        return this.context;
+    }
+
     /** @return Session ID */
     final public int getSession()
     {
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static etherip.protocol.Encapsulation.ENCAPSULATION_HEADER_SIZE;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a TCP byte stream into encapsulation packets
+ * <p>
+ * One network read can return several back-to-back packets,
+ * or only part of a packet.
+ * Data is received into {@link #getReceiveBuffer()},
+ * complete packets are then fetched via {@link #next()}
+ * until it returns <code>null</code>,
+ * and {@link #compact()} prepares for the next read.
+ * <p>
+ * The buffer grows up to a maximum capacity when a larger packet arrives,
+ * so callers must fetch the receive buffer again after {@link #next()}.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class EncapsulationFramer
+{
+    /** Largest possible encapsulation packet */
+    final public static int MAX_PACKET_SIZE = ENCAPSULATION_HEADER_SIZE + 0xFFFF;
+
+    final private int max_capacity;
+
+    /** Received data in [0, position), packets handed out in [0, consumed) */
+    private ByteBuffer buffer;
+
+    private int consumed = 0;
+
+    /**
+     * Initialize with fixed capacity
+     *
+     * @param capacity
+     *            Maximum size of one encapsulation packet
+     */
+    public EncapsulationFramer(final int capacity)
+    {
+        this(capacity, capacity);
+    }
+
+    /**
+     * Initialize
+     *
+     * @param capacity
+     *            Initial buffer size
+     * @param max_capacity
+     *            Maximum size of one encapsulation packet
+     */
+    public EncapsulationFramer(final int capacity, final int max_capacity)
+    {
+        this.max_capacity = max_capacity;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.buffer.order(Connection.BYTE_ORDER);
+    }
+
+    /** @return Buffer for reading more data, positioned after data that is already held */
+    public ByteBuffer getReceiveBuffer()
+    {
+        return this.buffer;
+    }
+
+    /**
+     * Get next complete packet
+     * <p>
+     * The returned buffer is a view of the received data,
+     * valid until {@link #compact()} is called.
+     *
+     * @return Buffer positioned at start of packet, limited to its end, or <code>null</code>
+     * @throws Exception
+     *             if the packet cannot fit the buffer
+     */
+    public ByteBuffer next() throws Exception
+    {
+        final int available = this.buffer.position() - this.consumed;
+        if (available < ENCAPSULATION_HEADER_SIZE)
+        {
+            return null;
+        }
+        final int size = ENCAPSULATION_HEADER_SIZE
+                + (this.buffer.getShort(this.consumed + 2) & 0xFFFF);
+        if (size > this.buffer.capacity())
+        {
+            if (size > this.max_capacity)
+            {
+                throw new Exception("Received packet of " + size
+                        + " bytes, buffer only holds " + this.max_capacity);
+            }
+            this.grow(size);
+        }
+        if (available < size)
+        {
+            return null;
+        }
+        final ByteBuffer packet = this.buffer.duplicate();
+        packet.limit(this.consumed + size);
+        packet.position(this.consumed);
+        this.consumed += size;
+        return packet.slice().order(Connection.BYTE_ORDER);
+    }
+
+    /** @param packet Request or response packet
+     *  @return Key for matching response to request
+     */
+    static long getKey(final ByteBuffer packet)
+    {
+        if (packet.getShort(0) == Encapsulation.Command.SendUnitData.code())
+        {   // Sequence count of connected message.
+            // Context holds ASCII characters, so its key is never negative
+            return -1 - (packet.getShort(SendUnitDataProtocol.SEQUENCE_OFFSET) & 0xFFFF);
+        }
+        return packet.getLong(Encapsulation.CONTEXT_OFFSET);
+    }
+
+    /** @param size Required buffer size */
+    private void grow(final int size)
+    {
+        final ByteBuffer larger = ByteBuffer.allocateDirect(size);
+        larger.order(Connection.BYTE_ORDER);
+        // Packets already returned by next() remain valid views of the old buffer
+        this.buffer.flip();
+        larger.put(this.buffer);
+        this.buffer = larger;
+    }
+
+    /** Drop packets returned by {@link #next()}, keeping partially received data */
+    public void compact()
+    {
+        this.buffer.flip();
+        this.buffer.position(this.consumed);
+        this.buffer.compact();
+        this.consumed = 0;
+    }
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import java.nio.ByteBuffer;
+
+import etherip.types.CNService;
+
+/**
+ * Protocol body for {@link CNService#CM_ForwardClose}
+ * <p>
+ * CIP Vol 1, 3-5.5.3
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class ForwardCloseProtocol extends ProtocolAdapter
+{
+    final private int slot;
+    final private CIPConnection connection;
+
+    /**
+     * Initialize
+     *
+     * @param slot
+     *            Slot (0, 1, ...) of controller module in crate
+     * @param connection
+     *            {@link CIPConnection} to close
+     */
+    public ForwardCloseProtocol(final int slot, final CIPConnection connection)
+    {
+        this.slot = slot;
+        this.connection = connection;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getRequestSize()
+    {
+        return 12 + ForwardOpenProtocol.PATH_SIZE;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void encode(final ByteBuffer buf, final StringBuilder log)
+            throws Exception
+    {
+        buf.put((byte) 0x0A); // Priority/tick time
+        buf.put((byte) 0x0E); // Time-out ticks
+        buf.putShort(this.connection.getSerial());
+        buf.putShort(this.connection.getVendor());
+        buf.putInt(this.connection.getOriginatorSerial());
+        buf.put((byte) (ForwardOpenProtocol.PATH_SIZE / 2));
+        buf.put((byte) 0); // reserved
+        ForwardOpenProtocol.encodePath(buf, this.slot);
+        if (log != null)
+        {
+            log.append("Forward Close\n");
+            log.append(String.format("UINT serial             : 0x%04X\n", this.connection.getSerial()));
+            log.append(String.format("UINT vendor             : 0x%04X\n", this.connection.getVendor()));
+            log.append(String.format("UDINT orig. serial      : 0x%08X\n", this.connection.getOriginatorSerial()));
+            log.append("USINT path size         : 3 words\n");
+            log.append("USINT port 1, slot ").append(this.slot).append(", Message Router\n");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void decode(final ByteBuffer buf, final int available,
+            final StringBuilder log) throws Exception
+    {
+        final short serial = buf.getShort();
+        final short vendor = buf.getShort();
+        final int originator_serial = buf.getInt();
+        final int reply_size = buf.get() & 0xFF;
+        buf.get(); // reserved
+        buf.position(buf.position() + 2 * reply_size);
+        if (log != null)
+        {
+            log.append("Forward Close Reply\n");
+            log.append(String.format("UINT serial             : 0x%04X\n", serial));
+            log.append(String.format("UINT vendor             : 0x%04X\n", vendor));
+            log.append(String.format("UDINT orig. serial      : 0x%08X\n", originator_serial));
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import etherip.types.CNService;
+
+/**
+ * Protocol body for {@link CNService#CM_ForwardOpen} or {@link CNService#CM_LargeForwardOpen}
+ * <p>
+ * Opens a class 3 connection to the message router of the controller in the given slot.
+ * Forward_Open limits the connection size to 511 bytes,
+ * Large_Forward_Open uses 32-bit network connection parameters
+ * to support larger connections.
+ * <p>
+ * The device closes the connection when it receives no request
+ * for 32 times the requested packet interval (RPI),
+ * about 64 seconds for the {@link #DEFAULT_RPI}.
+ * <p>
+ * CIP Vol 1, 3-5.5.2 and 3-5.5.3
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class ForwardOpenProtocol extends ProtocolAdapter
+{
+    /** Vendor ID used as originator */
+    final public static short VENDOR = 0x1337;
+
+    /** Serial number used as originator, fixed for this process */
+    final public static int ORIGINATOR_SERIAL = new SecureRandom().nextInt();
+
+    /** Default connection size, limited to 9 bits by Forward_Open */
+    final public static int DEFAULT_SIZE = 500;
+
+    /** Connection size for Large_Forward_Open, limit of ControlLogix 5570 and later */
+    final public static int LARGE_SIZE = 4002;
+
+    /** Connection parameters: Point-to-point, low priority, variable size */
+    final private static short CONNECTION_PARAMS = 0x4200;
+
+    /** Connection parameters for Large_Forward_Open */
+    final private static int LARGE_CONNECTION_PARAMS = CONNECTION_PARAMS << 16;
+
+    /** Transport class 3, application triggered, server */
+    final private static byte TRANSPORT = (byte) 0xA3;
+
+    /** Default requested packet interval in microseconds */
+    final public static int DEFAULT_RPI = 2000000;
+
+    /** Connection timeout multiplier, 3 = RPI x 32 */
+    final private static byte TIMEOUT_MULTIPLIER = 3;
+
+    /** Factor between RPI and connection timeout for the {@link #TIMEOUT_MULTIPLIER} */
+    final public static int TIMEOUT_FACTOR = 4 << TIMEOUT_MULTIPLIER;
+
+    /** Size of connection path in bytes */
+    final static int PATH_SIZE = 6;
+
+    final private static AtomicInteger serials = new AtomicInteger(new Random().nextInt());
+
+    final private int slot;
+    final private int size;
+    final private boolean large;
+    final private int rpi;
+    final private int t_o_id = new SecureRandom().nextInt();
+    final private short serial = (short) serials.incrementAndGet();
+
+    private CIPConnection connection = null;
+
+    /**
+     * Initialize for Forward_Open
+     *
+     * @param slot
+     *            Slot (0, 1, ...) of controller module in crate
+     * @param size
+     *            Requested connection size in bytes
+     */
+    public ForwardOpenProtocol(final int slot, final int size)
+    {
+        this(slot, size, false);
+    }
+
+    /**
+     * Initialize
+     *
+     * @param slot
+     *            Slot (0, 1, ...) of controller module in crate
+     * @param size
+     *            Requested connection size in bytes
+     * @param large
+     *            Use Large_Forward_Open?
+     */
+    public ForwardOpenProtocol(final int slot, final int size, final boolean large)
+    {
+        this(slot, size, large, DEFAULT_RPI);
+    }
+
+    /**
+     * Initialize
+     *
+     * @param slot
+     *            Slot (0, 1, ...) of controller module in crate
+     * @param size
+     *            Requested connection size in bytes
+     * @param large
+     *            Use Large_Forward_Open?
+     * @param rpi
+     *            Requested packet interval in microseconds.
+     *            Connection times out after {@link #TIMEOUT_FACTOR} x RPI without traffic.
+     */
+    public ForwardOpenProtocol(final int slot, final int size, final boolean large, final int rpi)
+    {
+        if (rpi <= 0)
+        {
+            throw new IllegalArgumentException("Invalid RPI " + rpi);
+        }
+        final int max = large ? 0xFFFF : 0x1FF;
+        if (size < 0 || size > max)
+        {
+            throw new IllegalArgumentException("Connection size " + size + " exceeds " + max + " bytes");
+        }
+        this.slot = slot;
+        this.size = size;
+        this.large = large;
+        this.rpi = rpi;
+    }
+
+    /** @return Service to use with this protocol, Forward_Open or Large_Forward_Open */
+    public CNService getService()
+    {
+        return this.large ? CNService.CM_LargeForwardOpen : CNService.CM_ForwardOpen;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getRequestSize()
+    {
+        return (this.large ? 40 : 36) + PATH_SIZE;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void encode(final ByteBuffer buf, final StringBuilder log)
+            throws Exception
+    {
+        final int params = this.large
+                ? LARGE_CONNECTION_PARAMS | this.size
+                : CONNECTION_PARAMS | this.size;
+        buf.put((byte) 0x0A);   // Priority/tick time: 2^10 = 1024ms per tick
+        buf.put((byte) 0x0E);   // Time-out ticks
+        buf.putInt(0);          // O->T connection ID, chosen by target
+        buf.putInt(this.t_o_id);
+        buf.putShort(this.serial);
+        buf.putShort(VENDOR);
+        buf.putInt(ORIGINATOR_SERIAL);
+        buf.put(TIMEOUT_MULTIPLIER);
+        buf.put((byte) 0);
+        buf.put((byte) 0);
+        buf.put((byte) 0);
+        buf.putInt(this.rpi);   // O->T RPI
+        putParams(buf, params); // O->T network connection parameters
+        buf.putInt(this.rpi);   // T->O RPI
+        putParams(buf, params); // T->O network connection parameters
+        buf.put(TRANSPORT);
+        buf.put((byte) (PATH_SIZE / 2));
+        encodePath(buf, this.slot);
+
+        if (log != null)
+        {
+            log.append(this.large ? "Large Forward Open\n" : "Forward Open\n");
+            log.append("USINT priority/tick     : 0x0A\n");
+            log.append("USINT timeout ticks     : 0x0E\n");
+            log.append("UDINT O->T ID           : 0\n");
+            log.append(String.format("UDINT T->O ID           : 0x%08X\n", this.t_o_id));
+            log.append(String.format("UINT serial             : 0x%04X\n", this.serial));
+            log.append(String.format("UINT vendor             : 0x%04X\n", VENDOR));
+            log.append(String.format("UDINT orig. serial      : 0x%08X\n", ORIGINATOR_SERIAL));
+            log.append("USINT timeout multiplier: ").append(TIMEOUT_MULTIPLIER).append("\n");
+            log.append("UDINT O->T RPI          : ").append(this.rpi).append(" us\n");
+            log.append(String.format("O->T parameters         : 0x%04X\n", params));
+            log.append("UDINT T->O RPI          : ").append(this.rpi).append(" us\n");
+            log.append(String.format("T->O parameters         : 0x%04X\n", params));
+            log.append(String.format("USINT transport         : 0x%02X\n", TRANSPORT));
+            log.append("USINT path size         : 3 words\n");
+            log.append("USINT port 1, slot ").append(this.slot).append(", Message Router\n");
+        }
+    }
+
+    /** @param buf Buffer where network connection parameters are placed
+     *  @param params Parameters, 16 bit for Forward_Open, 32 bit for Large_Forward_Open
+     */
+    private void putParams(final ByteBuffer buf, final int params)
+    {
+        if (this.large)
+        {
+            buf.putInt(params);
+        }
+        else
+        {
+            buf.putShort((short) params);
+        }
+    }
+
+    /** @param buf Buffer where connection path to message router in slot is placed
+     *  @param slot Slot (0, 1, ...) of controller module in crate
+     */
+    static void encodePath(final ByteBuffer buf, final int slot)
+    {
+        buf.put((byte) 0x01); // Port 1 = backplane
+        buf.put((byte) slot);
+        buf.put((byte) 0x20); // Class
+        buf.put((byte) 0x02); // .. Message Router
+        buf.put((byte) 0x24); // Instance
+        buf.put((byte) 0x01); // .. 1
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void decode(final ByteBuffer buf, final int available,
+            final StringBuilder log) throws Exception
+    {
+        final int o_t_id = buf.getInt();
+        final int t_o_id = buf.getInt();
+        final short serial = buf.getShort();
+        final short vendor = buf.getShort();
+        final int originator_serial = buf.getInt();
+        final int o_t_api = buf.getInt();
+        final int t_o_api = buf.getInt();
+        final int reply_size = buf.get() & 0xFF;
+        buf.get(); // reserved
+        buf.position(buf.position() + 2 * reply_size);
+
+        if (log != null)
+        {
+            log.append("Forward Open Reply\n");
+            log.append(String.format("UDINT O->T ID           : 0x%08X\n", o_t_id));
+            log.append(String.format("UDINT T->O ID           : 0x%08X\n", t_o_id));
+            log.append(String.format("UINT serial             : 0x%04X\n", serial));
+            log.append(String.format("UINT vendor             : 0x%04X\n", vendor));
+            log.append(String.format("UDINT orig. serial      : 0x%08X\n", originator_serial));
+            log.append("UDINT O->T API          : ").append(o_t_api).append(" us\n");
+            log.append("UDINT T->O API          : ").append(t_o_api).append(" us\n");
+            log.append("USINT app. reply size   : ").append(reply_size).append(" words\n");
+        }
+
+        if (serial != this.serial || t_o_id != this.t_o_id)
+        {
+            throw new Exception(String.format("Forward Open reply for serial 0x%04X, T->O ID 0x%08X, expected 0x%04X, 0x%08X",
+                    serial, t_o_id, this.serial, this.t_o_id));
+        }
+        // Timeout is based on the actual packet interval chosen by the device
+        final long interval = o_t_api > 0 ? o_t_api : this.rpi;
+        this.connection = new CIPConnection(o_t_id, t_o_id, serial, vendor, originator_serial, this.size,
+                                            interval * TIMEOUT_FACTOR / 1000);
+    }
+
+    /** @return {@link CIPConnection} that was opened */
+    public CIPConnection getConnection()
+    {
+        return this.connection;
+    }
+}
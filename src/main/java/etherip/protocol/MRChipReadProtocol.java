@@ -7,10 +7,9 @@
  *******************************************************************************/
 package etherip.protocol;
 
-import static etherip.types.CNPath.Symbol;
-
 import etherip.types.CIPData;
 import etherip.types.CNService;
+import etherip.types.TagHandle;
 
 /**
  * Message Router protocol for reading a tag
@@ -19,6 +18,8 @@ import etherip.types.CNService;
  */
 public class MRChipReadProtocol extends MessageRouterProtocol
 {
+    final private TagHandle tag;
+
     final private CIPReadDataProtocol reader;
 
     /**
@@ -28,6 +29,17 @@ public class MRChipReadProtocol extends MessageRouterProtocol
      *            Name of tag to read
      */
     public MRChipReadProtocol(final String tag)
+    {
+        this(TagHandle.of(tag), (short) 1);
+    }
+
+    /**
+     * Initialize. Note that if trying to read an array this will only return the first item.
+     *
+     * @param tag
+     *            {@link TagHandle} of tag to read
+     */
+    public MRChipReadProtocol(final TagHandle tag)
     {
         this(tag, (short) 1);
     }
@@ -41,6 +53,19 @@ public class MRChipReadProtocol extends MessageRouterProtocol
      *            Number of elements to read (if it is an array)
      */
     public MRChipReadProtocol(final String tag, final short count)
+    {
+        this(TagHandle.of(tag), count);
+    }
+
+    /**
+     * Initialize. Use this constructor to retrieve an array.
+     *
+     * @param tag
+     *            {@link TagHandle} of tag to read
+     * @param count
+     *            Number of elements to read (if it is an array)
+     */
+    public MRChipReadProtocol(final TagHandle tag, final short count)
     {
         this(tag, new CIPReadDataProtocol(count));
     }
@@ -49,19 +74,59 @@ public class MRChipReadProtocol extends MessageRouterProtocol
      * Initialize
      *
      * @param tag
-     *            Name of tag to read
+     *            {@link TagHandle} of tag to read
      * @param body
      *            Protocol embedded in the message request/response
      */
-    private MRChipReadProtocol(final String tag,
+    private MRChipReadProtocol(final TagHandle tag,
             final CIPReadDataProtocol reader)
     {
-        super(CNService.CIP_ReadData, Symbol(tag), reader);
+        super(CNService.CIP_ReadData, tag, reader);
+        this.tag = tag;
         this.reader = reader;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public int getEstimatedResponseSize(final ReplySizes sizes)
+    {
+        final int count = this.reader.getCount();
+        final int known = sizes == null ? 0 : sizes.getEstimate(this.tag.getName(), count);
+        if (known > 0)
+        {
+            return REPLY_HEADER_SIZE + known;
+        }
+        return REPLY_HEADER_SIZE + count * UNKNOWN_DATA_SIZE;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void learnReplySize(final ReplySizes sizes)
+    {
+        // Remember reply size for complete data
+        final CIPData data = this.reader.getData();
+        if (this.isOk()  &&  data != null  &&  !this.isPartialTransfert())
+        {   // Encoded size includes element count, which is not in the read reply
+            sizes.learn(this.tag.getName(), this.reader.getCount(), data.getEncodedSize() - 2);
+        }
+    }
+
+    /**
+     * @param spare
+     *            {@link CIPData} to reuse for the next reply, see {@link CIPReadDataProtocol#recycle(CIPData)}
+     */
+    public void recycle(final CIPData spare)
+    {
+        this.reader.recycle(spare);
+    }
+
+    /** @return Data that was read, <code>null</code> if the read failed */
     public CIPData getData()
     {
+        if (!this.isOk())
+        {
+            return null;
+        }
         return this.reader.getData();
     }
 }
@@ -7,10 +7,9 @@
  *******************************************************************************/
 package etherip.protocol;
 
-import static etherip.types.CNPath.Symbol;
-
 import etherip.types.CIPData;
 import etherip.types.CNService;
+import etherip.types.TagHandle;
 
 /**
  * Message Router protocol for writing a tag
@@ -29,7 +28,28 @@ public class MRChipWriteProtocol extends MessageRouterProtocol
      */
     public MRChipWriteProtocol(final String tag, final CIPData value)
     {
-        super(CNService.CIP_WriteData, Symbol(tag),
+        this(TagHandle.of(tag), value);
+    }
+
+    /**
+     * Initialize
+     *
+     * @param tag
+     *            {@link TagHandle} of tag to write
+     * @param value
+     *            {@link CIPData} to write
+     */
+    public MRChipWriteProtocol(final TagHandle tag, final CIPData value)
+    {
+        super(CNService.CIP_WriteData, tag,
                 new CIPWriteDataProtocol(value));
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getEstimatedResponseSize(final ReplySizes sizes)
+    {
+        // Write reply only has the status
+        return REPLY_HEADER_SIZE;
+    }
 }
@@ -20,6 +20,24 @@ import etherip.types.CNService;
  */
 public class MessageRouterProtocol extends ProtocolAdapter
 {
+    /** Size of reply without extended status: Service, reserved, status, extended status size */
+    final public static int REPLY_HEADER_SIZE = 4;
+
+    /** Status for partial transfer, not an error */
+    final public static int PARTIAL_TRANSFER = 0x06;
+
+    /** Status of multi-request when an embedded request failed */
+    final public static int EMBEDDED_SERVICE_ERROR = 0x1E;
+
+    /**
+     * Estimated size of reply data when nothing is known about it.
+     * <p>
+     * Type code and a Logix STRING structure
+     * (structure handle, length, 82 characters, padding),
+     * the largest reply that is typically expected for a single element.
+     */
+    final public static int UNKNOWN_DATA_SIZE = 2 + 2 + 4 + 82 + 2;
+
     final private CNService service;
 
     final private CNPath path;
@@ -28,7 +46,9 @@ public class MessageRouterProtocol extends ProtocolAdapter
 
     private int status = 0;
 
-    private int[] ext_status = new int[0];
+    final private static int[] NO_EXT_STATUS = new int[0];
+
+    private int[] ext_status = NO_EXT_STATUS;
 
     private boolean partialTransfert = false;;
 
@@ -86,6 +106,38 @@ public class MessageRouterProtocol extends ProtocolAdapter
         throw new IllegalStateException("Unknown response size");
     }
 
+    /**
+     * Estimate the size of the reply
+     * <p>
+     * Used to pack several requests into one {@link CNService#CIP_MultiRequest}
+     * such that the combined reply does not exceed the controller's limit.
+     * Requests that know their reply data should override
+     * to provide a closer estimate.
+     *
+     * @param sizes
+     *            {@link ReplySizes} learned on the connection, may be <code>null</code>
+     * @return Estimated number of bytes in the reply to this request
+     */
+    public int getEstimatedResponseSize(final ReplySizes sizes)
+    {
+        return REPLY_HEADER_SIZE + UNKNOWN_DATA_SIZE;
+    }
+
+    /**
+     * Remember the size of a successful reply
+     * <p>
+     * Called by the {@link Connection} after the request was executed.
+     * Requests that override {@link #getEstimatedResponseSize(ReplySizes)}
+     * to use learned sizes should override to update them.
+     *
+     * @param sizes
+     *            {@link ReplySizes} of the connection
+     */
+    public void learnReplySize(final ReplySizes sizes)
+    {
+        // Nothing to learn by default
+    }
+
     /** {@inheritDoc} */
     @Override
     public void decode(final ByteBuffer buf, final int available,
@@ -104,9 +156,10 @@ public class MessageRouterProtocol extends ProtocolAdapter
         }
 
         final int reserved = buf.get();
-        this.status = buf.get();
+        this.status = buf.get() & 0xFF;
+        this.partialTransfert = false;
         final int ext_status_size = buf.get();
-        this.ext_status = new int[ext_status_size];
+        this.ext_status = ext_status_size > 0 ? new int[ext_status_size] : NO_EXT_STATUS;
         for (int i = 0; i < ext_status_size; ++i)
         {
             this.ext_status[i] = buf.getShort();
@@ -134,9 +187,12 @@ public class MessageRouterProtocol extends ProtocolAdapter
         final CNService expected_reply = this.service.getReply();
         if (this.status != 0)
         {
-            if (this.status == 6) { // Not an error, we need to ask for remaining
+            if (this.status == PARTIAL_TRANSFER) { // Not an error, we need to ask for remaining
                 this.partialTransfert = true;
             }
+            else if (this.status == EMBEDDED_SERVICE_ERROR  &&  this.service == CNService.CIP_MultiRequest)
+            {   // Status of each embedded request is in the body
+            }
             else {
                 if (ext_status_size > 0)
                 {
@@ -162,6 +218,12 @@ public class MessageRouterProtocol extends ProtocolAdapter
         return partialTransfert;
     }
 
+    /** @return <code>true</code> if response had no error. A partial transfer is not an error. */
+    public boolean isOk()
+    {
+        return this.status == 0  ||  this.status == PARTIAL_TRANSFER;
+    }
+
     /** @return Status code of response */
     public int getStatus()
     {
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import etherip.types.CNService;
+
+/**
+ * Packs requests into groups for {@link CNService#CIP_MultiRequest}
+ * <p>
+ * Each group must fit the controller's limit for the request,
+ * and also for the reply.
+ * Request sizes are known,
+ * reply sizes are estimated via {@link MessageRouterProtocol#getEstimatedResponseSize(ReplySizes)}
+ * based on the {@link ReplySizes} learned by the connection.
+ * <p>
+ * Uses 'first fit decreasing': Largest requests are placed first,
+ * each request is added to the first group that still has room.
+ * Within each group, requests remain in their original order,
+ * but requests may end up in a different group than
+ * a simple split in original order would place them.
+ *
+ * @author Kay Kasemir
+ */
+public class MultiRequestPacker
+{
+    /** Default for the maximum number of requests in one multi-request */
+    final public static int DEFAULT_MAX_COUNT = 100;
+
+    /** Size of multi-request reply without any embedded reply:
+     *  Reply header, count
+     */
+    final public static int REPLY_OVERHEAD = MessageRouterProtocol.REPLY_HEADER_SIZE + 2;
+
+    /** Group under construction */
+    private static class Group
+    {
+        final List<Integer> indices = new ArrayList<>();
+        int request_size = CIPMultiRequestProtocol.OVERHEAD;
+        int response_size = REPLY_OVERHEAD;
+    }
+
+    /**
+     * @param messages
+     *            Requests in one multi-request
+     * @return Size of the multi-request
+     */
+    public static int getRequestSize(final MessageRouterProtocol... messages)
+    {
+        int size = CIPMultiRequestProtocol.OVERHEAD;
+        for (final MessageRouterProtocol message : messages)
+        {
+            size += 2 + message.getRequestSize();
+        }
+        return size;
+    }
+
+    /**
+     * @param sizes
+     *            Learned {@link ReplySizes}, may be <code>null</code>
+     * @param messages
+     *            Requests in one multi-request
+     * @return Estimated size of the multi-request reply
+     */
+    public static int getEstimatedResponseSize(final ReplySizes sizes, final MessageRouterProtocol... messages)
+    {
+        int size = REPLY_OVERHEAD;
+        for (final MessageRouterProtocol message : messages)
+        {
+            size += 2 + message.getEstimatedResponseSize(sizes);
+        }
+        return size;
+    }
+
+    /**
+     * Pack requests into groups
+     *
+     * @param max_request_size
+     *            Maximum size of a multi-request
+     * @param max_response_size
+     *            Maximum size of a multi-request reply
+     * @param max_count
+     *            Maximum number of requests per group
+     * @param sizes
+     *            Learned {@link ReplySizes}, may be <code>null</code>
+     * @param messages
+     *            Requests to pack
+     * @return Groups of requests, each to be sent as one multi-request.
+     *         A request that is too large for any group by itself ends up alone in a group.
+     */
+    public static List<MessageRouterProtocol[]> pack(final int max_request_size,
+            final int max_response_size, final int max_count,
+            final ReplySizes sizes, final MessageRouterProtocol... messages)
+    {
+        // Each request adds its offset to the multi-request and reply
+        final int count = messages.length;
+        final int[] request = new int[count];
+        final int[] response = new int[count];
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; ++i)
+        {
+            request[i] = 2 + messages[i].getRequestSize();
+            response[i] = 2 + messages[i].getEstimatedResponseSize(sizes);
+            order[i] = i;
+        }
+
+        // Sort by the larger fraction of the available request or response size
+        final double[] weight = new double[count];
+        for (int i = 0; i < count; ++i)
+        {
+            weight[i] = Math.max(request[i] / (double) max_request_size,
+                    response[i] / (double) max_response_size);
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer i) -> weight[i]).reversed());
+
+        final List<Group> groups = new ArrayList<>();
+        for (final int i : order)
+        {
+            Group fit = null;
+            for (final Group group : groups)
+            {
+                if (group.indices.size() < max_count &&
+                    group.request_size + request[i] <= max_request_size &&
+                    group.response_size + response[i] <= max_response_size)
+                {
+                    fit = group;
+                    break;
+                }
+            }
+            if (fit == null)
+            {
+                fit = new Group();
+                groups.add(fit);
+            }
+            fit.indices.add(i);
+            fit.request_size += request[i];
+            fit.response_size += response[i];
+        }
+
+        final List<MessageRouterProtocol[]> result = new ArrayList<>(groups.size());
+        for (final Group group : groups)
+        {
+            group.indices.sort(null);
+            final MessageRouterProtocol[] packed = new MessageRouterProtocol[group.indices.size()];
+            for (int i = 0; i < packed.length; ++i)
+            {
+                packed[i] = messages[group.indices.get(i)];
+            }
+            result.add(packed);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import etherip.data.CipException;
+import etherip.types.CIPData;
+import etherip.types.CNService;
+
+/**
+ * Result of several requests sent via {@link CNService#CIP_MultiRequest}
+ * <p>
+ * Each request has its own status.
+ * Requests that succeeded provide their data
+ * even when other requests in the same multi-request failed.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class MultiRequestResult
+{
+    final private MessageRouterProtocol[] messages;
+
+    /**
+     * @param messages
+     *            Requests that have been executed
+     */
+    public MultiRequestResult(final MessageRouterProtocol... messages)
+    {
+        this.messages = messages;
+    }
+
+    /** @return Number of requests */
+    public int size()
+    {
+        return this.messages.length;
+    }
+
+    /**
+     * @param index
+     *            Index of request
+     * @return <code>true</code> if request succeeded
+     */
+    public boolean isOk(final int index)
+    {
+        return this.messages[index].isOk();
+    }
+
+    /**
+     * @param index
+     *            Index of request
+     * @return CIP status of request
+     */
+    public int getStatus(final int index)
+    {
+        return this.messages[index].getStatus();
+    }
+
+    /**
+     * @param index
+     *            Index of request
+     * @return Extended status of request, may be empty
+     */
+    public int[] getExtendedStatus(final int index)
+    {
+        return this.messages[index].getExtendedStatus();
+    }
+
+    /**
+     * @param index
+     *            Index of request
+     * @return {@link CipException} that describes the error, <code>null</code> if request succeeded
+     */
+    public CipException getError(final int index)
+    {
+        final MessageRouterProtocol message = this.messages[index];
+        if (message.isOk())
+        {
+            return null;
+        }
+        final int[] ext = message.getExtendedStatus();
+        return new CipException(message.getStatus(), ext.length > 0 ? ext[0] : 0);
+    }
+
+    /** @return Number of requests that failed */
+    public int getErrorCount()
+    {
+        int errors = 0;
+        for (final MessageRouterProtocol message : this.messages)
+        {
+            if (!message.isOk())
+            {
+                ++errors;
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * @param index
+     *            Index of request
+     * @return Data read by request, <code>null</code> if the request failed or was not a read
+     */
+    public CIPData getData(final int index)
+    {
+        final MessageRouterProtocol message = this.messages[index];
+        if (message instanceof MRChipReadProtocol)
+        {
+            return ((MRChipReadProtocol) message).getData();
+        }
+        return null;
+    }
+
+    /** @return Data read by each request, <code>null</code> for requests that failed */
+    public CIPData[] getValues()
+    {
+        final CIPData[] values = new CIPData[this.messages.length];
+        for (int i = 0; i < values.length; ++i)
+        {
+            values[i] = this.getData(i);
+        }
+        return values;
+    }
+
+    /**
+     * Check for errors
+     *
+     * @throws CipException
+     *             for the first request that failed
+     */
+    public void check() throws CipException
+    {
+        for (int i = 0; i < this.messages.length; ++i)
+        {
+            final CipException error = this.getError(i);
+            if (error != null)
+            {
+                throw error;
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder buf = new StringBuilder("MultiRequestResult: ");
+        buf.append(this.messages.length - this.getErrorCount()).append(" of ")
+           .append(this.messages.length).append(" OK");
+        for (int i = 0; i < this.messages.length; ++i)
+        {
+            if (!this.messages[i].isOk())
+            {
+                buf.append(", #").append(i).append(String.format(" status 0x%02X", this.messages[i].getStatus()));
+            }
+        }
+        return buf.toString();
+    }
+}
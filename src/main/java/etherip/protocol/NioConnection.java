@@ -0,0 +1,421 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static etherip.EtherNetIP.logger;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+
+import etherip.util.Hexdump;
+
+/**
+ * Non-blocking connection to EtherNet/IP device, driven by a {@link NioEngine}
+ * <p>
+ * Requests are queued and handled one at a time.
+ * Each request is encoded into the buffer of the connection once it is its turn,
+ * and the response is decoded right out of the receive buffer,
+ * all on the event loop thread of the engine.
+ * Callers do not block unless they {@link #execute(Protocol)}.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class NioConnection extends Connection
+{
+    /** Request that waits to be sent or waits for its response */
+    private static class PendingRequest
+    {
+        /** Encoder for the request */
+        final ProtocolEncoder encoder;
+
+        /** Protocol to decode the response, <code>null</code> for write-only request */
+        final Protocol protocol;
+
+        /** Completed when response has been decoded, or write-only request has been sent */
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        /** Buffer with encoded request, set when sent */
+        ByteBuffer buffer;
+
+        /** Key for matching the response, set when sent */
+        long key;
+
+        PendingRequest(final ProtocolEncoder encoder, final Protocol protocol)
+        {
+            this.encoder = encoder;
+            this.protocol = protocol;
+        }
+    }
+
+    final private NioEngine.EventLoop loop;
+
+    final private SocketChannel channel;
+
+    final private EncapsulationFramer framer = new EncapsulationFramer(BUFFER_SIZE, EncapsulationFramer.MAX_PACKET_SIZE);
+
+    // Only accessed on the event loop thread
+    private SelectionKey key = null;
+    final private Queue<PendingRequest> to_send = new ArrayDeque<>();
+    private PendingRequest current = null;
+
+    /**
+     * Initialize
+     *
+     * @param loop
+     *            Event loop that handles this connection
+     * @param address
+     *            IP address of device
+     * @param port
+     *            TCP port of device
+     * @param slot
+     *            Slot number 0, 1, .. of the controller within PLC crate
+     * @throws Exception
+     *             on error
+     */
+    NioConnection(final NioEngine.EventLoop loop, final String address,
+            final int port, final int slot) throws Exception
+    {
+        super(address, port, slot);
+        this.loop = loop;
+        this.channel = SocketChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final boolean connected = this.channel.connect(new InetSocketAddress(address, this.port));
+        loop.execute(() -> this.register(connected));
+    }
+
+    /** @param connected Is the channel already connected? */
+    private void register(final boolean connected)
+    {
+        try
+        {
+            this.key = this.channel.register(this.loop.selector,
+                    connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            if (connected)
+            {
+                this.sendNext();
+            }
+        }
+        catch (final Exception ex)
+        {
+            this.closeChannel(ex);
+        }
+    }
+
+    /** Handle network I/O, called by event loop
+     *  @param key Selected key of this connection
+     */
+    void handle(final SelectionKey key)
+    {
+        try
+        {
+            if (key.isConnectable())
+            {
+                this.channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                this.sendNext();
+            }
+            if (key.isValid() && key.isWritable())
+            {
+                this.handleWrite();
+            }
+            if (key.isValid() && key.isReadable())
+            {
+                this.handleRead();
+            }
+        }
+        catch (final Exception ex)
+        {
+            this.closeChannel(ex);
+        }
+    }
+
+    /** Encode and start to send next request unless one is already active
+     *  @throws Exception on network error
+     */
+    private void sendNext() throws Exception
+    {
+        while (this.current == null  &&  this.key != null  &&  this.channel.isConnected())
+        {
+            final PendingRequest request = this.to_send.poll();
+            if (request == null)
+            {
+                return;
+            }
+            // Skip requests that timed out while queued
+            if (request.done.isDone())
+            {
+                continue;
+            }
+            // Capture buffer, which is replaced when the connection size changes
+            final ByteBuffer buf = this.buffer;
+            buf.clear();
+            final StringBuilder log = logger.isLoggable(Level.FINER)
+                    ? new StringBuilder() : null;
+            try
+            {
+                request.encoder.encode(buf, log);
+            }
+            catch (final Exception ex)
+            {
+                request.done.completeExceptionally(ex);
+                continue;
+            }
+            if (log != null)
+            {
+                logger.finer("Protocol Encoding\n" + log.toString());
+            }
+            buf.flip();
+            if (logger.isLoggable(Level.FINEST))
+            {
+                logger.log(Level.FINEST, "Data sent ({0} bytes):\n{1}",
+                        new Object[] { buf.remaining(), Hexdump.toHexdump(buf) });
+            }
+            request.buffer = buf;
+            request.key = EncapsulationFramer.getKey(buf);
+            this.current = request;
+            this.handleWrite();
+        }
+    }
+
+    /** Continue to write the active request
+     *  @throws Exception on network error
+     */
+    private void handleWrite() throws Exception
+    {
+        final PendingRequest request = this.current;
+        if (request == null)
+        {
+            this.key.interestOps(SelectionKey.OP_READ);
+            return;
+        }
+        this.channel.write(request.buffer);
+        if (request.buffer.hasRemaining())
+        {
+            this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+        }
+        this.key.interestOps(SelectionKey.OP_READ);
+        if (request.protocol == null)
+        {   // Write-only request is done
+            this.current = null;
+            request.done.complete(null);
+        }
+    }
+
+    /** Read and decode responses
+     *  @throws Exception on network error
+     */
+    private void handleRead() throws Exception
+    {
+        if (this.channel.read(this.framer.getReceiveBuffer()) < 0)
+        {
+            throw new Exception("Connection closed by device");
+        }
+        ByteBuffer packet;
+        while ((packet = this.framer.next()) != null)
+        {
+            final PendingRequest request = this.current;
+            if (request == null  ||  request.protocol == null  ||
+                request.key != EncapsulationFramer.getKey(packet))
+            {
+                logger.log(Level.WARNING, "Ignoring response with unknown context:\n{0}",
+                        Hexdump.toHexdump(packet));
+                continue;
+            }
+            this.current = null;
+            this.decode(request, packet);
+        }
+        this.framer.compact();
+        this.sendNext();
+    }
+
+    /** @param request Request to complete
+     *  @param packet Buffer with its response
+     */
+    private void decode(final PendingRequest request, final ByteBuffer packet)
+    {
+        if (logger.isLoggable(Level.FINEST))
+        {
+            logger.log(Level.FINEST, "Data read ({0} bytes):\n{1}",
+                    new Object[] { packet.remaining(), Hexdump.toHexdump(packet) });
+        }
+        final StringBuilder log = logger.isLoggable(Level.FINER)
+                ? new StringBuilder() : null;
+        try
+        {
+            request.protocol.decode(packet, packet.remaining(), log);
+            request.done.complete(null);
+        }
+        catch (final Throwable ex)
+        {
+            request.done.completeExceptionally(ex);
+        }
+        finally
+        {   // Show log even on error
+            if (log != null)
+            {
+                logger.finer("Protocol Decoding\n" + log.toString());
+            }
+        }
+    }
+
+    /** Forget request that timed out, called on event loop
+     *  @param request Request that failed
+     */
+    private void forget(final PendingRequest request)
+    {
+        if (this.current != request)
+        {   // Still queued, will be skipped
+            return;
+        }
+        if (request.buffer.hasRemaining())
+        {   // Cannot abandon a partially written request
+            this.closeChannel(new Exception("Timeout while sending request"));
+            return;
+        }
+        // A late response will be ignored because its key does not match
+        this.current = null;
+        try
+        {
+            this.sendNext();
+        }
+        catch (final Exception ex)
+        {
+            this.closeChannel(ex);
+        }
+    }
+
+    /** Close the channel and fail all pending requests, called on event loop
+     *  @param error Cause
+     */
+    void closeChannel(final Exception error)
+    {
+        try
+        {
+            this.channel.close();
+        }
+        catch (final Exception ex)
+        {
+            logger.log(Level.FINE, "Error closing channel", ex);
+        }
+        int failed = this.to_send.size();
+        if (this.current != null)
+        {
+            this.current.done.completeExceptionally(error);
+            this.current = null;
+            ++failed;
+        }
+        PendingRequest request;
+        while ((request = this.to_send.poll()) != null)
+        {
+            request.done.completeExceptionally(error);
+        }
+        if (failed > 0)
+        {
+            logger.log(Level.WARNING, "Failing " + failed + " pending requests", error);
+        }
+    }
+
+    /** @param request Request to queue on the event loop */
+    private CompletableFuture<Void> submit(final PendingRequest request)
+    {
+        request.done.orTimeout(this.timeout_ms, MILLISECONDS);
+        request.done.whenComplete((ignored, error) ->
+        {
+            if (error != null)
+            {
+                this.loop.execute(() -> this.forget(request));
+            }
+        });
+        this.loop.execute(() ->
+        {
+            if (! this.channel.isOpen())
+            {
+                request.done.completeExceptionally(new Exception("Connection is closed"));
+                return;
+            }
+            this.to_send.add(request);
+            try
+            {
+                this.sendNext();
+            }
+            catch (final Exception ex)
+            {
+                this.closeChannel(ex);
+            }
+        });
+        return request.done;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<Void> executeAsync(final Protocol protocol)
+    {
+        return completeAsync(this.submit(new PendingRequest(protocol, protocol)));
+    }
+
+    /**
+     * Write protocol request and handle response
+     * <p>
+     * Blocks the calling thread until the response has been decoded
+     * by the event loop.
+     *
+     * @param protocol
+     *            {@link Protocol}
+     * @throws Exception
+     *             on error
+     */
+    @Override
+    public void execute(final Protocol protocol) throws Exception
+    {
+        await(this.submit(new PendingRequest(protocol, protocol)));
+    }
+
+    /**
+     * Write protocol data without expecting a response
+     *
+     * @param encoder
+     *            {@link ProtocolEncoder} used to <code>encode</code> buffer
+     * @throws Exception
+     *             on error
+     */
+    @Override
+    public void write(final ProtocolEncoder encoder) throws Exception
+    {
+        await(this.submit(new PendingRequest(encoder, null)));
+    }
+
+    /** Responses are read by the event loop, see {@link #execute(Protocol)} */
+    @Override
+    protected void read(final ProtocolDecoder decoder) throws Exception
+    {
+        throw new IllegalStateException("NIO connection handles responses in execute()");
+    }
+
+    @Override
+    public boolean isOpen() throws Exception
+    {
+        return this.channel.isOpen();
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        this.loop.execute(() -> this.closeChannel(new Exception("Connection closed")));
+    }
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static etherip.EtherNetIP.logger;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Engine that handles many {@link NioConnection}s with few threads
+ * <p>
+ * Each event loop thread uses a {@link Selector} to serve
+ * all the connections that are assigned to it,
+ * so polling hundreds of devices does not require hundreds of threads
+ * that are mostly waiting for a response.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class NioEngine implements AutoCloseable
+{
+    /** Thread that handles the network I/O of its connections */
+    static class EventLoop implements Runnable
+    {
+        final Selector selector;
+
+        /** Tasks to run on the event loop thread */
+        final private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        final private Thread thread;
+
+        private volatile boolean running = true;
+
+        EventLoop(final String name) throws IOException
+        {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        /** @param task Task to run on the event loop thread */
+        void execute(final Runnable task)
+        {
+            this.tasks.add(task);
+            this.selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            while (this.running)
+            {
+                try
+                {
+                    this.selector.select();
+                    Runnable task;
+                    while ((task = this.tasks.poll()) != null)
+                    {
+                        task.run();
+                    }
+                    final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                    while (keys.hasNext())
+                    {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        ((NioConnection) key.attachment()).handle(key);
+                    }
+                }
+                catch (final Throwable ex)
+                {
+                    logger.log(Level.WARNING, "Error in " + this.thread.getName(), ex);
+                }
+            }
+            // Close remaining connections
+            final Exception closed = new Exception("Engine closed");
+            for (final SelectionKey key : this.selector.keys())
+            {
+                ((NioConnection) key.attachment()).closeChannel(closed);
+            }
+            try
+            {
+                this.selector.close();
+            }
+            catch (final IOException ex)
+            {
+                logger.log(Level.WARNING, "Error closing selector", ex);
+            }
+        }
+
+        /** Stop the event loop and wait for it to finish,
+         *  unless called on the event loop thread itself
+         */
+        void stop() throws InterruptedException
+        {
+            this.running = false;
+            this.selector.wakeup();
+            if (Thread.currentThread() != this.thread)
+            {
+                this.thread.join();
+            }
+        }
+    }
+
+    final private EventLoop[] loops;
+
+    /** Used to assign connections to event loops in round-robin fashion */
+    final private AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Initialize
+     *
+     * @param threads
+     *            Number of event loop threads
+     * @throws Exception
+     *             on error
+     */
+    public NioEngine(final int threads) throws Exception
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException("Need at least 1 thread, got " + threads);
+        }
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; ++i)
+        {
+            this.loops[i] = new EventLoop("EtherIP NIO " + (i + 1));
+        }
+    }
+
+    /**
+     * Create connection to device
+     *
+     * @param address
+     *            IP address of device
+     * @param slot
+     *            Slot number 0, 1, .. of the controller within PLC crate
+     * @return {@link NioConnection}
+     * @throws Exception
+     *             on error
+     */
+    public NioConnection connect(final String address, final int slot) throws Exception
+    {
+        return this.connect(address, Connection.DEFAULT_PORT, slot);
+    }
+
+    /**
+     * Create connection to device
+     * <p>
+     * The TCP connection is established in the background.
+     * Requests can be submitted right away and will be sent once connected.
+     *
+     * @param address
+     *            IP address of device
+     * @param port
+     *            TCP port of device
+     * @param slot
+     *            Slot number 0, 1, .. of the controller within PLC crate
+     * @return {@link NioConnection}
+     * @throws Exception
+     *             on error
+     */
+    public NioConnection connect(final String address, final int port, final int slot) throws Exception
+    {
+        final EventLoop loop = this.loops[Math.floorMod(this.next.getAndIncrement(), this.loops.length)];
+        return new NioConnection(loop, address, port, slot);
+    }
+
+    /** Stop event loops, closing all their connections */
+    @Override
+    public void close() throws Exception
+    {
+        for (final EventLoop loop : this.loops)
+        {
+            loop.stop();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static etherip.EtherNetIP.logger;
+
+import java.util.logging.Level;
+
+/**
+ * Learned size limits for multi-requests to one device
+ * <p>
+ * The connection size limits the request and reply,
+ * but controllers may reject smaller packets with
+ * "reply data too large" or routing errors.
+ * On such an error, the ceiling for the failed direction is
+ * lowered half way towards the largest size that worked.
+ * After {@link #PROBE_INTERVAL} successful transactions,
+ * the ceiling is raised again half way towards the size that failed,
+ * so over time it settles just below the device's real limit.
+ * <p>
+ * Limits are learned for the current connection size and
+ * start over when the connection size changes,
+ * for example when switching from unconnected to connected messaging.
+ * <p>
+ * Sizes are those of the message router request and reply
+ * as estimated by the {@link MultiRequestPacker}.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class PacketLimits
+{
+    /** CIP status for reply that exceeds the device's buffer */
+    final public static int REPLY_DATA_TOO_LARGE = 0x11;
+
+    /** CIP status for request that's too large for a network in the route */
+    final public static int REQUEST_PACKET_TOO_LARGE = 0x1A;
+
+    /** CIP status for reply that's too large for a network in the route */
+    final public static int RESPONSE_PACKET_TOO_LARGE = 0x1B;
+
+    /** Number of successful transactions before probing a higher ceiling */
+    final public static int PROBE_INTERVAL = 100;
+
+    /** Ceiling for one direction */
+    private static class Limit
+    {
+        final String name;
+
+        /** Current ceiling */
+        int ceiling;
+
+        /** Largest size that worked */
+        int good;
+
+        /** Size that failed most recently */
+        int bad;
+
+        /** Successful transactions since last change of ceiling */
+        int successes;
+
+        Limit(final String name)
+        {
+            this.name = name;
+        }
+
+        void reset(final int max)
+        {
+            this.ceiling = max;
+            this.good = 0;
+            this.bad = max + 1;
+            this.successes = 0;
+        }
+
+        void success(final int size, final int max)
+        {
+            if (size > this.good)
+            {
+                this.good = size;
+            }
+            if (++this.successes >= PROBE_INTERVAL  &&  this.ceiling < max)
+            {
+                this.successes = 0;
+                this.ceiling = Math.min(max, Math.max(this.ceiling + 1, (this.ceiling + this.bad) / 2));
+                logger.log(Level.FINE, "Probing {0} limit of {1} bytes", new Object[] { this.name, this.ceiling });
+            }
+        }
+
+        void failure(final int size)
+        {
+            if (size > this.ceiling)
+            {   // Packed for a higher ceiling that has since been lowered
+                return;
+            }
+            this.bad = size;
+            if (this.good >= size)
+            {   // What worked before no longer works
+                this.good = 0;
+            }
+            this.ceiling = Math.min(this.ceiling, (this.good + size) / 2);
+            this.successes = 0;
+            logger.log(Level.INFO, "Lowering {0} limit to {1} bytes after {2} byte {0} failed",
+                    new Object[] { this.name, this.ceiling, size });
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.name + " limit " + this.ceiling + " (good " + this.good + ", bad " + this.bad + ")";
+        }
+    }
+
+    /** Connection size for which limits were learned */
+    private int max = -1;
+
+    final private Limit request = new Limit("request");
+
+    final private Limit response = new Limit("reply");
+
+    /** Count of changes to the ceilings */
+    private long changes = 0;
+
+    /** @param max Current connection size */
+    private void check(final int max)
+    {
+        if (max != this.max)
+        {
+            this.max = max;
+            this.request.reset(max);
+            this.response.reset(max);
+            ++this.changes;
+        }
+    }
+
+    /**
+     * @param max
+     *            Maximum message size of the connection
+     * @return Current ceiling for the multi-request size
+     */
+    public synchronized int getRequestLimit(final int max)
+    {
+        this.check(max);
+        return this.request.ceiling;
+    }
+
+    /**
+     * @param max
+     *            Maximum message size of the connection
+     * @return Current ceiling for the multi-request reply size
+     */
+    public synchronized int getResponseLimit(final int max)
+    {
+        this.check(max);
+        return this.response.ceiling;
+    }
+
+    /**
+     * @return Counter that increments whenever the ceilings change, used to detect when requests need to be packed anew
+     */
+    public synchronized long getChanges()
+    {
+        return this.changes;
+    }
+
+    /**
+     * Note a successful transaction
+     *
+     * @param max
+     *            Maximum message size of the connection
+     * @param request_size
+     *            Size of the multi-request
+     * @param response_size
+     *            Estimated size of the reply
+     */
+    public synchronized void success(final int max, final int request_size, final int response_size)
+    {
+        this.check(max);
+        final int request_ceiling = this.request.ceiling;
+        final int response_ceiling = this.response.ceiling;
+        this.request.success(request_size, max);
+        this.response.success(response_size, max);
+        if (request_ceiling != this.request.ceiling  ||  response_ceiling != this.response.ceiling)
+        {
+            ++this.changes;
+        }
+    }
+
+    /**
+     * Note a failed transaction
+     *
+     * @param max
+     *            Maximum message size of the connection
+     * @param status
+     *            CIP status of the failure
+     * @param request_size
+     *            Size of the multi-request
+     * @param response_size
+     *            Estimated size of the reply
+     * @return <code>true</code> if the failure was caused by the size, so ceiling is now below the failed size
+     */
+    public synchronized boolean failure(final int max, final int status, final int request_size, final int response_size)
+    {
+        this.check(max);
+        switch (status)
+        {
+        case REQUEST_PACKET_TOO_LARGE:
+            this.request.failure(request_size);
+            break;
+        case REPLY_DATA_TOO_LARGE:
+        case RESPONSE_PACKET_TOO_LARGE:
+            this.response.failure(response_size);
+            break;
+        default:
+            return false;
+        }
+        ++this.changes;
+        return true;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "Packet limits for size " + this.max + ": " + this.request + ", " + this.response;
+    }
+}
@@ -0,0 +1,422 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static etherip.EtherNetIP.logger;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+import etherip.util.Hexdump;
+
+/**
+ * Connection to EtherNet/IP device via TCP that keeps several requests in flight
+ * <p>
+ * Requests are written as soon as they are submitted, up to a maximum number of outstanding requests.
+ * Responses are matched to their request via the 8-byte sender context of the encapsulation header,
+ * which is unique for each {@link Encapsulation},
+ * or via the sequence count of connected messages.
+ * Several responses can arrive back-to-back in one network read,
+ * so they are split by an {@link EncapsulationFramer}.
+ * <p>
+ * Responses are decoded by the thread that reads from the network.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class PipelinedTcpConnection extends TcpConnection
+{
+    /** Request that waits to be written or waits for its response */
+    private static class PendingRequest
+    {
+        /** Protocol to decode the response, <code>null</code> for write-only request */
+        final Protocol protocol;
+
+        /** Encoded request */
+        final ByteBuffer buffer;
+
+        /** Key for matching the response */
+        final long key;
+
+        /** Completed when response has been decoded, or write-only request has been sent */
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingRequest(final Protocol protocol, final ByteBuffer buffer)
+        {
+            this.protocol = protocol;
+            this.buffer = buffer;
+            this.key = EncapsulationFramer.getKey(buffer);
+        }
+    }
+
+    final private int max_outstanding;
+
+    final private EncapsulationFramer framer = new EncapsulationFramer(BUFFER_SIZE, EncapsulationFramer.MAX_PACKET_SIZE);
+
+    /** Buffers for encoding requests, re-used once a request has been written */
+    final private Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    /** SYNC on this lock for access to to_send, in_flight and writing */
+    final private Object lock = new Object();
+
+    /** Requests waiting to be written */
+    final private Queue<PendingRequest> to_send = new ArrayDeque<>();
+
+    /** Requests that have been written, waiting for a response, by key */
+    final private Map<Long, PendingRequest> in_flight = new HashMap<>();
+
+    /** Is a write in progress? */
+    private boolean writing = false;
+
+    final private CompletionHandler<Integer, PendingRequest> write_handler = new CompletionHandler<>()
+    {
+        @Override
+        public void completed(final Integer written, final PendingRequest request)
+        {
+            if (request.buffer.hasRemaining())
+            {
+                PipelinedTcpConnection.this.channel.write(request.buffer, request, this);
+                return;
+            }
+            PipelinedTcpConnection.this.buffers.offer(request.buffer);
+            if (request.protocol == null)
+            {
+                request.done.complete(null);
+            }
+            synchronized (PipelinedTcpConnection.this.lock)
+            {
+                PipelinedTcpConnection.this.writing = false;
+            }
+            PipelinedTcpConnection.this.sendNext();
+        }
+
+        @Override
+        public void failed(final Throwable ex, final PendingRequest request)
+        {
+            request.done.completeExceptionally(ex);
+            PipelinedTcpConnection.this.failAll(ex);
+        }
+    };
+
+    final private CompletionHandler<Integer, Void> read_handler = new CompletionHandler<>()
+    {
+        @Override
+        public void completed(final Integer count, final Void attachment)
+        {
+            if (count < 0)
+            {
+                PipelinedTcpConnection.this.failAll(new Exception("Connection closed by device"));
+                return;
+            }
+            try
+            {
+                PipelinedTcpConnection.this.handleResponses();
+            }
+            catch (final Exception ex)
+            {
+                PipelinedTcpConnection.this.failAll(ex);
+                return;
+            }
+            PipelinedTcpConnection.this.channel.read(
+                    PipelinedTcpConnection.this.framer.getReceiveBuffer(), null, this);
+        }
+
+        @Override
+        public void failed(final Throwable ex, final Void attachment)
+        {
+            PipelinedTcpConnection.this.failAll(ex);
+        }
+    };
+
+    /**
+     * Initialize
+     *
+     * @param address
+     *            IP address of device
+     * @param slot
+     *            Slot number 0, 1, .. of the controller within PLC crate
+     * @param max_outstanding
+     *            Maximum number of requests awaiting a response
+     * @throws Exception
+     *             on error
+     */
+    public PipelinedTcpConnection(final String address, final int slot,
+            final int max_outstanding) throws Exception
+    {
+        this(address, DEFAULT_PORT, slot, max_outstanding);
+    }
+
+    /**
+     * Initialize
+     *
+     * @param address
+     *            IP address of device
+     * @param port
+     *            TCP port of device
+     * @param slot
+     *            Slot number 0, 1, .. of the controller within PLC crate
+     * @param max_outstanding
+     *            Maximum number of requests awaiting a response
+     * @throws Exception
+     *             on error
+     */
+    public PipelinedTcpConnection(final String address, final int port,
+            final int slot, final int max_outstanding) throws Exception
+    {
+        super(address, port, slot);
+        if (max_outstanding < 1)
+        {
+            throw new IllegalArgumentException("Need at least 1 outstanding request, got " + max_outstanding);
+        }
+        this.max_outstanding = max_outstanding;
+        this.channel.read(this.framer.getReceiveBuffer(), null, this.read_handler);
+    }
+
+    /** @return Maximum number of requests awaiting a response */
+    public int getMaxOutstanding()
+    {
+        return this.max_outstanding;
+    }
+
+    /** @param encoder Protocol to encode
+     *  @return Buffer with encoded request, ready to be written
+     *  @throws Exception on error
+     */
+    private ByteBuffer encode(final ProtocolEncoder encoder) throws Exception
+    {
+        // Buffer size grows with the size of the CIP connection
+        final int size = this.buffer.capacity();
+        ByteBuffer buf = this.buffers.poll();
+        if (buf == null || buf.capacity() < size)
+        {
+            buf = ByteBuffer.allocateDirect(size);
+            buf.order(BYTE_ORDER);
+        }
+        buf.clear();
+
+        final StringBuilder log = logger.isLoggable(Level.FINER)
+                ? new StringBuilder() : null;
+        encoder.encode(buf, log);
+        if (log != null)
+        {
+            logger.finer("Protocol Encoding\n" + log.toString());
+        }
+
+        buf.flip();
+        if (logger.isLoggable(Level.FINEST))
+        {
+            logger.log(Level.FINEST, "Data sent ({0} bytes):\n{1}",
+                    new Object[] { buf.remaining(), Hexdump.toHexdump(buf) });
+        }
+        return buf;
+    }
+
+    /** Queue request to be sent
+     *  @param request {@link PendingRequest}
+     */
+    private void submit(final PendingRequest request)
+    {
+        synchronized (this.lock)
+        {
+            this.to_send.add(request);
+        }
+        // On timeout or other error, forget the request
+        request.done.whenComplete((ignored, error) ->
+        {
+            if (error != null)
+            {
+                synchronized (this.lock)
+                {
+                    this.to_send.remove(request);
+                    this.in_flight.remove(request.key, request);
+                }
+                this.sendNext();
+            }
+        });
+        this.sendNext();
+    }
+
+    /** Start writing the next request unless already writing or too many are in flight */
+    private void sendNext()
+    {
+        final PendingRequest request;
+        synchronized (this.lock)
+        {
+            if (this.writing || this.in_flight.size() >= this.max_outstanding)
+            {
+                return;
+            }
+            request = this.to_send.poll();
+            if (request == null)
+            {
+                return;
+            }
+            if (request.protocol != null)
+            {
+                this.in_flight.put(request.key, request);
+            }
+            this.writing = true;
+        }
+        this.channel.write(request.buffer, request, this.write_handler);
+    }
+
+    /** Decode all complete responses that have been received
+     *  @throws Exception on error in the received data stream
+     */
+    private void handleResponses() throws Exception
+    {
+        ByteBuffer packet;
+        while ((packet = this.framer.next()) != null)
+        {
+            final long key = EncapsulationFramer.getKey(packet);
+            final PendingRequest request;
+            synchronized (this.lock)
+            {
+                request = this.in_flight.remove(key);
+            }
+            if (request == null)
+            {
+                logger.log(Level.WARNING, "Ignoring response with unknown context:\n{0}",
+                        Hexdump.toHexdump(packet));
+                continue;
+            }
+            this.decode(request, packet);
+        }
+        this.framer.compact();
+        this.sendNext();
+    }
+
+    /** @param request Request to complete
+     *  @param packet Buffer with its response
+     */
+    private void decode(final PendingRequest request, final ByteBuffer packet)
+    {
+        if (logger.isLoggable(Level.FINEST))
+        {
+            logger.log(Level.FINEST, "Data read ({0} bytes):\n{1}",
+                    new Object[] { packet.remaining(), Hexdump.toHexdump(packet) });
+        }
+        final StringBuilder log = logger.isLoggable(Level.FINER)
+                ? new StringBuilder() : null;
+        try
+        {
+            request.protocol.decode(packet, packet.remaining(), log);
+            request.done.complete(null);
+        }
+        catch (final Throwable ex)
+        {
+            request.done.completeExceptionally(ex);
+        }
+        finally
+        {   // Show log even on error
+            if (log != null)
+            {
+                logger.finer("Protocol Decoding\n" + log.toString());
+            }
+        }
+    }
+
+    /** Fail all pending requests
+     *  @param error Cause
+     */
+    private void failAll(final Throwable error)
+    {
+        final List<PendingRequest> failed = new ArrayList<>();
+        synchronized (this.lock)
+        {
+            failed.addAll(this.to_send);
+            failed.addAll(this.in_flight.values());
+            this.to_send.clear();
+            this.in_flight.clear();
+        }
+        if (! failed.isEmpty())
+        {
+            logger.log(Level.WARNING, "Failing " + failed.size() + " pending requests", error);
+        }
+        for (final PendingRequest request : failed)
+        {
+            request.done.completeExceptionally(error);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<Void> executeAsync(final Protocol protocol)
+    {
+        return completeAsync(this.queue(protocol));
+    }
+
+    /** @param protocol {@link Protocol} to queue
+     *  @return {@link CompletableFuture} that the I/O thread completes when the response has been decoded
+     */
+    private CompletableFuture<Void> queue(final Protocol protocol)
+    {
+        final PendingRequest request;
+        try
+        {
+            request = new PendingRequest(protocol, this.encode(protocol));
+        }
+        catch (final Exception ex)
+        {
+            return CompletableFuture.failedFuture(ex);
+        }
+        request.done.orTimeout(this.timeout_ms, MILLISECONDS);
+        this.submit(request);
+        return request.done;
+    }
+
+    /**
+     * Write protocol request and handle response
+     * <p>
+     * Other threads may execute requests at the same time.
+     *
+     * @param protocol
+     *            {@link Protocol}
+     * @throws Exception
+     *             on error
+     */
+    @Override
+    public void execute(final Protocol protocol) throws Exception
+    {
+        await(this.queue(protocol));
+    }
+
+    /**
+     * Write protocol data without expecting a response
+     *
+     * @param encoder
+     *            {@link ProtocolEncoder} used to <code>encode</code> buffer
+     * @throws Exception
+     *             on error
+     */
+    @Override
+    public void write(final ProtocolEncoder encoder) throws Exception
+    {
+        final PendingRequest request = new PendingRequest(null, this.encode(encoder));
+        request.done.orTimeout(this.timeout_ms, MILLISECONDS);
+        this.submit(request);
+        await(request.done);
+    }
+
+    /** Responses are read by the pipeline, see {@link #execute(Protocol)} */
+    @Override
+    public void read(final ProtocolDecoder decoder) throws Exception
+    {
+        throw new IllegalStateException("Pipelined connection handles responses in execute()");
+    }
+}
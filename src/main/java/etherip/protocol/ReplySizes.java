@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Learned reply sizes of tag reads on one device
+ * <p>
+ * Remembers the bytes per element in the read reply of each tag,
+ * so the {@link MultiRequestPacker} can estimate the size of future replies.
+ * Kept per {@link Connection} like the {@link PacketLimits},
+ * since tags of the same name on different devices
+ * may have different data types or array sizes.
+ *
+ * @author Kay Kasemir
+ */
+public class ReplySizes
+{
+    /** Bytes per element in a read reply, excluding the type code, by tag name */
+    final private Map<String, Integer> element_sizes = new ConcurrentHashMap<>();
+
+    /**
+     * Remember size of a read reply
+     *
+     * @param tag
+     *            Tag name
+     * @param count
+     *            Number of elements that were read
+     * @param data_size
+     *            Size of reply data: Type code and values
+     */
+    public void learn(final String tag, final int count, final int data_size)
+    {
+        if (count > 0)
+        {   // Round up so that estimate is never too small
+            final Integer size = (data_size - 2 + count - 1) / count;
+            if (!size.equals(this.element_sizes.get(tag)))
+            {
+                this.element_sizes.put(tag, size);
+            }
+        }
+    }
+
+    /**
+     * Estimate size of a read reply based on a previous read
+     *
+     * @param tag
+     *            Tag name
+     * @param count
+     *            Number of elements to read
+     * @return Size of reply data (type code and values), or 0 when not known
+     */
+    public int getEstimate(final String tag, final int count)
+    {
+        final Integer size = this.element_sizes.get(tag);
+        if (size == null)
+        {
+            return 0;
+        }
+        return 2 + count * size;
+    }
+
+    /** @return Number of tags with known reply size */
+    public int size()
+    {
+        return this.element_sizes.size();
+    }
+
+    /** Forget all reply sizes */
+    public void clear()
+    {
+        this.element_sizes.clear();
+    }
+}
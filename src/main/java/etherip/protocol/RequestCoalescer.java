@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static etherip.EtherNetIP.logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import etherip.types.CIPData;
+import etherip.types.CNService;
+
+/**
+ * Merges concurrent single-tag reads and writes into multi-requests
+ * <p>
+ * Reads and writes that arrive within a short window,
+ * or while the previous batch is still being executed,
+ * are sent together via {@link CNService#CIP_MultiRequest}.
+ * Concurrent reads of the same tag are handled by one read,
+ * concurrent writes to the same tag are reduced to the most recent value.
+ * <p>
+ * Reads and writes within the same batch have no defined order.
+ * Errors of individual items are reported to their caller,
+ * communication errors to all callers of the batch.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class RequestCoalescer implements AutoCloseable
+{
+    /** Pending write */
+    private static class Write
+    {
+        CIPData value;
+        final List<CompletableFuture<Void>> done = new ArrayList<>(1);
+    }
+
+    final private Connection connection;
+
+    final private long window_us;
+
+    final private ScheduledExecutorService executor;
+
+    /**
+     * Reads waiting for the next batch by tag name
+     * <p>
+     * SYNC on <code>this</code> for access
+     */
+    private Map<String, CompletableFuture<CIPData>> reads = new LinkedHashMap<>();
+
+    /**
+     * Writes waiting for the next batch by tag name
+     * <p>
+     * SYNC on <code>this</code> for access
+     */
+    private Map<String, Write> writes = new LinkedHashMap<>();
+
+    /** Is a batch scheduled? SYNC on <code>this</code> */
+    private boolean scheduled = false;
+
+    /** Has coalescer been closed? SYNC on <code>this</code> */
+    private boolean closed = false;
+
+    /** Statistics */
+    final private AtomicLong items = new AtomicLong(), batches = new AtomicLong();
+
+    /**
+     * @param connection
+     *            {@link Connection} to use
+     * @param window
+     *            Time to wait for more requests before sending a batch
+     * @param unit
+     *            Unit of the window
+     */
+    public RequestCoalescer(final Connection connection, final long window, final TimeUnit unit)
+    {
+        this.connection = connection;
+        this.window_us = unit.toMicros(window);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, "RequestCoalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Read a single scalar tag
+     *
+     * @param tag
+     *            Name of tag
+     * @return {@link CompletableFuture} for the current value of the tag,
+     *         failed when the coalescer has been closed
+     */
+    public synchronized CompletableFuture<CIPData> read(final String tag)
+    {
+        this.items.incrementAndGet();
+        if (this.closed)
+        {
+            return CompletableFuture.failedFuture(new Exception("Closed"));
+        }
+        CompletableFuture<CIPData> result = this.reads.get(tag);
+        if (result == null)
+        {
+            result = new CompletableFuture<>();
+            this.reads.put(tag, result);
+            this.schedule();
+        }
+        return result;
+    }
+
+    /**
+     * Write a tag
+     *
+     * @param tag
+     *            Name of tag
+     * @param value
+     *            Value to write
+     * @return {@link CompletableFuture} that completes when the value has been written,
+     *         failed when the coalescer has been closed
+     */
+    public synchronized CompletableFuture<Void> write(final String tag, final CIPData value)
+    {
+        this.items.incrementAndGet();
+        if (this.closed)
+        {
+            return CompletableFuture.failedFuture(new Exception("Closed"));
+        }
+        Write write = this.writes.get(tag);
+        if (write == null)
+        {
+            write = new Write();
+            this.writes.put(tag, write);
+            this.schedule();
+        }
+        write.value = value;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        write.done.add(result);
+        return result;
+    }
+
+    /** @return Number of reads and writes that were requested */
+    public long getItemCount()
+    {
+        return this.items.get();
+    }
+
+    /** @return Number of batches that have been executed */
+    public long getBatchCount()
+    {
+        return this.batches.get();
+    }
+
+    /** Schedule the next batch, if not already scheduled. SYNC on <code>this</code> */
+    private void schedule()
+    {
+        if (!this.scheduled)
+        {
+            this.scheduled = true;
+            try
+            {
+                this.executor.schedule(this::executeBatch, this.window_us, TimeUnit.MICROSECONDS);
+            }
+            catch (final RejectedExecutionException ex)
+            {   // Executor was shut down, don't leave requests that never complete
+                this.scheduled = false;
+                this.failPending(ex);
+            }
+        }
+    }
+
+    /** Execute all pending reads and writes */
+    private void executeBatch()
+    {
+        final Map<String, CompletableFuture<CIPData>> reads;
+        final Map<String, Write> writes;
+        synchronized (this)
+        {
+            reads = this.reads;
+            writes = this.writes;
+            this.reads = new LinkedHashMap<>();
+            this.writes = new LinkedHashMap<>();
+            this.scheduled = false;
+        }
+
+        final MessageRouterProtocol[] messages = new MessageRouterProtocol[reads.size() + writes.size()];
+        int i = 0;
+        for (final String tag : reads.keySet())
+        {
+            messages[i++] = new MRChipReadProtocol(tag);
+        }
+        for (final Map.Entry<String, Write> entry : writes.entrySet())
+        {
+            messages[i++] = new MRChipWriteProtocol(entry.getKey(), entry.getValue().value);
+        }
+        this.batches.incrementAndGet();
+        logger.log(Level.FINER, "Coalesced {0} reads, {1} writes", new Object[] { reads.size(), writes.size() });
+
+        try
+        {
+            if (messages.length == 1)
+            {
+                this.connection.execute(this.connection.createRequest(messages[0]));
+                this.connection.learnReplySizes(messages[0]);
+            }
+            else
+            {
+                this.connection.executeMultiRequest(MultiRequestPacker.DEFAULT_MAX_COUNT, messages);
+            }
+        }
+        catch (final Exception ex)
+        {
+            if (messages.length == 1  &&  messages[0].getStatus() != 0)
+            {   // Single request that failed, report as item error below
+                logger.log(Level.FINE, "Coalesced request failed", ex);
+            }
+            else
+            {
+                for (final CompletableFuture<CIPData> read : reads.values())
+                {
+                    read.completeExceptionally(ex);
+                }
+                for (final Write write : writes.values())
+                {
+                    for (final CompletableFuture<Void> done : write.done)
+                    {
+                        done.completeExceptionally(ex);
+                    }
+                }
+                return;
+            }
+        }
+
+        final MultiRequestResult result = new MultiRequestResult(messages);
+        i = 0;
+        for (final CompletableFuture<CIPData> read : reads.values())
+        {
+            if (result.isOk(i))
+            {
+                read.complete(result.getData(i));
+            }
+            else
+            {
+                read.completeExceptionally(result.getError(i));
+            }
+            ++i;
+        }
+        for (final Write write : writes.values())
+        {
+            for (final CompletableFuture<Void> done : write.done)
+            {
+                if (result.isOk(i))
+                {
+                    done.complete(null);
+                }
+                else
+                {
+                    done.completeExceptionally(result.getError(i));
+                }
+            }
+            ++i;
+        }
+    }
+
+    /**
+     * Fail and remove all pending requests. SYNC on <code>this</code>
+     *
+     * @param error
+     *            Error to report
+     */
+    private void failPending(final Exception error)
+    {
+        for (final CompletableFuture<CIPData> read : this.reads.values())
+        {
+            read.completeExceptionally(error);
+        }
+        for (final Write write : this.writes.values())
+        {
+            for (final CompletableFuture<Void> done : write.done)
+            {
+                done.completeExceptionally(error);
+            }
+        }
+        this.reads.clear();
+        this.writes.clear();
+    }
+
+    /** Stop handling requests. Pending and later requests are not executed but fail. */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            this.closed = true;
+        }
+        this.executor.shutdownNow();
+        synchronized (this)
+        {
+            this.failPending(new Exception("Closed"));
+        }
+    }
+}
@@ -47,13 +47,15 @@ public class SendRRDataProtocol extends ProtocolAdapter
     {
         final short addr_type = 0;
         final short data_type = 0xB2;
+        final int start = buf.position();
         buf.putInt(0);
         buf.putShort((short) 0);
         buf.putShort((short) 2);
         buf.putShort(addr_type);
         buf.putShort((short) 0);
         buf.putShort(data_type);
-        buf.putShort((short) this.body.getRequestSize());
+        // Length is patched once the body has been encoded
+        buf.putShort((short) 0);
         if (log != null)
         {
             log.append("Send RR Data\n");
@@ -70,6 +72,7 @@ public class SendRRDataProtocol extends ProtocolAdapter
         }
 
         this.body.encode(buf, log);
+        buf.putShort(start + RR_DATA_HEADER_SIZE - 2, (short) (buf.position() - start - RR_DATA_HEADER_SIZE));
     }
 
     /** {@inheritDoc} */
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SendUnitData, the connected message protocol
+ * <p>
+ * Sends the body as a sequenced 'connected PDU' (item 0xB1)
+ * on a {@link CIPConnection} identified by a 'connection based' address item (0xA1).
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class SendUnitDataProtocol extends ProtocolAdapter
+{
+    /** Byte size of unit data header, including the sequence count */
+    final public static int UNIT_DATA_HEADER_SIZE = 22;
+
+    /** Byte offset of the sequence count within a complete SendUnitData packet */
+    final public static int SEQUENCE_OFFSET = Encapsulation.ENCAPSULATION_HEADER_SIZE + UNIT_DATA_HEADER_SIZE - 2;
+
+    final private static short CONNECTION_ADDRESS = 0xA1;
+    final private static short CONNECTED_DATA = 0xB1;
+
+    final private CIPConnection connection;
+    private short sequence;
+    final private Protocol body;
+
+    /**
+     * Initialize
+     *
+     * @param connection
+     *            {@link CIPConnection} to use
+     * @param body
+     *            Protocol to place in connected data item
+     */
+    public SendUnitDataProtocol(final CIPConnection connection, final Protocol body)
+    {
+        this.connection = connection;
+        this.sequence = connection.nextSequence();
+        this.body = body;
+    }
+
+    /** Use the next sequence count, for example when the request is sent again */
+    void renewSequence()
+    {
+        this.sequence = this.connection.nextSequence();
+    }
+
+    /** @return Sequence count of the request */
+    short getSequence()
+    {
+        return this.sequence;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getRequestSize()
+    {
+        return UNIT_DATA_HEADER_SIZE + this.body.getRequestSize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void encode(final ByteBuffer buf, final StringBuilder log)
+            throws Exception
+    {
+        final int id = this.connection.getOriginatorToTargetID();
+        final int start = buf.position();
+        buf.putInt(0);
+        buf.putShort((short) 0);
+        buf.putShort((short) 2);
+        buf.putShort(CONNECTION_ADDRESS);
+        buf.putShort((short) 4);
+        buf.putInt(id);
+        buf.putShort(CONNECTED_DATA);
+        // Length of sequence count and body is patched once the body has been encoded
+        buf.putShort((short) 0);
+        buf.putShort(this.sequence);
+        if (log != null)
+        {
+            log.append("Send Unit Data\n");
+            log.append("UDINT interface handle  : 0\n");
+            log.append("UINT timeout            : 0\n");
+            log.append("UINT count (addr., data): 2\n");
+            log.append("UINT address type       : 0xA1 (connection based)\n");
+            log.append("UINT address length     : 4\n");
+            log.append(String.format("UDINT connection ID     : 0x%08X\n", id));
+            log.append("UINT data type          : 0xB1 (Connected PDU)\n");
+            log.append("UINT data length        : ").append(2 + this.body.getRequestSize()).append("\n");
+            log.append("UINT sequence count     : ").append(this.sequence & 0xFFFF).append("\n");
+        }
+
+        this.body.encode(buf, log);
+        buf.putShort(start + UNIT_DATA_HEADER_SIZE - 4, (short) (buf.position() - start - UNIT_DATA_HEADER_SIZE + 2));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void decode(final ByteBuffer buf, final int available,
+            final StringBuilder log) throws Exception
+    {
+        final int iface = buf.getInt();
+        if (iface != 0)
+        {
+            throw new Exception(
+                    "Received interface " + iface + " instead of 0");
+        }
+        final short timeout = buf.getShort();
+        final short count = buf.getShort();
+        if (count != 2)
+        {
+            throw new Exception("Received count " + count + " instead of 2");
+        }
+        final short addr_type = buf.getShort();
+        final short addr_length = buf.getShort();
+        if (addr_type != CONNECTION_ADDRESS  ||  addr_length != 4)
+        {
+            throw new Exception(String.format("Received address type 0x%X, length %d instead of connection address",
+                                              addr_type, addr_length));
+        }
+        final int id = buf.getInt();
+        final short data_type = buf.getShort();
+        final short data_length = buf.getShort();
+        if (data_type != CONNECTED_DATA)
+        {
+            throw new Exception(String.format("Received data type 0x%X instead of connected data", data_type));
+        }
+        final short sequence = buf.getShort();
+
+        if (log != null)
+        {
+            log.append("Received Unit Data\n");
+            log.append("UDINT interface handle  : ").append(iface).append("\n");
+            log.append("UINT timeout            : ").append(timeout).append("\n");
+            log.append("UINT count (addr., data): ").append(count).append("\n");
+            log.append(String.format("UDINT connection ID     : 0x%08X\n", id));
+            log.append("UINT data length        : ").append(data_length).append("\n");
+            log.append("UINT sequence count     : ").append(sequence & 0xFFFF).append("\n");
+        }
+
+        if (id != this.connection.getTargetToOriginatorID())
+        {
+            throw new Exception(String.format("Received connection ID 0x%08X instead of 0x%08X",
+                                              id, this.connection.getTargetToOriginatorID()));
+        }
+        if (sequence != this.sequence)
+        {
+            throw new Exception("Received sequence " + (sequence & 0xFFFF) + " instead of " + (this.sequence & 0xFFFF));
+        }
+
+        this.body.decode(buf, data_length - 2, log);
+    }
+}
@@ -11,7 +11,13 @@ import static etherip.EtherNetIP.logger;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 
@@ -21,12 +27,102 @@ import etherip.util.Hexdump;
  * Connection to EtherNet/IP device via TCP
  * <p>
  * Network connection as well as buffer and session info that's used for the duration of a connection.
+ * <p>
+ * Requests are handled one at a time.
+ * {@link #executeAsync(Protocol)} queues requests which are then
+ * written and read via completion handlers of the channel,
+ * without blocking a thread while waiting for the response.
  *
  * @author Kay Kasemir, László Pataki
  */
+@SuppressWarnings("nls")
 public class TcpConnection extends Connection
 {
-    private final AsynchronousSocketChannel channel;
+    /** Request handled by {@link TcpConnection#executeAsync(Protocol)} */
+    private static class AsyncRequest
+    {
+        final ProtocolEncoder encoder;
+        /** Decoder for the response, <code>null</code> when there is no response */
+        final ProtocolDecoder decoder;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        /** Buffer used for this request */
+        ByteBuffer buffer;
+        long reads = 0;
+
+        AsyncRequest(final ProtocolEncoder encoder, final ProtocolDecoder decoder)
+        {
+            this.encoder = encoder;
+            this.decoder = decoder;
+        }
+    }
+
+    protected final AsynchronousSocketChannel channel;
+
+    /** Permit to use the buffer and channel for one request */
+    private final Semaphore io_permit = new Semaphore(1);
+
+    /** Queued asynchronous requests */
+    private final Queue<AsyncRequest> async_requests = new ConcurrentLinkedQueue<>();
+
+    private final CompletionHandler<Integer, AsyncRequest> write_handler = new CompletionHandler<>()
+    {
+        @Override
+        public void completed(final Integer written, final AsyncRequest request)
+        {
+            if (request.buffer.hasRemaining())
+            {
+                TcpConnection.this.channel.write(request.buffer,
+                        TcpConnection.this.timeout_ms, MILLISECONDS, request, this);
+                return;
+            }
+            if (request.decoder == null)
+            {
+                TcpConnection.this.finishAsync(request, null);
+                return;
+            }
+            request.buffer.clear();
+            TcpConnection.this.readAsync(request);
+        }
+
+        @Override
+        public void failed(final Throwable ex, final AsyncRequest request)
+        {
+            TcpConnection.this.finishAsync(request, ex);
+        }
+    };
+
+    private final CompletionHandler<Integer, AsyncRequest> read_handler = new CompletionHandler<>()
+    {
+        @Override
+        public void completed(final Integer count, final AsyncRequest request)
+        {
+            try
+            {
+                if (count < 0)
+                {
+                    throw new Exception("Connection closed by device");
+                }
+                if (request.buffer.position() < request.decoder.getResponseSize(request.buffer))
+                {
+                    TcpConnection.this.readAsync(request);
+                    return;
+                }
+                request.buffer.flip();
+                TcpConnection.this.decode(request.buffer, request.decoder);
+                TcpConnection.this.finishAsync(request, null);
+            }
+            catch (final Throwable ex)
+            {
+                TcpConnection.this.finishAsync(request, ex);
+            }
+        }
+
+        @Override
+        public void failed(final Throwable ex, final AsyncRequest request)
+        {
+            TcpConnection.this.finishAsync(request, ex);
+        }
+    };
 
     /**
      * Initialize
@@ -39,7 +135,23 @@ public class TcpConnection extends Connection
      */
     public TcpConnection(final String address, final int slot) throws Exception
     {
-        super(address, slot);
+        this(address, DEFAULT_PORT, slot);
+    }
+
+    /**
+     * Initialize
+     *
+     * @param address
+     *            IP address of device
+     * @param port
+     *            TCP port of device
+     * @param slot
+     *            Slot number 0, 1, .. of the controller within PLC crate
+     * @throws Exception
+     */
+    public TcpConnection(final String address, final int port, final int slot) throws Exception
+    {
+        super(address, port, slot);
 
         this.channel = AsynchronousSocketChannel.open();
         this.channel.connect(new InetSocketAddress(address, this.port))
@@ -47,7 +159,11 @@ public class TcpConnection extends Connection
     }
 
     /**
-     * Write protocol data
+     * Write protocol data without expecting a response
+     * <p>
+     * Data is queued like asynchronous requests,
+     * so it is sent after requests that are already in flight
+     * and does not overlap with their pending write.
      *
      * @param encoder
      *            {@link ProtocolEncoder} used to <code>encode</code> buffer
@@ -56,6 +172,23 @@ public class TcpConnection extends Connection
      */
     @Override
     public void write(final ProtocolEncoder encoder) throws Exception
+    {
+        final AsyncRequest request = new AsyncRequest(encoder, null);
+        request.done.orTimeout(this.timeout_ms, MILLISECONDS);
+        this.async_requests.add(request);
+        this.startAsync();
+        await(request.done);
+    }
+
+    /**
+     * Write protocol data while holding the <code>io_permit</code>
+     *
+     * @param encoder
+     *            {@link ProtocolEncoder} used to <code>encode</code> buffer
+     * @throws Exception
+     *             on error
+     */
+    private void send(final ProtocolEncoder encoder) throws Exception
     {
         final StringBuilder log = logger.isLoggable(Level.FINER)
                 ? new StringBuilder() : null;
@@ -111,19 +244,27 @@ public class TcpConnection extends Connection
 
         // Prepare to decode
         this.buffer.flip();
+        this.decode(this.buffer, decoder);
+    }
 
+    /** @param buffer Buffer with received data
+     *  @param decoder {@link ProtocolDecoder} used to <code>decode</code> buffer
+     *  @throws Exception on error
+     */
+    private void decode(final ByteBuffer buffer, final ProtocolDecoder decoder) throws Exception
+    {
         if (logger.isLoggable(Level.FINEST))
         {
             logger.log(Level.FINEST, "Data read ({0} bytes):\n{1}",
-                    new Object[] { this.buffer.remaining(),
-                            Hexdump.toHexdump(this.buffer) });
+                    new Object[] { buffer.remaining(),
+                            Hexdump.toHexdump(buffer) });
         }
 
         final StringBuilder log = logger.isLoggable(Level.FINER)
                 ? new StringBuilder() : null;
         try
         {
-            decoder.decode(this.buffer, this.buffer.remaining(), log);
+            decoder.decode(buffer, buffer.remaining(), log);
         }
         finally
         {   // Show log even on error
@@ -134,6 +275,118 @@ public class TcpConnection extends Connection
         }
     }
 
+    /**
+     * Write protocol request and handle response
+     *
+     * @param protocol
+     *            {@link Protocol}
+     * @throws Exception
+     *             on error
+     */
+    @Override
+    public void execute(final Protocol protocol) throws Exception
+    {
+        this.io_permit.acquire();
+        try
+        {
+            this.send(protocol);
+            this.read(protocol);
+        }
+        finally
+        {
+            this.io_permit.release();
+            this.startAsync();
+        }
+    }
+
+    /**
+     * Write protocol request and handle response without blocking
+     * <p>
+     * Requests are queued and then handled one at a time,
+     * in turn with those submitted via {@link #execute(Protocol)}.
+     * The future completes off the channel's I/O thread.
+     *
+     * @param protocol
+     *            {@link Protocol}
+     * @return {@link CompletableFuture} that completes when the response has been decoded
+     */
+    @Override
+    public CompletableFuture<Void> executeAsync(final Protocol protocol)
+    {
+        final AsyncRequest request = new AsyncRequest(protocol, protocol);
+        this.async_requests.add(request);
+        this.startAsync();
+        return completeAsync(request.done);
+    }
+
+    /** Start next queued request unless a request is already active */
+    private void startAsync()
+    {
+        while (! this.async_requests.isEmpty()  &&  this.io_permit.tryAcquire())
+        {
+            final AsyncRequest request = this.async_requests.poll();
+            if (request == null)
+            {   // Another thread took the request
+                this.io_permit.release();
+                continue;
+            }
+            final StringBuilder log = logger.isLoggable(Level.FINER)
+                    ? new StringBuilder() : null;
+            request.buffer = this.buffer;
+            try
+            {
+                request.buffer.clear();
+                request.encoder.encode(request.buffer, log);
+                if (log != null)
+                {
+                    logger.finer("Protocol Encoding\n" + log.toString());
+                }
+                request.buffer.flip();
+                if (logger.isLoggable(Level.FINEST))
+                {
+                    logger.log(Level.FINEST, "Data sent ({0} bytes):\n{1}",
+                            new Object[] { request.buffer.remaining(),
+                                    Hexdump.toHexdump(request.buffer) });
+                }
+            }
+            catch (final Throwable ex)
+            {
+                this.finishAsync(request, ex);
+                return;
+            }
+            this.channel.write(request.buffer, this.timeout_ms, MILLISECONDS, request, this.write_handler);
+            return;
+        }
+    }
+
+    /** @param request Request for which to read (more of) the response */
+    private void readAsync(final AsyncRequest request)
+    {
+        if (++request.reads > this.max_retry_count)
+        {
+            this.finishAsync(request, new TimeoutException("Message response time out"));
+            return;
+        }
+        this.channel.read(request.buffer, this.timeout_ms, MILLISECONDS, request, this.read_handler);
+    }
+
+    /** @param request Request that's done
+     *  @param error Error or <code>null</code>
+     */
+    private void finishAsync(final AsyncRequest request, final Throwable error)
+    {
+        this.io_permit.release();
+        if (error == null)
+        {
+            request.done.complete(null);
+        }
+        else
+        {
+            request.done.completeExceptionally(error);
+        }
+        this.startAsync();
+    }
+
     @Override
     public void close() throws Exception
     {
@@ -22,6 +22,8 @@ package etherip.protocol;
 @SuppressWarnings("nls")
 public class Transaction
 {
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
     // SYNC on access
     private static long transaction = 0;
 
@@ -49,6 +51,19 @@ public class Transaction
     /** @return Transaction ID as text / ASCII bytes for "context" */
     static byte[] format(final long transaction)
     {
-        return String.format("%08X", transaction).getBytes();
+        final byte[] context = new byte[8];
+        format(transaction, context);
+        return context;
+    }
+
+    /** @param transaction Transaction ID
+     *  @param context Array of 8 bytes that is set to the transaction ID as hex text, "%08X"
+     */
+    static void format(final long transaction, final byte[] context)
+    {
+        for (int i = 0; i < 8; ++i)
+        {
+            context[i] = HEX[(int) (transaction >> (28 - 4 * i)) & 0xF];
+        }
     }
 }
@@ -59,24 +59,27 @@ public class UnconnectedSendProtocol extends ProtocolAdapter
         final byte ticks = (byte) 240;
         buf.put(tick_time);
         buf.put(ticks);
-        final short body_size = (short) this.body.getRequestSize();
-        buf.putShort(body_size);
-
-        final boolean pad = this.needPad();
+        // Message size is patched once the body has been encoded
+        final int size_position = buf.position();
+        buf.putShort((short) 0);
 
         if (log != null)
         {
+            final int body_size = this.body.getRequestSize();
             log.append("CM_Unconnected_Send\n");
             log.append("USINT tick_time         : ").append(tick_time)
                     .append("\n");
             log.append("USINT ticks             : ").append(ticks).append("\n");
             log.append("UINT message size       : ")
-                    .append(this.body.getRequestSize()).append("\n");
+                    .append(body_size).append("\n");
             log.append("  \\/\\/\\/ embedded message \\/\\/\\/ (")
                     .append(body_size).append(" bytes)\n");
         }
 
         this.body.encode(buf, log);
+        final int body_size = buf.position() - size_position - 2;
+        buf.putShort(size_position, (short) body_size);
+        final boolean pad = (body_size % 2) != 0;
         if (pad)
         {
             buf.put((byte) 0);
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.scan;
+
+import static etherip.EtherNetIP.logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import etherip.TagList;
+import etherip.protocol.Connection;
+
+/**
+ * Group of {@link ScanList}s that are processed together
+ * <p>
+ * The group runs at the period of its fastest list.
+ * Slower lists, whose periods must be multiples of the group period,
+ * are included on every n-th cycle,
+ * and all lists that are due in a cycle share the same multi-requests.
+ * <p>
+ * Each cycle is scheduled for a deadline, the previous deadline plus the period.
+ * When a cycle takes so long that deadlines have passed,
+ * those cycles are skipped and counted as overruns
+ * instead of running them back-to-back to catch up.
+ * A slower list that was due in a skipped cycle is included
+ * in the next cycle, so it is not starved when the fast lists overrun.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+class ScanGroup implements Runnable
+{
+    final private Connection connection;
+    final private long period_ns;
+    final private ScanList[] lists;
+    final private Runnable after_cycle;
+
+    /** Number of group cycles per cycle of each list */
+    final private long[] ratios;
+
+    /** Missed deadline of each list that needs to be caught up, 0 if none. SYNC on <code>this</code> */
+    final private long[] owed;
+
+    private volatile boolean aborted = false;
+
+    private ScheduledExecutorService executor;
+
+    private ScheduledFuture<?> scheduled = null;
+
+    /** Start of cycle 0, {@link System#nanoTime()} */
+    private long start;
+
+    /** Scheduled start of the next cycle, {@link System#nanoTime()} */
+    private long deadline;
+
+    /**
+     * @param connection
+     *            {@link Connection}
+     * @param period_ms
+     *            Period of the group in milliseconds
+     * @param lists
+     *            {@link ScanList}s, each with a multiple of the group period
+     * @param after_cycle
+     *            Called on the scan thread at the end of each cycle
+     */
+    public ScanGroup(final Connection connection, final long period_ms, final List<ScanList> lists,
+                     final Runnable after_cycle)
+    {
+        this.connection = connection;
+        this.after_cycle = after_cycle;
+        this.period_ns = TimeUnit.MILLISECONDS.toNanos(period_ms);
+        this.lists = lists.toArray(new ScanList[lists.size()]);
+        this.ratios = new long[this.lists.length];
+        this.owed = new long[this.lists.length];
+        for (int i = 0; i < this.lists.length; ++i)
+        {
+            this.ratios[i] = this.lists[i].getPeriodMillis() / period_ms;
+        }
+    }
+
+    /**
+     * Start periodic scans
+     * <p>
+     * Cycles are aligned to a common epoch, so a group that is re-created
+     * with the same period and phase continues on the same deadlines.
+     *
+     * @param executor
+     *            Executor for the scans
+     * @param epoch
+     *            Common time base of all groups, {@link System#nanoTime()}
+     * @param phase_ns
+     *            Offset of this group from the epoch in nanoseconds
+     */
+    public synchronized void start(final ScheduledExecutorService executor, final long epoch, final long phase_ns)
+    {
+        this.executor = executor;
+        this.start = epoch + phase_ns;
+        final long now = System.nanoTime();
+        final long cycle = Math.max(0, (now - this.start) / this.period_ns + 1);
+        this.deadline = this.start + cycle * this.period_ns;
+        this.scheduled = executor.schedule(this, this.deadline - now, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void run()
+    {
+        // Determine lists that are due in this cycle
+        final long cycle;
+        final List<ScanList> due = new ArrayList<>(this.lists.length);
+        final List<Long> deadlines = new ArrayList<>(this.lists.length);
+        final List<TagList> tags = new ArrayList<>(this.lists.length);
+        synchronized (this)
+        {
+            cycle = (this.deadline - this.start) / this.period_ns;
+            for (int i = 0; i < this.lists.length; ++i)
+            {
+                if (this.owed[i] != 0  ||  cycle % this.ratios[i] == 0)
+                {
+                    due.add(this.lists[i]);
+                    deadlines.add(this.owed[i] != 0 ? this.owed[i] : this.deadline);
+                    tags.add(this.lists[i].getTags());
+                    this.owed[i] = 0;
+                }
+            }
+        }
+
+        final long start = System.nanoTime();
+        logger.log(Level.FINE, "Scan group {0}", this);
+        try
+        {
+            TagList.process(this.connection, tags);
+        }
+        catch (final Exception ex)
+        {
+            if (this.aborted)
+            {
+                return;
+            }
+            logger.log(Level.WARNING, "Scan group " + this + " process failed", ex);
+        }
+        final long end = System.nanoTime();
+        for (int i = 0; i < due.size(); ++i)
+        {
+            due.get(i).addCycle(deadlines.get(i), start, end);
+            due.get(i).sample();
+        }
+        this.scheduleNext(cycle, end);
+        this.after_cycle.run();
+    }
+
+    /**
+     * Schedule next cycle
+     *
+     * @param cycle
+     *            Cycle that just ran
+     * @param end
+     *            End of that cycle
+     */
+    private synchronized void scheduleNext(final long cycle, final long end)
+    {
+        // Skip deadlines that have already passed
+        long next = this.deadline + this.period_ns;
+        if (next - end <= 0)
+        {
+            final long missed = (end - this.deadline) / this.period_ns;
+            for (int i = 0; i < this.lists.length; ++i)
+            {   // Count cycles of each list within the skipped group cycles
+                final long last = (cycle + missed) / this.ratios[i];
+                final long skipped = last - cycle / this.ratios[i];
+                if (skipped > 0)
+                {
+                    this.lists[i].addOverruns(skipped);
+                    this.owed[i] = this.start + last * this.ratios[i] * this.period_ns;
+                }
+            }
+            next = this.deadline + (missed + 1) * this.period_ns;
+        }
+        this.deadline = next;
+        if (!this.aborted)
+        {
+            this.scheduled = this.executor.schedule(this, next - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** Stop scanning */
+    public synchronized void cancel()
+    {
+        this.aborted = true;
+        if (this.scheduled != null)
+        {
+            this.scheduled.cancel(false);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(this.period_ns / 1e9).append(" sec group with");
+        for (final ScanList list : this.lists)
+        {
+            buf.append(' ').append(list.getPeriod()).append(" sec");
+        }
+        return buf.toString();
+    }
+}
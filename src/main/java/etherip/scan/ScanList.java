@@ -9,61 +9,173 @@ package etherip.scan;
 
 import static etherip.EtherNetIP.logger;
 
-import java.util.TimerTask;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 
 import etherip.Tag;
 import etherip.TagList;
-import etherip.protocol.Connection;
+import etherip.TagListener;
 
 /**
- * List of tags that are processed (read or written)
+ * List of tags that are processed (read or written) at a common period
+ * <p>
+ * The list is processed by a {@link ScanGroup}, which also keeps track of
+ * the deadlines for each cycle.
+ * <p>
+ * Subscriptions are sampled after each cycle of the list.
+ * Their tags may be read by this list or by a faster one.
  *
  * @author Kay Kasemir
  */
-class ScanList extends TimerTask
+@SuppressWarnings("nls")
+class ScanList
 {
     final private double period;
-    final private Connection connection;
+    final private long period_ms;
 
     final private TagList tags = new TagList();
 
-    private volatile boolean aborted = false;
+    /** Subscribed {@link Tag} and its listener */
+    private static class Subscription
+    {
+        final Tag tag;
+        final TagListener listener;
+
+        Subscription(final Tag tag, final TagListener listener)
+        {
+            this.tag = tag;
+            this.listener = listener;
+        }
+    }
+
+    final private List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
 
-    public ScanList(final double period, final Connection connection)
+    // Statistics, SYNC on this
+    private long cycles = 0, overruns = 0;
+    private long last_cycle_ns = 0, total_cycle_ns = 0, max_cycle_ns = 0;
+    private long max_lateness_ns = 0;
+    private double sum_lateness = 0, sum_lateness_sqr = 0;
+
+    /**
+     * @param period_ms
+     *            Period in milliseconds
+     */
+    public ScanList(final long period_ms)
     {
-        this.period = period;
-        this.connection = connection;
+        this.period = period_ms / 1000.0;
+        this.period_ms = period_ms;
     }
 
-    public Tag add(final String tag_name)
+    /**
+     * @param listener
+     *            Listener to call with the tag after each cycle of this list
+     * @param tag
+     *            {@link Tag}
+     */
+    public void subscribe(final TagListener listener, final Tag tag)
     {
-        return this.tags.add(tag_name);
+        this.subscriptions.add(new Subscription(tag, listener));
     }
 
-    @Override
-    public void run()
+    /** Call subscribers with the current value of their tags */
+    public void sample()
     {
-        logger.log(Level.FINE, "Scan list {0} sec", this.period);
-        try
+        for (final Subscription subscription : this.subscriptions)
         {
-            this.tags.process(this.connection);
-        }
-        catch (final Exception ex)
-        {
-            if (this.aborted)
+            try
+            {
+                if (subscription.tag.getError() == null)
+                {
+                    if (subscription.tag.getValue() != null)
+                    {
+                        subscription.listener.tagUpdate(subscription.tag);
+                    }
+                }
+                else
+                {
+                    subscription.listener.tagError(subscription.tag);
+                }
+            }
+            catch (final Exception ex)
             {
-                return;
+                logger.log(Level.WARNING, "Subscriber of " + subscription.tag.getName() + " failed", ex);
             }
-            logger.log(Level.WARNING,
-                    "Scan list " + this.period + " sec process failed", ex);
         }
     }
 
-    @Override
-    public boolean cancel()
+    /** @return Period in seconds */
+    public double getPeriod()
+    {
+        return this.period;
+    }
+
+    /** @return Period in milliseconds */
+    public long getPeriodMillis()
+    {
+        return this.period_ms;
+    }
+
+    /** @return {@link TagList} of this scan list */
+    public TagList getTags()
+    {
+        return this.tags;
+    }
+
+    /**
+     * Update statistics for a cycle that just ran
+     *
+     * @param deadline
+     *            Scheduled start of the cycle, {@link System#nanoTime()}
+     * @param start
+     *            Actual start of the cycle
+     * @param end
+     *            End of the cycle
+     */
+    public synchronized void addCycle(final long deadline, final long start, final long end)
+    {
+        final long lateness = Math.max(0, start - deadline);
+        final long duration = end - start;
+        ++this.cycles;
+        this.last_cycle_ns = duration;
+        this.total_cycle_ns += duration;
+        this.max_cycle_ns = Math.max(this.max_cycle_ns, duration);
+        this.max_lateness_ns = Math.max(this.max_lateness_ns, lateness);
+        this.sum_lateness += lateness;
+        this.sum_lateness_sqr += (double) lateness * lateness;
+    }
+
+    /**
+     * @param missed
+     *            Number of cycles that were skipped
+     */
+    public synchronized void addOverruns(final long missed)
+    {
+        if (missed <= 0)
+        {
+            return;
+        }
+        this.overruns += missed;
+        if (this.overruns == missed  ||  this.overruns % 100 < missed)
+        {
+            logger.log(Level.WARNING, "Scan list {0} sec overrun: {1}",
+                    new Object[] { this.period, this.getStatistics() });
+        }
+    }
+
+    /** @return {@link ScanStatistics} */
+    public synchronized ScanStatistics getStatistics()
     {
-        this.aborted = true;
-        return super.cancel();
+        final double ms = 1e-6;
+        final double avg_lateness = this.cycles > 0 ? this.sum_lateness / this.cycles : 0.0;
+        final double var_lateness = this.cycles > 0
+                ? Math.max(0.0, this.sum_lateness_sqr / this.cycles - avg_lateness * avg_lateness)
+                : 0.0;
+        return new ScanStatistics(this.period, this.cycles, this.overruns,
+                this.last_cycle_ns * ms,
+                this.cycles > 0 ? this.total_cycle_ns * ms / this.cycles : 0.0,
+                this.max_cycle_ns * ms,
+                avg_lateness * ms, this.max_lateness_ns * ms,
+                Math.sqrt(var_lateness) * ms);
     }
-}
\ No newline at end of file
+}
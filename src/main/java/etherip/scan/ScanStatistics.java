@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.scan;
+
+/**
+ * Timing statistics of a {@link ScanList}
+ * <p>
+ * Lateness is the delay between the scheduled start of a cycle and its actual start.
+ * Jitter is the standard deviation of the lateness.
+ * An overrun is a cycle that was skipped because the previous one took too long.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class ScanStatistics
+{
+    final private double period;
+    final private long cycles;
+    final private long overruns;
+    final private double last_cycle_ms;
+    final private double avg_cycle_ms;
+    final private double max_cycle_ms;
+    final private double avg_lateness_ms;
+    final private double max_lateness_ms;
+    final private double jitter_ms;
+
+    ScanStatistics(final double period, final long cycles, final long overruns,
+                   final double last_cycle_ms, final double avg_cycle_ms, final double max_cycle_ms,
+                   final double avg_lateness_ms, final double max_lateness_ms, final double jitter_ms)
+    {
+        this.period = period;
+        this.cycles = cycles;
+        this.overruns = overruns;
+        this.last_cycle_ms = last_cycle_ms;
+        this.avg_cycle_ms = avg_cycle_ms;
+        this.max_cycle_ms = max_cycle_ms;
+        this.avg_lateness_ms = avg_lateness_ms;
+        this.max_lateness_ms = max_lateness_ms;
+        this.jitter_ms = jitter_ms;
+    }
+
+    /** @return Scan period in seconds */
+    public double getPeriod()
+    {
+        return this.period;
+    }
+
+    /** @return Number of executed cycles */
+    public long getCycles()
+    {
+        return this.cycles;
+    }
+
+    /** @return Number of skipped cycles */
+    public long getOverruns()
+    {
+        return this.overruns;
+    }
+
+    /** @return Duration of the most recent cycle in milliseconds */
+    public double getLastCycleTime()
+    {
+        return this.last_cycle_ms;
+    }
+
+    /** @return Average duration of a cycle in milliseconds */
+    public double getAverageCycleTime()
+    {
+        return this.avg_cycle_ms;
+    }
+
+    /** @return Maximum duration of a cycle in milliseconds */
+    public double getMaxCycleTime()
+    {
+        return this.max_cycle_ms;
+    }
+
+    /** @return Average lateness of cycle start in milliseconds */
+    public double getAverageLateness()
+    {
+        return this.avg_lateness_ms;
+    }
+
+    /** @return Maximum lateness of cycle start in milliseconds */
+    public double getMaxLateness()
+    {
+        return this.max_lateness_ms;
+    }
+
+    /** @return Standard deviation of lateness in milliseconds */
+    public double getJitter()
+    {
+        return this.jitter_ms;
+    }
+
+    /** @return <code>true</code> if cycles take longer than the period, so the PLC cannot keep up */
+    public boolean isOverloaded()
+    {
+        return this.avg_cycle_ms > this.period * 1000.0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%.3f sec scan: %d cycles, %d overruns, cycle %.1f ms (avg %.1f, max %.1f), late avg %.1f ms, max %.1f ms, jitter %.1f ms",
+                this.period, this.cycles, this.overruns,
+                this.last_cycle_ms, this.avg_cycle_ms, this.max_cycle_ms,
+                this.avg_lateness_ms, this.max_lateness_ms, this.jitter_ms);
+    }
+}
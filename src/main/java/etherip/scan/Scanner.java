@@ -7,60 +7,307 @@
  *******************************************************************************/
 package etherip.scan;
 
+import static etherip.EtherNetIP.logger;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
 
 import etherip.Tag;
+import etherip.TagListener;
 import etherip.protocol.Connection;
+import etherip.protocol.PacketLimits;
 
 /**
- * Timer-based periodic scanner for {@link ScanList Scan Lists}
+ * Periodic scanner for {@link ScanList Scan Lists}
+ * <p>
+ * All lists of one connection share one worker thread,
+ * since the connection handles one request at a time.
+ * A {@link ScheduleOptimizer} arranges the lists into {@link ScanGroup}s:
+ * Lists that are due at the same time share multi-requests,
+ * and groups are offset in phase so their traffic is spread over time.
+ * See {@link ScanGroup} for the handling of overruns.
+ * <p>
+ * The schedule depends on the packet limits and the reply sizes
+ * that the connection learns while reading,
+ * so it is determined again when those change,
+ * for example after the first cycle that reads new tags.
+ * <p>
+ * Each tag is read only once, by the list with the fastest period requested for it.
+ * Subscribers receive its value at their own period,
+ * sampled from that single {@link Tag}.
  *
  * @author Kay Kasemir
  */
+@SuppressWarnings("nls")
 class Scanner
 {
+    /** Minimum scan period in milliseconds */
+    final public static long MIN_PERIOD_MS = 100;
+
     final private Connection connection;
-    final Timer timer = new Timer("Scan Timer");
+    final private ScheduledExecutorService executor;
+
+    /** Time base for the phases of all groups, {@link System#nanoTime()} */
+    final private long epoch = System.nanoTime();
 
     /** Scan lists by scan period in ms */
-    final Map<Long, ScanList> scan_lists = new HashMap<>();
+    final Map<Long, ScanList> scan_lists = new TreeMap<>();
+
+    /** Tags by name, each read by one scan list. SYNC on <code>this</code> */
+    final private Map<String, Tag> tags = new HashMap<>();
+
+    /** Scan list that reads each tag. SYNC on <code>this</code> */
+    final private Map<Tag, ScanList> readers = new HashMap<>();
+
+    /** Currently scheduled groups. SYNC on <code>this</code> */
+    private List<ScanGroup> groups = new ArrayList<>();
+
+    /** Current schedule. SYNC on <code>this</code> */
+    private ScheduleOptimizer schedule = null;
+
+    /** Need to determine a new schedule? SYNC on <code>this</code> */
+    private boolean plan_pending = false;
+
+    /** {@link PacketLimits#getChanges()} for the current schedule. SYNC on <code>this</code> */
+    private long planned_limits = -1;
+
+    /** Sum of estimated response sizes for the current schedule. SYNC on <code>this</code> */
+    private long planned_estimate = -1;
+
+    private boolean stopped = false;
 
     public Scanner(final Connection connection)
     {
         this.connection = connection;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, "Scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     private long convertToMillisec(final double seconds)
     {
-        if (seconds <= 0.1)
+        final long ms = Math.round(seconds * 1000);
+        if (ms < MIN_PERIOD_MS)
         {
-            return 100;
+            logger.log(Level.WARNING, "Scan period of {0} sec raised to minimum of {1} ms",
+                    new Object[] { seconds, MIN_PERIOD_MS });
+            return MIN_PERIOD_MS;
         }
-        return (long) (seconds * 1000);
+        return ms;
     }
 
-    public Tag add(final double period_secs, final String tag_name)
+    /**
+     * Add tag to scanner
+     *
+     * @param period_secs
+     *            Scan period in seconds
+     * @param tag_name
+     *            Name of tag
+     * @return {@link Tag}, the same one for each call with the same name
+     */
+    public synchronized Tag add(final double period_secs, final String tag_name)
+    {
+        return this.add(this.getList(this.convertToMillisec(period_secs)), tag_name);
+    }
+
+    /**
+     * @param list
+     *            Scan list that requires the tag
+     * @param tag_name
+     *            Name of tag
+     * @return {@link Tag}
+     */
+    private Tag add(final ScanList list, final String tag_name)
+    {
+        Tag tag = this.tags.get(tag_name);
+        if (tag == null)
+        {
+            tag = new Tag(tag_name);
+            this.tags.put(tag_name, tag);
+        }
+
+        // Read tag by the fastest list
+        final ScanList reader = this.readers.get(tag);
+        if (reader == null  ||  list.getPeriodMillis() < reader.getPeriodMillis())
+        {
+            if (reader != null)
+            {
+                reader.getTags().remove(tag);
+            }
+            list.getTags().add(tag);
+            this.readers.put(tag, list);
+            this.requestPlan();
+        }
+        return tag;
+    }
+
+    /**
+     * Subscribe to a tag
+     * <p>
+     * The listener is called after each cycle of the scan period
+     * with the most recent value of the tag,
+     * which may be read at a faster period for other subscribers.
+     *
+     * @param period_secs
+     *            Scan period in seconds
+     * @param tag_name
+     *            Name of tag
+     * @param listener
+     *            {@link TagListener} to call in each period
+     * @return {@link Tag}, the same one for each call with the same name
+     */
+    public synchronized Tag subscribe(final double period_secs, final String tag_name, final TagListener listener)
+    {
+        final ScanList list = this.getList(this.convertToMillisec(period_secs));
+        final Tag tag = this.add(list, tag_name);
+        list.subscribe(listener, tag);
+        return tag;
+    }
+
+    /**
+     * @param ms
+     *            Scan period in ms
+     * @return Scan list for that period, created if necessary
+     */
+    private ScanList getList(final long ms)
     {
-        // Locate suitable scan list
-        final long ms = this.convertToMillisec(period_secs);
         ScanList list = this.scan_lists.get(ms);
         if (list == null)
         {
-            list = new ScanList(period_secs, this.connection);
+            list = new ScanList(ms);
             this.scan_lists.put(ms, list);
-            this.timer.schedule(list, ms, ms);
+            this.requestPlan();
+        }
+        return list;
+    }
+
+    /** Request a new plan. Adding several tags in a row results in only one new plan */
+    private void requestPlan()
+    {
+        if (!this.plan_pending  &&  !this.stopped)
+        {
+            this.plan_pending = true;
+            this.executor.execute(this::plan);
+        }
+    }
+
+    /** Called after each scan cycle: Plan again when limits or reply sizes have changed */
+    private synchronized void checkPlan()
+    {
+        if (this.plan_pending  ||  this.stopped)
+        {
+            return;
+        }
+        if (this.planned_limits != this.connection.getPacketLimits().getChanges()  ||
+            this.planned_estimate != this.getEstimatedResponseSize())
+        {
+            logger.log(Level.FINE, "Packet limits or reply sizes changed, updating schedule");
+            this.plan_pending = true;
+            this.plan();
         }
-        return list.add(tag_name);
     }
 
-    public void stop()
+    /** @return Sum of the estimated response sizes of all lists */
+    private long getEstimatedResponseSize()
     {
-        this.timer.cancel();
+        long sum = 0;
         for (final ScanList list : this.scan_lists.values())
         {
-            list.cancel();
+            sum += list.getTags().getEstimatedResponseSize(this.connection.getReplySizes());
+        }
+        return sum;
+    }
+
+    /** Determine groups and phases for the current lists, re-start scanning */
+    private synchronized void plan()
+    {
+        if (!this.plan_pending  ||  this.stopped)
+        {
+            return;
+        }
+        this.plan_pending = false;
+
+        final int max = this.connection.getMaxMessageSize();
+        this.planned_limits = this.connection.getPacketLimits().getChanges();
+        final ScheduleOptimizer optimizer = new ScheduleOptimizer(
+                this.connection.getPacketLimits().getRequestLimit(max),
+                this.connection.getPacketLimits().getResponseLimit(max));
+        final List<ScanList> lists = new ArrayList<>(this.scan_lists.values());
+        long estimate = 0;
+        for (final ScanList list : lists)
+        {
+            final int response = list.getTags().getEstimatedResponseSize(this.connection.getReplySizes());
+            optimizer.add(list.getPeriodMillis(), list.getTags().getRequestSize(), response);
+            estimate += response;
+        }
+        this.planned_estimate = estimate;
+        final List<ScheduleOptimizer.Group> plan = optimizer.optimize();
+
+        for (final ScanGroup group : this.groups)
+        {
+            group.cancel();
+        }
+        this.groups = new ArrayList<>(plan.size());
+        for (final ScheduleOptimizer.Group info : plan)
+        {
+            final List<ScanList> members = new ArrayList<>(info.getMembers().size());
+            for (final int i : info.getMembers())
+            {
+                members.add(lists.get(i));
+            }
+            final ScanGroup group = new ScanGroup(this.connection, info.getPeriod(), members, this::checkPlan);
+            group.start(this.executor, this.epoch, info.getPhase());
+            this.groups.add(group);
+        }
+        this.schedule = optimizer;
+        logger.log(Level.CONFIG, "{0}", optimizer);
+    }
+
+    /** @return Report of the schedule with expected packets per second */
+    public synchronized String getSchedule()
+    {
+        this.plan();
+        return this.schedule == null ? "No schedule" : this.schedule.toString();
+    }
+
+    /** @return {@link ScanStatistics} for each scan list, ordered by period */
+    public synchronized List<ScanStatistics> getStatistics()
+    {
+        final List<ScanStatistics> stats = new ArrayList<>(this.scan_lists.size());
+        for (final ScanList list : this.scan_lists.values())
+        {
+            stats.add(list.getStatistics());
+        }
+        return stats;
+    }
+
+    public synchronized void stop()
+    {
+        this.stopped = true;
+        for (final ScanGroup group : this.groups)
+        {
+            group.cancel();
+        }
+        this.executor.shutdownNow();
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder buf = new StringBuilder("Scanner");
+        for (final ScanStatistics stats : this.getStatistics())
+        {
+            buf.append("\n").append(stats);
         }
+        return buf.toString();
     }
-}
\ No newline at end of file
+}
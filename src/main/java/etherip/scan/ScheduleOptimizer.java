@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.scan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import etherip.protocol.CIPMultiRequestProtocol;
+import etherip.protocol.MultiRequestPacker;
+
+/**
+ * Plans the schedule of scan lists
+ * <p>
+ * Lists whose periods are multiples of each other come due at the same time,
+ * for example lists of 1 and 2 seconds every 2 seconds.
+ * When their reads fit into one multi-request, they are merged into one group.
+ * The group runs at the shortest period of its lists and includes the slower lists
+ * only on every n-th cycle, so lists that are due together share one network packet.
+ * <p>
+ * Groups that cannot share a packet are offset in phase.
+ * Their start times are evenly spaced within the base tick,
+ * the greatest common divisor of all periods,
+ * instead of all groups starting at the same time.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+class ScheduleOptimizer
+{
+    /** Scan lists that are processed together */
+    static class Group
+    {
+        final private long period_ms;
+        final private List<Integer> members = new ArrayList<>();
+        private int request_size = CIPMultiRequestProtocol.OVERHEAD;
+        private int response_size = MultiRequestPacker.REPLY_OVERHEAD;
+        private long phase_ns = 0;
+        private double packets_per_second;
+
+        Group(final long period_ms)
+        {
+            this.period_ms = period_ms;
+        }
+
+        /** @return Period of the group in milliseconds */
+        public long getPeriod()
+        {
+            return this.period_ms;
+        }
+
+        /** @return Start of the group within the base tick in nanoseconds */
+        public long getPhase()
+        {
+            return this.phase_ns;
+        }
+
+        /** @return Indices of the lists in this group, the first one having the group's period */
+        public List<Integer> getMembers()
+        {
+            return this.members;
+        }
+
+        /** @return Expected network packets per second */
+        public double getPacketsPerSecond()
+        {
+            return this.packets_per_second;
+        }
+    }
+
+    final private int max_request_size, max_response_size;
+
+    /** Period, request and estimated response size of each list */
+    final private List<long[]> lists = new ArrayList<>();
+
+    private List<Group> groups = Collections.emptyList();
+
+    private long tick_ms = 0;
+
+    /**
+     * @param max_request_size
+     *            Maximum size of a multi-request
+     * @param max_response_size
+     *            Maximum size of a multi-request reply
+     */
+    public ScheduleOptimizer(final int max_request_size, final int max_response_size)
+    {
+        this.max_request_size = max_request_size;
+        this.max_response_size = max_response_size;
+    }
+
+    /**
+     * @param period_ms
+     *            Period of a scan list in milliseconds
+     * @param request_size
+     *            Size of a multi-request that reads all tags of the list
+     * @param response_size
+     *            Estimated size of its reply
+     * @return Index of the list
+     */
+    public int add(final long period_ms, final int request_size, final int response_size)
+    {
+        this.lists.add(new long[] { period_ms, request_size, response_size });
+        return this.lists.size() - 1;
+    }
+
+    /**
+     * Determine groups and their phases
+     *
+     * @return Groups of lists
+     */
+    public List<Group> optimize()
+    {
+        // Merge lists, starting with the shortest period,
+        // into the first group whose period divides theirs and that can fit them into one packet
+        final List<Integer> order = new ArrayList<>(this.lists.size());
+        for (int i = 0; i < this.lists.size(); ++i)
+        {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingLong(i -> this.lists.get(i)[0]));
+
+        final List<Group> groups = new ArrayList<>();
+        for (final int i : order)
+        {
+            final long[] list = this.lists.get(i);
+            final int request = (int) list[1] - CIPMultiRequestProtocol.OVERHEAD;
+            final int response = (int) list[2] - MultiRequestPacker.REPLY_OVERHEAD;
+            Group fit = null;
+            for (final Group group : groups)
+            {
+                if (list[0] % group.period_ms == 0  &&
+                    group.request_size + request <= this.max_request_size  &&
+                    group.response_size + response <= this.max_response_size)
+                {
+                    fit = group;
+                    break;
+                }
+            }
+            if (fit == null)
+            {
+                fit = new Group(list[0]);
+                groups.add(fit);
+            }
+            fit.members.add(i);
+            fit.request_size += request;
+            fit.response_size += response;
+        }
+
+        // Groups with several lists fit one packet, even when all their lists are due.
+        // A single list may need several packets.
+        for (final Group group : groups)
+        {
+            final int packets = group.members.size() > 1
+                    ? 1
+                    : this.getPackets(this.lists.get(group.members.get(0)));
+            group.packets_per_second = packets * 1000.0 / group.period_ms;
+        }
+
+        // Spread groups, busiest first, over the base tick
+        this.tick_ms = 0;
+        for (final Group group : groups)
+        {
+            this.tick_ms = gcd(this.tick_ms, group.period_ms);
+        }
+        groups.sort(Comparator.comparingDouble(Group::getPacketsPerSecond).reversed());
+        for (int i = 0; i < groups.size(); ++i)
+        {
+            groups.get(i).phase_ns = this.tick_ms * 1000000L * i / groups.size();
+        }
+        this.groups = groups;
+        return groups;
+    }
+
+    /**
+     * @param list
+     *            Period, request and response size of a list
+     * @return Number of packets for one cycle of the list, 0 if it has no tags to read
+     */
+    private int getPackets(final long[] list)
+    {
+        final int request = (int) list[1] - CIPMultiRequestProtocol.OVERHEAD;
+        final int response = (int) list[2] - MultiRequestPacker.REPLY_OVERHEAD;
+        if (request <= 0)
+        {   // List without tags to read, only sampling subscriptions
+            return 0;
+        }
+        final int request_room = Math.max(1, this.max_request_size - CIPMultiRequestProtocol.OVERHEAD);
+        final int response_room = Math.max(1, this.max_response_size - MultiRequestPacker.REPLY_OVERHEAD);
+        return Math.max(1, Math.max((request + request_room - 1) / request_room,
+                                    (response + response_room - 1) / response_room));
+    }
+
+    private static long gcd(final long a, final long b)
+    {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /** @return Base tick of the schedule in milliseconds */
+    public long getTick()
+    {
+        return this.tick_ms;
+    }
+
+    /** @return Expected network packets per second of the optimized schedule */
+    public double getPacketsPerSecond()
+    {
+        double pps = 0.0;
+        for (final Group group : this.groups)
+        {
+            pps += group.packets_per_second;
+        }
+        return pps;
+    }
+
+    /** @return Expected network packets per second when each list is processed by itself */
+    public double getUnmergedPacketsPerSecond()
+    {
+        double pps = 0.0;
+        for (final long[] list : this.lists)
+        {
+            pps += this.getPackets(list) * 1000.0 / list[0];
+        }
+        return pps;
+    }
+
+    /** @return Report of the schedule */
+    @Override
+    public String toString()
+    {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(String.format("Schedule: %d lists in %d groups, base tick %d ms, %.1f packets/sec (%.1f without merging)",
+                this.lists.size(), this.groups.size(), this.tick_ms,
+                this.getPacketsPerSecond(), this.getUnmergedPacketsPerSecond()));
+        for (final Group group : this.groups)
+        {
+            buf.append(String.format("\n%.3f sec group at phase %.1f ms, %.1f packets/sec:",
+                    group.period_ms / 1000.0, group.phase_ns / 1e6, group.packets_per_second));
+            for (final int i : group.members)
+            {
+                buf.append(String.format(" %.3f sec", this.lists.get(i)[0] / 1000.0));
+            }
+        }
+        return buf.toString();
+    }
+}
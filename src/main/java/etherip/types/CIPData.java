@@ -9,9 +9,6 @@ package etherip.types;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.Map;
 
 import etherip.protocol.Connection;
 
@@ -25,6 +22,10 @@ import etherip.protocol.Connection;
  * Note that all operations that 'set' the value require that the CIPData already holds the respective type. For example, setting a CIPData of type REAL to an integer value will still result in a
  * REAL, not change the type to INT. Setting a CIPData of type INT to a floating point value will truncate the floating point to an integer, since the CIPData remains an INT. Only CIPData with a
  * string-containing STRUCT can be set to a string.
+ * <p>
+ * Access is not synchronized. Several threads may read the data at the same time,
+ * but data must not be modified while other threads read it.
+ * {@link etherip.Tag} therefore modifies a copy of its value, see {@link #CIPData(CIPData)}.
  *
  * @author Kay Kasemir
  */
@@ -51,26 +52,26 @@ final public class CIPData
         final private short code;
         final private int element_size;
 
-        final private static Map<Short, Type> reverse;
-
-        static
-        {
-            reverse = new HashMap<>();
-            for (final Type t : EnumSet.allOf(Type.class))
-            {
-                reverse.put(t.code, t);
-            }
-        }
+        /** All types, since values() would create a new array for each call */
+        final private static Type[] types = values();
 
+        /**
+         * @param code
+         *            CIP type code
+         * @return Matching {@link Type} or <code>null</code>
+         * @throws Exception
+         *             on error
+         */
         public static Type forCode(final short code) throws Exception
         {
-            final Type t = reverse.get(code);
-            if (reverse == null)
+            for (final Type t : types)
             {
-                throw new Exception(
-                        "Unknown CIP type code 0x" + Integer.toHexString(code));
+                if (t.code == code)
+                {
+                    return t;
+                }
             }
-            return t;
+            return null;
         }
 
         private Type(final int code, final int element_size)
@@ -79,6 +80,18 @@ final public class CIPData
             this.element_size = element_size;
         }
 
+        /** @return CIP type code */
+        final public short getCode()
+        {
+            return this.code;
+        }
+
+        /** @return Size of one element in bytes, 0 for structures */
+        final public int getElementSize()
+        {
+            return this.element_size;
+        }
+
         @Override
         final public String toString()
         {
@@ -144,6 +157,70 @@ final public class CIPData
         this.elements = this.determineElementCount();
     }
 
+    /**
+     * Initialize with a copy of other data
+     *
+     * @param other
+     *            {@link CIPData} to copy
+     */
+    public CIPData(final CIPData other)
+    {
+        this.type = other.type;
+        this.elements = other.elements;
+        this.data = ByteBuffer.allocate(other.data.capacity());
+        this.data.order(Connection.BYTE_ORDER);
+        this.data.put(other.data.array());
+    }
+
+    /**
+     * Initialize from received data
+     * <p>
+     * Copies the data straight from the buffer,
+     * without an intermediate <code>byte[]</code>.
+     *
+     * @param type
+     *            Data type
+     * @param buf
+     *            Buffer positioned on the raw CIP data, will be advanced by <code>size</code>
+     * @param size
+     *            Number of bytes
+     * @throws Exception
+     *             when data is invalid
+     */
+    public CIPData(final Type type, final ByteBuffer buf, final int size) throws Exception
+    {
+        this.type = type;
+        this.data = ByteBuffer.allocate(size);
+        this.data.order(Connection.BYTE_ORDER);
+        buf.get(this.data.array(), 0, size);
+        this.elements = this.determineElementCount();
+    }
+
+    /**
+     * Replace data in place with received data
+     * <p>
+     * Allows reusing a {@link CIPData} for the next value of a tag.
+     * Callers must make sure that no other code still uses the previous value.
+     *
+     * @param type
+     *            Data type
+     * @param buf
+     *            Buffer positioned on the raw CIP data, will be advanced by <code>size</code>
+     * @param size
+     *            Number of bytes
+     * @return <code>true</code> if data was updated,
+     *         <code>false</code> if type or size don't match, leaving buffer unchanged
+     */
+    final public boolean update(final Type type, final ByteBuffer buf, final int size)
+    {
+        if (type != this.type  ||  size != this.data.capacity())
+        {
+            return false;
+        }
+        buf.get(this.data.array(), 0, size);
+        return true;
+    }
+
     /** @return Number of elements */
     final private short determineElementCount() throws Exception
     {
@@ -196,29 +273,246 @@ final public class CIPData
      * @throws IndexOutOfBoundsException
      *             if index is invalid
      */
-    final synchronized public Number getNumber(final int index)
+    final public Number getNumber(final int index)
             throws Exception, IndexOutOfBoundsException
     {
         switch (this.type)
         {
         case BOOL:
         case SINT:
-            return new Byte(this.data.get(this.type.element_size * index));
+            return Byte.valueOf(this.data.get(this.type.element_size * index));
         case INT:
-            return new Short(
+            return Short.valueOf(
                     this.data.getShort(this.type.element_size * index));
         case DINT:
         case BITS:
-            return new Integer(
+            return Integer.valueOf(
                     this.data.getInt(this.type.element_size * index));
         case REAL:
-            return new Float(
+            return Float.valueOf(
                     this.data.getFloat(this.type.element_size * index));
         default:
             throw new Exception("Cannot retrieve Number from " + this.type);
         }
     }
 
+    /**
+     * Read CIP data as int
+     * <p>
+     * Unlike {@link #getNumber(int)}, this does not allocate
+     * a {@link Number} nor lock the data.
+     *
+     * @param index
+     *            Element index 0, 1, ...
+     * @return Value of requested element, REAL is truncated
+     * @throws Exception
+     *             on error, if data is not numeric
+     * @throws IndexOutOfBoundsException
+     *             if index is invalid
+     */
+    final public int getInt(final int index)
+            throws Exception, IndexOutOfBoundsException
+    {
+        switch (this.type)
+        {
+        case BOOL:
+        case SINT:
+            return this.data.get(index);
+        case INT:
+            return this.data.getShort(2 * index);
+        case DINT:
+        case BITS:
+            return this.data.getInt(4 * index);
+        case REAL:
+            return (int) this.data.getFloat(4 * index);
+        default:
+            throw new Exception("Cannot retrieve int from " + this.type);
+        }
+    }
+
+    /**
+     * Read CIP data as short
+     *
+     * @param index
+     *            Element index 0, 1, ...
+     * @return Value of requested element, DINT and REAL are narrowed
+     * @throws Exception
+     *             on error, if data is not numeric
+     * @throws IndexOutOfBoundsException
+     *             if index is invalid
+     * @see #getInt(int)
+     */
+    final public short getShort(final int index)
+            throws Exception, IndexOutOfBoundsException
+    {
+        if (this.type == Type.INT)
+        {
+            return this.data.getShort(2 * index);
+        }
+        return (short) this.getInt(index);
+    }
+
+    /**
+     * Read CIP data as float
+     *
+     * @param index
+     *            Element index 0, 1, ...
+     * @return Value of requested element
+     * @throws Exception
+     *             on error, if data is not numeric
+     * @throws IndexOutOfBoundsException
+     *             if index is invalid
+     * @see #getInt(int)
+     */
+    final public float getFloat(final int index)
+            throws Exception, IndexOutOfBoundsException
+    {
+        if (this.type == Type.REAL)
+        {
+            return this.data.getFloat(4 * index);
+        }
+        return this.getInt(index);
+    }
+
+    /**
+     * Read CIP data as double
+     *
+     * @param index
+     *            Element index 0, 1, ...
+     * @return Value of requested element
+     * @throws Exception
+     *             on error, if data is not numeric
+     * @throws IndexOutOfBoundsException
+     *             if index is invalid
+     * @see #getInt(int)
+     */
+    final public double getDouble(final int index)
+            throws Exception, IndexOutOfBoundsException
+    {
+        if (this.type == Type.REAL)
+        {
+            return this.data.getFloat(4 * index);
+        }
+        return this.getInt(index);
+    }
+
+    /**
+     * Compare raw data
+     * <p>
+     * Compares type, element count and the raw bytes
+     * without decoding numbers.
+     *
+     * @param other
+     *            Other {@link CIPData}, may be <code>null</code>
+     * @return <code>true</code> if other data has the same type and bytes
+     */
+    final public boolean isSameData(final CIPData other)
+    {
+        return other != null  &&
+               this.type == other.type  &&
+               this.elements == other.elements  &&
+               Arrays.equals(this.data.array(), other.data.array());
+    }
+
+    /** @param expected Type that's required
+     *  @throws Exception if data is of a different type
+     */
+    final private void checkType(final Type... expected) throws Exception
+    {
+        for (final Type type : expected)
+        {
+            if (this.type == type)
+            {
+                return;
+            }
+        }
+        throw new Exception("Cannot access " + this.type + " as " + expected[0]);
+    }
+
+    /** @return View of the data that does not affect the position of {@link #data} */
+    final private ByteBuffer view()
+    {
+        final ByteBuffer view = this.data.duplicate().order(this.data.order());
+        view.clear();
+        return view;
+    }
+
+    /**
+     * Copy all elements of REAL data into array
+     *
+     * @param dst
+     *            Array that receives {@link #getElementCount()} elements
+     * @param offset
+     *            Offset of first element in array
+     * @throws Exception
+     *             if data is not of type REAL
+     * @throws IndexOutOfBoundsException
+     *             if array is too small
+     */
+    final public void copyTo(final float[] dst, final int offset)
+            throws Exception, IndexOutOfBoundsException
+    {
+        this.checkType(Type.REAL);
+        this.view().asFloatBuffer().get(dst, offset, this.elements);
+    }
+
+    /**
+     * Copy all elements of DINT or BITS data into array
+     *
+     * @param dst
+     *            Array that receives {@link #getElementCount()} elements
+     * @param offset
+     *            Offset of first element in array
+     * @throws Exception
+     *             if data is not of type DINT or BITS
+     * @throws IndexOutOfBoundsException
+     *             if array is too small
+     */
+    final public void copyTo(final int[] dst, final int offset)
+            throws Exception, IndexOutOfBoundsException
+    {
+        this.checkType(Type.DINT, Type.BITS);
+        this.view().asIntBuffer().get(dst, offset, this.elements);
+    }
+
+    /**
+     * Copy all elements of INT data into array
+     *
+     * @param dst
+     *            Array that receives {@link #getElementCount()} elements
+     * @param offset
+     *            Offset of first element in array
+     * @throws Exception
+     *             if data is not of type INT
+     * @throws IndexOutOfBoundsException
+     *             if array is too small
+     */
+    final public void copyTo(final short[] dst, final int offset)
+            throws Exception, IndexOutOfBoundsException
+    {
+        this.checkType(Type.INT);
+        this.view().asShortBuffer().get(dst, offset, this.elements);
+    }
+
+    /**
+     * Copy all elements of SINT or BOOL data into array
+     *
+     * @param dst
+     *            Array that receives {@link #getElementCount()} elements
+     * @param offset
+     *            Offset of first element in array
+     * @throws Exception
+     *             if data is not of type SINT or BOOL
+     * @throws IndexOutOfBoundsException
+     *             if array is too small
+     */
+    final public void copyTo(final byte[] dst, final int offset)
+            throws Exception, IndexOutOfBoundsException
+    {
+        this.checkType(Type.SINT, Type.BOOL);
+        this.view().get(dst, offset, this.elements);
+    }
+
     /**
      * Read CIP data as string
      *
@@ -226,7 +520,7 @@ final public class CIPData
      * @throws Exception
      *             if data does not contain a string
      */
-    final synchronized public String getString() throws Exception
+    final public String getString() throws Exception
     {
         if (this.type != Type.STRUCT)
         {
@@ -261,7 +555,7 @@ final public class CIPData
      * @throws IndexOutOfBoundsException
      *             if index is invalid
      */
-    final synchronized public void set(final int index, final Number value)
+    final public void set(final int index, final Number value)
             throws Exception, IndexOutOfBoundsException
     {
         switch (this.type)
@@ -288,6 +582,82 @@ final public class CIPData
         }
     }
 
+    /**
+     * Set all elements of REAL data from array
+     *
+     * @param src
+     *            Array that provides {@link #getElementCount()} elements
+     * @param offset
+     *            Offset of first element in array
+     * @throws Exception
+     *             if data is not of type REAL
+     * @throws IndexOutOfBoundsException
+     *             if array is too small
+     */
+    final public void copyFrom(final float[] src, final int offset)
+            throws Exception, IndexOutOfBoundsException
+    {
+        this.checkType(Type.REAL);
+        this.view().asFloatBuffer().put(src, offset, this.elements);
+    }
+
+    /**
+     * Set all elements of DINT or BITS data from array
+     *
+     * @param src
+     *            Array that provides {@link #getElementCount()} elements
+     * @param offset
+     *            Offset of first element in array
+     * @throws Exception
+     *             if data is not of type DINT or BITS
+     * @throws IndexOutOfBoundsException
+     *             if array is too small
+     */
+    final public void copyFrom(final int[] src, final int offset)
+            throws Exception, IndexOutOfBoundsException
+    {
+        this.checkType(Type.DINT, Type.BITS);
+        this.view().asIntBuffer().put(src, offset, this.elements);
+    }
+
+    /**
+     * Set all elements of INT data from array
+     *
+     * @param src
+     *            Array that provides {@link #getElementCount()} elements
+     * @param offset
+     *            Offset of first element in array
+     * @throws Exception
+     *             if data is not of type INT
+     * @throws IndexOutOfBoundsException
+     *             if array is too small
+     */
+    final public void copyFrom(final short[] src, final int offset)
+            throws Exception, IndexOutOfBoundsException
+    {
+        this.checkType(Type.INT);
+        this.view().asShortBuffer().put(src, offset, this.elements);
+    }
+
+    /**
+     * Set all elements of SINT or BOOL data from array
+     *
+     * @param src
+     *            Array that provides {@link #getElementCount()} elements
+     * @param offset
+     *            Offset of first element in array
+     * @throws Exception
+     *             if data is not of type SINT or BOOL
+     * @throws IndexOutOfBoundsException
+     *             if array is too small
+     */
+    final public void copyFrom(final byte[] src, final int offset)
+            throws Exception, IndexOutOfBoundsException
+    {
+        this.checkType(Type.SINT, Type.BOOL);
+        this.view().put(src, offset, this.elements);
+    }
+
     /**
      * Write CIP data as string
      *
@@ -296,7 +666,7 @@ final public class CIPData
      * @throws Exception
      *             if data does not contain a string
      */
-    final synchronized public void setString(final String text) throws Exception
+    final public void setString(final String text) throws Exception
     {
         if (this.type != Type.STRUCT)
         {
@@ -336,15 +706,15 @@ final public class CIPData
      * @throws Exception
      *             on error
      */
-    final synchronized public void encode(final ByteBuffer buf) throws Exception
+    final public void encode(final ByteBuffer buf) throws Exception
     {
         buf.putShort(this.type.code);
         // STRUCT already contains structure detail, elements etc.
         // For other types, add the element count
         if (this.type == Type.STRUCT)
         {
-            this.data.clear();
-            final short struct_detail = this.data.getShort();
+            final ByteBuffer data = this.view();
+            final short struct_detail = data.getShort();
             if (struct_detail != Type.STRUCT_STRING.code)
             {
                 throw new Exception("Can only encode STRUCT_STRING, got 0x"
@@ -357,7 +727,7 @@ final public class CIPData
             buf.putShort(struct_detail);
             buf.putShort(this.elements);
             // Copy length, chars from data into buf
-            buf.put(this.data);
+            buf.put(data);
         }
         else
         {
@@ -368,7 +738,7 @@ final public class CIPData
 
     /** @return String representation for debugging */
     @Override
-    final synchronized public String toString()
+    final public String toString()
     {
         final StringBuilder result = new StringBuilder();
         result.append("CIP_").append(this.type).append(": ");
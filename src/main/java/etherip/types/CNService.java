@@ -28,6 +28,7 @@ public enum CNService
     CIP_WriteDataFragmented(0x53), // Logix5000 Data Access
     CM_Unconnected_Send(0x52),
     CM_ForwardOpen(0x54),
+    CM_LargeForwardOpen(0x5B),
     Get_Instance_Attribute_List(0x55), // Logix5000 Data Access
     Get_Connection_Data(0x56), // CIP VOL1_3.3: 3-5.5
     Get_Attribute_All_Reply(0x01 | 0x80),
@@ -40,11 +41,27 @@ public enum CNService
     CM_ForwardClose_Reply(0x4E | 0x80),
     CIP_WriteDataFragmente_Reply(0x53 | 0x80), // Logix5000 Data Access
     CM_ForwardOpen_Reply(0x54 | 0x80),
+    CM_LargeForwardOpen_Reply(0x5B | 0x80),
     Get_Instance_Attribute_List_Reply(0x55 | 0x80), // Logix5000 Data Access
     CM_Unconnected_Send_Reply(0x52 | 0x80);
 
     final private byte code;
 
+    /** Service for each code, first match in order of declaration */
+    final private static CNService[] by_code = new CNService[256];
+
+    static
+    {
+        for (final CNService service : values())
+        {
+            final int index = service.code & 0xFF;
+            if (by_code[index] == null)
+            {
+                by_code[index] = service;
+            }
+        }
+    }
+
     private CNService(final int code)
     {
         this.code = (byte) code;
@@ -57,14 +74,7 @@ public enum CNService
      */
     public static CNService forCode(final int code)
     {
-        for (final CNService service : values())
-        {
-            if ((byte) code == service.code)
-            {
-                return service;
-            }
-        }
-        return null;
+        return by_code[code & 0xFF];
     }
 
     /** @return Code (ID) of service as used in protocol */
@@ -36,6 +36,7 @@ public class CNSymbolPath extends CNPath
     public static class PathElement
     {
         private static final int MAX_BYTE_VALUE = 255;
+        private static final Pattern PATTERN_NUMBER = Pattern.compile("^[0-9]+$");
         private final String path;
         private final Integer index;
         private boolean firstElement;
@@ -43,7 +44,7 @@ public class CNSymbolPath extends CNPath
         public PathElement(final boolean firstElement, final String path, final Integer index)
         {
             this.firstElement = firstElement;
-            if (path.matches("^[0-9]+$"))
+            if (PATTERN_NUMBER.matcher(path).matches())
             {
                 this.path = null;
                 this.index = Integer.parseInt(path);
@@ -160,10 +161,13 @@ public class CNSymbolPath extends CNPath
         }
     };
 
-    private final Pattern PATTERN_BRACKETS = Pattern.compile("\\[(\\d+)\\]");
+    private static final Pattern PATTERN_BRACKETS = Pattern.compile("\\[(\\d+)\\]");
 
     private final List<PathElement> elements = new ArrayList<>();
 
+    /** Encoded size, computed once since the elements do not change */
+    private final int size;
+
     /** 
      * Initialize
      *
@@ -175,7 +179,7 @@ public class CNSymbolPath extends CNPath
         boolean firstElement = true;
         for (final String s : symbol.split("\\."))
         {
-            final Matcher m = this.PATTERN_BRACKETS.matcher(s);
+            final Matcher m = PATTERN_BRACKETS.matcher(s);
             Integer index = null;
             String path = s;
             while (m.find())
@@ -188,6 +192,10 @@ public class CNSymbolPath extends CNPath
             this.elements.add(new PathElement(firstElement, path, index));
             firstElement = false;
         }
+        int size = 0;
+        for (final PathElement s : this.elements)
+            size += s.getEncodedSize();
+        this.size = size;
     }
     
     public List<PathElement> getElements()
@@ -199,17 +207,14 @@ public class CNSymbolPath extends CNPath
     @Override
     public int getRequestSize()
     { // End of string is padded if length is odd
-        int count = 0;
-        for (final PathElement s : this.elements)
-            count += s.getEncodedSize();
-        return count;
+        return this.size;
     }
 
     /** {@inheritDoc} */
     @Override
     public void encode(final ByteBuffer buf, final StringBuilder log)
     {
-        buf.put((byte) (this.getRequestSize() / 2));
+        buf.put((byte) (this.size / 2));
         for (final PathElement pi : this.elements)
             pi.encode(buf);
     }
@@ -224,7 +229,7 @@ public class CNSymbolPath extends CNPath
             if (buf.length() > 18)
                 buf.append(", ");
             buf.append('\'').append(pi).append('\'');
-            if (pi.needPad())
+            if (pi.getPath() != null  &&  pi.needPad())
                 buf.append(", 0x00");
         }
         return buf.toString();
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.types;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import etherip.protocol.Connection;
+
+/**
+ * Compiled path to a tag
+ * <p>
+ * Parses the tag name once into a {@link CNSymbolPath}
+ * and keeps the encoded bytes of that path,
+ * which are then simply copied into each request.
+ * <p>
+ * Handles are obtained via {@link #of(String)},
+ * which keeps recently used handles in a bounded cache,
+ * so tags that are read over and over are only parsed once.
+ * Handles are immutable and can be shared between threads.
+ * What is learned about a tag on a specific device,
+ * like the size of its read reply, is kept by the
+ * {@link Connection}, see {@link etherip.protocol.ReplySizes}.
+ *
+ * @author Kay Kasemir
+ */
+final public class TagHandle extends CNPath
+{
+    /** Maximum number of handles kept in the cache */
+    final public static int CACHE_SIZE = 10000;
+
+    /** Recently used handles by tag name, least recently used first
+     *  <p>
+     *  SYNC on access
+     */
+    final private static Map<String, TagHandle> cache = new LinkedHashMap<>(256, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, TagHandle> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    final private String name;
+
+    final private CNSymbolPath path;
+
+    /** Path size in words, followed by the path segments */
+    final private byte[] encoded;
+
+    /**
+     * Get handle for a tag
+     *
+     * @param name
+     *            Tag name like "my_tag", "my_array[3]" or "struct.element"
+     * @return {@link TagHandle}, either cached or newly compiled
+     */
+    public static TagHandle of(final String name)
+    {
+        synchronized (cache)
+        {
+            TagHandle handle = cache.get(name);
+            if (handle == null)
+            {
+                handle = new TagHandle(name);
+                cache.put(name, handle);
+            }
+            return handle;
+        }
+    }
+
+    /** @return Number of handles currently cached */
+    public static int getCachedCount()
+    {
+        synchronized (cache)
+        {
+            return cache.size();
+        }
+    }
+
+    /** Remove all handles from the cache */
+    public static void clearCache()
+    {
+        synchronized (cache)
+        {
+            cache.clear();
+        }
+    }
+
+    /** @param name Tag name */
+    private TagHandle(final String name)
+    {
+        this.name = name;
+        this.path = new CNSymbolPath(name);
+        final ByteBuffer buf = ByteBuffer.allocate(1 + this.path.getRequestSize());
+        buf.order(Connection.BYTE_ORDER);
+        this.path.encode(buf, null);
+        this.encoded = buf.array();
+    }
+
+    /** @return Tag name */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /** @return {@link CNSymbolPath} of the tag */
+    public CNSymbolPath getPath()
+    {
+        return this.path;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getRequestSize()
+    {
+        return this.encoded.length - 1;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void encode(final ByteBuffer buf, final StringBuilder log)
+    {
+        buf.put(this.encoded);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getResponseSize(final ByteBuffer buf) throws Exception
+    {
+        return 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void decode(final ByteBuffer buf, final int available,
+            final StringBuilder log) throws Exception
+    {
+        // Path is only used in requests
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.path.toString();
+    }
+}
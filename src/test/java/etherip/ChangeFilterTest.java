@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import etherip.ChangeFilter.Deadband;
+import etherip.types.CIPData;
+import etherip.types.CIPData.Type;
+
+/** JUnit test of the {@link ChangeFilter}
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class ChangeFilterTest
+{
+    final private AtomicInteger updates = new AtomicInteger(), errors = new AtomicInteger();
+
+    final private TagListener counter = new TagListener()
+    {
+        @Override
+        public void tagUpdate(final Tag tag)
+        {
+            updates.incrementAndGet();
+        }
+
+        @Override
+        public void tagError(final Tag tag)
+        {
+            errors.incrementAndGet();
+        }
+    };
+
+    private static CIPData real(final float... values) throws Exception
+    {
+        final CIPData data = new CIPData(Type.REAL, values.length);
+        data.copyFrom(values, 0);
+        return data;
+    }
+
+    private static CIPData dint(final int value) throws Exception
+    {
+        final CIPData data = new CIPData(Type.DINT, 1);
+        data.set(0, value);
+        return data;
+    }
+
+    @Test
+    public void testRawChange() throws Exception
+    {
+        final Tag tag = new Tag("x");
+        final ChangeFilter filter = new ChangeFilter(counter);
+        tag.addListener(filter);
+
+        // First value is forwarded, same value again is not
+        tag.setValue(dint(1));
+        tag.setValue(dint(1));
+        tag.setValue(dint(1));
+        assertEquals(1, updates.get());
+        tag.setValue(dint(2));
+        assertEquals(2, updates.get());
+
+        // Same bits of NaN are unchanged
+        tag.setValue(real(Float.NaN, 1.0f));
+        tag.setValue(real(Float.NaN, 1.0f));
+        assertEquals(3, updates.get());
+        tag.setValue(real(Float.NaN, 1.5f));
+        assertEquals(4, updates.get());
+
+        // Errors are forwarded, and the next value
+        tag.setError(new Exception("Test"));
+        assertEquals(1, errors.get());
+        tag.setValue(real(Float.NaN, 1.5f));
+        assertEquals(5, updates.get());
+        assertEquals(3, filter.getSuppressedCount());
+        assertEquals(6, filter.getForwardedCount());
+    }
+
+    @Test
+    public void testDeadband() throws Exception
+    {
+        final Tag tag = new Tag("x");
+        tag.addListener(new ChangeFilter(counter, Deadband.ABSOLUTE, 0.5, 0));
+
+        tag.setValue(real(1.0f, 10.0f));
+        assertEquals(1, updates.get());
+        // Changes within deadband, compared with last forwarded value, not the previous one
+        tag.setValue(real(1.3f, 10.0f));
+        tag.setValue(real(1.5f, 9.6f));
+        assertEquals(1, updates.get());
+        tag.setValue(real(1.6f, 9.6f));
+        assertEquals(2, updates.get());
+
+        final Tag percent = new Tag("y");
+        updates.set(0);
+        percent.addListener(new ChangeFilter(counter, Deadband.PERCENT, 10.0, 0));
+        percent.setValue(dint(1000));
+        percent.setValue(dint(1090));
+        percent.setValue(dint(910));
+        assertEquals(1, updates.get());
+        percent.setValue(dint(1101));
+        assertEquals(2, updates.get());
+        // 10% of 1101
+        percent.setValue(dint(1000));
+        assertEquals(2, updates.get());
+    }
+
+    @Test
+    public void testHeartbeat() throws Exception
+    {
+        final Tag tag = new Tag("x");
+        tag.addListener(new ChangeFilter(counter, Deadband.NONE, 0, 100));
+        tag.setValue(dint(1));
+        tag.setValue(dint(1));
+        assertEquals(1, updates.get());
+        Thread.sleep(150);
+        tag.setValue(dint(1));
+        assertEquals(2, updates.get());
+        tag.setValue(dint(1));
+        assertEquals(2, updates.get());
+    }
+}
@@ -13,6 +13,7 @@ import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -273,4 +274,34 @@ public class EtherIPDemo
             }
         }
     }
+
+    @Test
+    public void testAsyncRead() throws Exception
+    {
+        try
+        (
+            EtherNetIP plc = new EtherNetIP(TestSettings.get("plc"),
+                                            TestSettings.getInt("slot"));
+        )
+        {
+            plc.connectTcp();
+
+            System.out.println("\n*\n* Async read:\n*\n");
+            final String[] tags = new String[] { TestSettings.get("float_tag"),
+                    TestSettings.get("bool_tag"),
+                    TestSettings.get("int_tag") };
+            final CompletableFuture<CIPData> single = plc.readTagAsync(tags[0]);
+            final CompletableFuture<CIPData[]> multi = plc.readTagsAsync(tags);
+            final CompletableFuture<Identity> identity = plc.getIdentityAsync();
+
+            System.out.println(tags[0] + " = " + single.get());
+            final CIPData[] results = multi.get();
+            assertEquals(tags.length, results.length);
+            for (int i = 0; i < results.length; ++i)
+            {
+                System.out.println(tags[i] + " = " + results[i]);
+            }
+            System.out.println(identity.get());
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import etherip.types.CIPData;
+import etherip.types.CIPData.Type;
+
+/** JUnit test of the {@link TagDispatcher}
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+@Timeout(value = 10, unit = SECONDS)
+public class TagDispatcherTest
+{
+    @Test
+    public void testConflation() throws Exception
+    {
+        final AtomicInteger updates = new AtomicInteger(), last = new AtomicInteger(-1);
+        final AtomicBoolean busy = new AtomicBoolean(), concurrent = new AtomicBoolean();
+        final TagListener slow = new TagListener()
+        {
+            @Override
+            public void tagUpdate(final Tag tag)
+            {
+                if (!busy.compareAndSet(false, true))
+                    concurrent.set(true);
+                try
+                {
+                    Thread.sleep(50);
+                    last.set(tag.getValue().getInt(0));
+                }
+                catch (Exception ex)
+                {
+                    ex.printStackTrace();
+                }
+                updates.incrementAndGet();
+                busy.set(false);
+            }
+
+            @Override
+            public void tagError(final Tag tag)
+            {
+            }
+        };
+
+        try (TagDispatcher dispatcher = new TagDispatcher(4))
+        {
+            final Tag tag = new Tag("x");
+            tag.addListener(dispatcher.wrap(slow));
+
+            // Updating the tag is not delayed by the slow listener
+            final long start = System.nanoTime();
+            for (int i=0; i<100; ++i)
+            {
+                final CIPData value = new CIPData(Type.DINT, 1);
+                value.set(0, i);
+                tag.setValue(value);
+            }
+            final double ms = (System.nanoTime() - start) / 1e6;
+            System.out.println("100 updates took " + ms + " ms");
+            assertTrue(ms < 50 * 10);
+
+            // Listener receives the latest value, skipping most of the intermediate ones
+            while (last.get() != 99)
+                Thread.sleep(10);
+            Thread.sleep(100);
+            System.out.println("Listener received " + updates.get() + " updates, " + dispatcher.getConflatedCount() + " conflated");
+            assertTrue(updates.get() < 10);
+            assertEquals(100, updates.get() + dispatcher.getConflatedCount());
+            assertEquals(updates.get(), dispatcher.getDispatchedCount());
+            assertTrue(!concurrent.get(), "Listener called concurrently for the same tag");
+        }
+    }
+
+    @Test
+    public void testListenerError() throws Exception
+    {
+        final AtomicInteger updates = new AtomicInteger();
+        final TagListener failing = new TagListener()
+        {
+            @Override
+            public void tagUpdate(final Tag tag)
+            {
+                if (updates.incrementAndGet() == 1)
+                    throw new AssertionError("Listener fails with an Error");
+            }
+
+            @Override
+            public void tagError(final Tag tag)
+            {
+            }
+        };
+
+        try (TagDispatcher dispatcher = new TagDispatcher(1))
+        {
+            final Tag tag = new Tag("x");
+            tag.addListener(dispatcher.wrap(failing));
+            tag.setValue(new CIPData(Type.DINT, 1));
+            while (dispatcher.getDispatchedCount() < 1)
+                Thread.sleep(10);
+
+            // Tag is still dispatched after the Error
+            tag.setValue(new CIPData(Type.DINT, 1));
+            while (dispatcher.getDispatchedCount() < 2)
+                Thread.sleep(10);
+            assertEquals(2, updates.get());
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import etherip.Tag.State;
+import etherip.sim.PLCSimulator;
+import etherip.types.CIPData;
+import etherip.types.CIPData.Type;
+
+/** JUnit test of {@link TagList} against the {@link PLCSimulator}
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+@Timeout(value = 10, unit = SECONDS)
+public class TagListTest
+{
+    private PLCSimulator plc;
+    private EtherNetIP etherip;
+
+    @BeforeEach
+    public void connect() throws Exception
+    {
+        this.plc = new PLCSimulator();
+        this.etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0);
+        this.etherip.connectTcp();
+    }
+
+    @AfterEach
+    public void close() throws Exception
+    {
+        this.etherip.close();
+        this.plc.close();
+    }
+
+    @Test
+    public void testProcess() throws Exception
+    {
+        final CIPData value = new CIPData(Type.INT, 1);
+        value.set(0, 1);
+        this.plc.setTag("a", value);
+        value.set(0, 2);
+        this.plc.setTag("b", value);
+
+        final TagList tags = new TagList();
+        final Tag a = tags.add("a");
+        final Tag b = tags.add("b");
+        // Adding tag again returns the existing one, which is read only once
+        assertSame(a, tags.add("a"));
+        assertEquals(2, tags.size());
+        tags.process(this.etherip.getConnection());
+        assertEquals(1, a.getValue().getNumber(0).intValue());
+        assertEquals(2, b.getValue().getNumber(0).intValue());
+
+        // Write 'b', which returns to reading
+        b.setWriteValue(0, 20);
+        assertEquals(State.TO_BE_WRITTEN, b.getState());
+        tags.process(this.etherip.getConnection());
+        assertEquals(State.READING, b.getState());
+        assertEquals(20, this.plc.getTag("b").getNumber(0).intValue());
+
+        // Next process() reads the value changed on the PLC
+        value.set(0, 3);
+        this.plc.setTag("a", value);
+        tags.process(this.etherip.getConnection());
+        assertEquals(3, a.getValue().getNumber(0).intValue());
+        assertEquals(20, b.getValue().getNumber(0).intValue());
+    }
+
+    @Test
+    public void testQuarantine() throws Exception
+    {
+        final CIPData value = new CIPData(Type.DINT, 1);
+        value.set(0, 1);
+        this.plc.setTag("a", value);
+        this.plc.setTag("b", value);
+
+        final TagList tags = new TagList();
+        tags.setBackoff(200, 1000);
+        final Tag a = tags.add("a");
+        final Tag typo = tags.add("typo");
+        final Tag b = tags.add("b");
+        final AtomicInteger errors = new AtomicInteger();
+        typo.addListener(new TagListener()
+        {
+            @Override
+            public void tagUpdate(final Tag tag)
+            {
+            }
+
+            @Override
+            public void tagError(final Tag tag)
+            {
+                errors.incrementAndGet();
+            }
+        });
+
+        // Bad tag doesn't prevent reading the others
+        tags.process(this.etherip.getConnection());
+        assertEquals(1, a.getValue().getNumber(0).intValue());
+        assertEquals(1, b.getValue().getNumber(0).intValue());
+        assertNull(typo.getValue());
+        assertNotNull(typo.getError());
+        assertEquals(1, errors.get());
+        assertEquals(1, tags.getQuarantineCount());
+
+        // Quarantined tag is not read until its retry is due
+        int requests = this.plc.getRequestCount();
+        for (int i=0; i<5; ++i)
+            tags.process(this.etherip.getConnection());
+        assertEquals(5, this.plc.getRequestCount() - requests);
+        assertEquals(1, errors.get());
+
+        // Retry fails, backing off
+        Thread.sleep(250);
+        requests = this.plc.getRequestCount();
+        tags.process(this.etherip.getConnection());
+        assertEquals(2, this.plc.getRequestCount() - requests);
+        assertEquals(2, errors.get());
+
+        // Once tag exists, it's read again
+        value.set(0, 3);
+        this.plc.setTag("typo", value);
+        Thread.sleep(600);
+        tags.process(this.etherip.getConnection());
+        assertEquals(0, tags.getQuarantineCount());
+        assertEquals(3, typo.getValue().getNumber(0).intValue());
+        assertNull(typo.getError());
+
+        // .. and back in the same multi-request as the other tags
+        requests = this.plc.getRequestCount();
+        tags.process(this.etherip.getConnection());
+        assertEquals(1, this.plc.getRequestCount() - requests);
+    }
+
+    @Test
+    public void testDoubleBuffering() throws Exception
+    {
+        final CIPData value = new CIPData(Type.REAL, 10);
+        this.plc.setTag("array", value);
+        this.plc.setTag("x", new CIPData(Type.DINT, 1));
+
+        final TagList tags = new TagList();
+        tags.setDoubleBuffering(true);
+        final Tag array = tags.add("array");
+        final Tag x = tags.add("x");
+        tags.process(this.etherip.getConnection());
+        final CIPData first = array.getValue();
+        final CIPData x_first = x.getValue();
+        tags.process(this.etherip.getConnection());
+        final CIPData second = array.getValue();
+        assertNotSame(first, second);
+
+        // Third read re-uses the data of the first one
+        value.set(0, 3.14);
+        this.plc.setTag("array", value);
+        tags.process(this.etherip.getConnection());
+        assertSame(first, array.getValue());
+        assertSame(x_first, x.getValue());
+        assertEquals(3.14f, array.getValue().getFloat(0));
+        // .. while the previous value is still unchanged
+        assertEquals(0.0f, second.getFloat(0));
+
+        // Write uses the current value, reading continues with double buffering
+        x.setWriteValue(0, 42);
+        tags.process(this.etherip.getConnection());
+        assertEquals(42, this.plc.getTag("x").getInt(0));
+        tags.process(this.etherip.getConnection());
+        tags.process(this.etherip.getConnection());
+        assertEquals(42, x.getValue().getInt(0));
+    }
+
+    @Test
+    public void testPacketLimits() throws Exception
+    {
+        final CIPData value = new CIPData(Type.DINT, 1);
+        final TagList tags = new TagList();
+        for (int i=0; i<100; ++i)
+        {
+            value.set(0, i);
+            this.plc.setTag("tag" + i, value);
+            tags.add("tag" + i);
+        }
+        this.plc.setMaxReplySize(200);
+
+        // Reads are split to fit the limit of the PLC
+        for (int i=0; i<10; ++i)
+            tags.process(this.etherip.getConnection());
+        for (int i=0; i<100; ++i)
+            assertEquals(i, tags.get("tag" + i).getValue().getNumber(0).intValue());
+        final int max = this.etherip.getConnection().getMaxMessageSize();
+        System.out.println(this.etherip.getConnection().getPacketLimits());
+        assertTrue(this.etherip.getConnection().getPacketLimits().getResponseLimit(max) < max);
+    }
+
+    @Test
+    public void testCompiledReads() throws Exception
+    {
+        final CIPData value = new CIPData(Type.DINT, 1);
+        value.set(0, 0);
+        this.plc.setTag("a", value);
+        this.plc.setTag("b", value);
+
+        final TagList tags = new TagList();
+        final Tag a = tags.add("a");
+        // Same compiled request is sent again, unconnected and connected
+        for (int i=0; i<10; ++i)
+        {
+            if (i == 5)
+                this.etherip.openConnection();
+            value.set(0, i);
+            this.plc.setTag("a", value);
+            tags.process(this.etherip.getConnection());
+            assertEquals(i, a.getValue().getNumber(0).intValue());
+        }
+
+        // Adding a tag, closing the connection require a new request
+        final Tag b = tags.add("b");
+        this.etherip.closeConnection();
+        value.set(0, 47);
+        this.plc.setTag("b", value);
+        tags.process(this.etherip.getConnection());
+        assertEquals(9, a.getValue().getNumber(0).intValue());
+        assertEquals(47, b.getValue().getNumber(0).intValue());
+    }
+}
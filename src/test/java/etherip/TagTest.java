@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import etherip.Tag.State;
+import etherip.types.CIPData;
+import etherip.types.CIPData.Type;
+
+/** JUnit test of {@link Tag} state transitions
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class TagTest
+{
+    @Test
+    public void testStates() throws Exception
+    {
+        final Tag tag = new Tag("x");
+        assertThrows(IllegalStateException.class, () -> tag.setWriteValue(0, 1));
+
+        final CIPData value = new CIPData(Type.DINT, 1);
+        assertTrue(tag.setValue(value));
+        assertSame(value, tag.getValue());
+
+        // Write updates a copy, readers keep seeing the original
+        tag.setWriteValue(0, 42);
+        assertEquals(State.TO_BE_WRITTEN, tag.getState());
+        assertNotSame(value, tag.getValue());
+        assertEquals(0, value.getInt(0));
+        assertEquals(42, tag.getValue().getInt(0));
+
+        // Value read while tag is to be written is ignored
+        assertFalse(tag.setValue(new CIPData(Type.DINT, 1)));
+        assertEquals(42, tag.getValue().getInt(0));
+
+        // Write, then another value is requested while writing
+        final CIPData written = tag.startWrite();
+        assertEquals(42, written.getInt(0));
+        assertEquals(State.WRITING, tag.getState());
+        assertNull(tag.startWrite());
+        tag.setWriteValue(0, 43);
+        assertFalse(tag.finishWrite());
+        assertEquals(State.TO_BE_WRITTEN, tag.getState());
+
+        // Write that one, back to reading
+        assertEquals(43, tag.startWrite().getInt(0));
+        assertTrue(tag.finishWrite());
+        assertEquals(State.READING, tag.getState());
+        assertEquals(42, written.getInt(0));
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception
+    {
+        final Tag tag = new Tag("x");
+        final CIPData initial = new CIPData(Type.DINT, 2);
+        tag.setValue(initial);
+
+        // Readers see consistent values while tag is updated
+        final AtomicBoolean run = new AtomicBoolean(true);
+        final AtomicInteger errors = new AtomicInteger();
+        final Thread[] readers = new Thread[4];
+        for (int r=0; r<readers.length; ++r)
+        {
+            readers[r] = new Thread(() ->
+            {
+                try
+                {
+                    while (run.get())
+                    {
+                        final CIPData value = tag.getValue();
+                        if (value.getInt(0) != value.getInt(1))
+                            errors.incrementAndGet();
+                    }
+                }
+                catch (Exception ex)
+                {
+                    errors.incrementAndGet();
+                }
+            });
+            readers[r].start();
+        }
+        for (int i=0; i<100000; ++i)
+        {
+            final CIPData value = new CIPData(Type.DINT, 2);
+            value.copyFrom(new int[] { i, i }, 0);
+            tag.setValue(value);
+        }
+        run.set(false);
+        for (Thread reader : readers)
+            reader.join();
+        assertEquals(0, errors.get());
+        assertEquals(99999, tag.getValue().getInt(1));
+    }
+}
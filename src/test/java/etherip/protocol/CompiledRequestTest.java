@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static etherip.protocol.Encapsulation.CONTEXT_OFFSET;
+import static etherip.types.CNPath.MessageRouter;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import etherip.types.CNService;
+
+/** JUnit test of {@link CompiledRequest}
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class CompiledRequestTest
+{
+    /** Connection that's only used to create requests */
+    private static class OfflineConnection extends Connection
+    {
+        OfflineConnection() throws Exception
+        {
+            super("127.0.0.1", 0);
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return false;
+        }
+
+        @Override
+        public void write(final ProtocolEncoder encoder) throws Exception
+        {
+            throw new Exception("Offline");
+        }
+
+        @Override
+        protected void read(final ProtocolDecoder decoder) throws Exception
+        {
+            throw new Exception("Offline");
+        }
+
+        @Override
+        public void close()
+        {
+            // Nothing to close
+        }
+    }
+
+    /** @return Request to read a few tags */
+    private static Protocol createReads()
+    {
+        return new MessageRouterProtocol(CNService.CIP_MultiRequest, MessageRouter(),
+                new CIPMultiRequestProtocol(new MRChipReadProtocol("a"),
+                                            new MRChipReadProtocol("b[2]")));
+    }
+
+    /** @return Bytes encoded by request */
+    private static byte[] encode(final Protocol request) throws Exception
+    {
+        final ByteBuffer buf = ByteBuffer.allocate(200);
+        buf.order(Connection.BYTE_ORDER);
+        request.encode(buf, null);
+        buf.flip();
+        final byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    /** @param expected Expected bytes
+     *  @param actual Actual bytes
+     *  @param patched Start, end, start, end, .. of bytes that are expected to differ
+     */
+    private static void assertPatched(final byte[] expected, final byte[] actual, final int... patched)
+    {
+        assertEquals(expected.length, actual.length);
+        boolean differ = false;
+        for (int i=0; i<expected.length; ++i)
+        {
+            boolean is_patched = false;
+            for (int p=0; p<patched.length; p+=2)
+                is_patched |= i >= patched[p]  &&  i < patched[p+1];
+            if (is_patched)
+                differ |= expected[i] != actual[i];
+            else
+                assertEquals(expected[i], actual[i], "Byte " + i);
+        }
+        assertTrue(differ, "Patched bytes changed");
+    }
+
+    @Test
+    public void testUnconnected() throws Exception
+    {
+        try (Connection connection = new OfflineConnection())
+        {
+            connection.setSession(0x1234);
+            final CompiledRequest request = connection.compileRequest(createReads());
+            assertTrue(request.isValidFor(connection));
+
+            final byte[] first = encode(request);
+            assertEquals(request.getRequestSize(), first.length);
+            // Same as request that is created each time, except for the context
+            assertPatched(encode(connection.createRequest(createReads())), first, CONTEXT_OFFSET, CONTEXT_OFFSET+8);
+
+            final byte[] second = encode(request);
+            assertPatched(first, second, CONTEXT_OFFSET, CONTEXT_OFFSET+8);
+
+            connection.setSession(0x5678);
+            assertFalse(request.isValidFor(connection));
+        }
+    }
+
+    @Test
+    public void testConnected() throws Exception
+    {
+        try (Connection connection = new OfflineConnection())
+        {
+            connection.setSession(0x1234);
+            connection.setCIPConnection(new CIPConnection(1, 2, (short) 3, (short) 4, 5, ForwardOpenProtocol.DEFAULT_SIZE));
+            final CompiledRequest request = connection.compileRequest(createReads());
+
+            final byte[] first = encode(request);
+            final byte[] second = encode(request);
+            // Context and sequence count are patched
+            assertPatched(first, second, CONTEXT_OFFSET, CONTEXT_OFFSET+8,
+                          SendUnitDataProtocol.SEQUENCE_OFFSET, SendUnitDataProtocol.SEQUENCE_OFFSET+2);
+            final ByteBuffer buf = ByteBuffer.wrap(second).order(Connection.BYTE_ORDER);
+            assertNotEquals(buf.getShort(SendUnitDataProtocol.SEQUENCE_OFFSET),
+                            ByteBuffer.wrap(first).order(Connection.BYTE_ORDER).getShort(SendUnitDataProtocol.SEQUENCE_OFFSET));
+
+            connection.setCIPConnection(null);
+            assertFalse(request.isValidFor(connection));
+        }
+    }
+}
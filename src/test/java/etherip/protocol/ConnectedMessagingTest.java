@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static etherip.protocol.Encapsulation.Command.SendUnitData;
+import static etherip.types.CNPath.ConnectionManager;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import etherip.TestSettings;
+import etherip.types.CNService;
+import etherip.util.Hexdump;
+
+/** JUnit test of Forward_Open and SendUnitData
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class ConnectedMessagingTest
+{
+    private final ByteBuffer buf = TestSettings.getBuffer();
+
+    @BeforeEach
+    public void setup()
+    {
+        TestSettings.logAll();
+        Transaction.reset();
+    }
+
+    @Test
+    public void testForwardOpen() throws Exception
+    {
+        final ForwardOpenProtocol forward_open = new ForwardOpenProtocol(2, 500);
+        final MessageRouterProtocol pdu = new MessageRouterProtocol(CNService.CM_ForwardOpen, ConnectionManager(), forward_open);
+
+        final StringBuilder log = new StringBuilder();
+        pdu.encode(this.buf, log);
+        System.out.println(log);
+        assertEquals(pdu.getRequestSize(), this.buf.position());
+        this.buf.flip();
+        System.out.println(Hexdump.toHexdump(this.buf));
+        // Service, path to connection manager
+        assertEquals(0x54, this.buf.get(0));
+        // O->T parameters: Point-to-point, variable, 500 bytes
+        assertEquals(0x43F4, this.buf.getShort(6 + 26));
+        // Transport class 3, then path to message router in slot 2
+        assertEquals((byte) 0xA3, this.buf.get(6 + 34));
+        final byte[] path = new byte[7];
+        for (int i=0; i<path.length; ++i)
+            path[i] = this.buf.get(6 + 35 + i);
+        assertArrayEquals(new byte[] { 3, 1, 2, 0x20, 2, 0x24, 1 }, path);
+
+        // Fake reply, using the T->O ID and serial of the request
+        final int t_o_id = this.buf.getInt(6 + 6);
+        final short serial = this.buf.getShort(6 + 10);
+        this.buf.clear();
+        this.buf.put(new byte[] { (byte) 0xD4, 0, 0, 0 });
+        this.buf.putInt(0x12345678);
+        this.buf.putInt(t_o_id);
+        this.buf.putShort(serial);
+        this.buf.putShort(ForwardOpenProtocol.VENDOR);
+        this.buf.putInt(ForwardOpenProtocol.ORIGINATOR_SERIAL);
+        this.buf.putInt(2000000);
+        this.buf.putInt(2000000);
+        this.buf.put((byte) 0);
+        this.buf.put((byte) 0);
+        this.buf.flip();
+        pdu.decode(this.buf, this.buf.remaining(), log);
+
+        final CIPConnection connection = forward_open.getConnection();
+        System.out.println(connection);
+        assertEquals(0x12345678, connection.getOriginatorToTargetID());
+        assertEquals(t_o_id, connection.getTargetToOriginatorID());
+        assertEquals(500, connection.getSize());
+    }
+
+    @Test
+    public void testLargeForwardOpen() throws Exception
+    {
+        final ForwardOpenProtocol forward_open = new ForwardOpenProtocol(0, ForwardOpenProtocol.LARGE_SIZE, true);
+        assertEquals(CNService.CM_LargeForwardOpen, forward_open.getService());
+        final MessageRouterProtocol pdu = new MessageRouterProtocol(forward_open.getService(), ConnectionManager(), forward_open);
+
+        final StringBuilder log = new StringBuilder();
+        pdu.encode(this.buf, log);
+        System.out.println(log);
+        assertEquals(pdu.getRequestSize(), this.buf.position());
+        assertEquals(6 + 46, this.buf.position());
+        this.buf.flip();
+        assertEquals(0x5B, this.buf.get(0));
+        // 32 bit O->T and T->O parameters with 4002 bytes
+        assertEquals(0x42000FA2, this.buf.getInt(6 + 26));
+        assertEquals(0x42000FA2, this.buf.getInt(6 + 34));
+        assertEquals((byte) 0xA3, this.buf.get(6 + 38));
+
+        assertThrows(IllegalArgumentException.class, () -> new ForwardOpenProtocol(0, ForwardOpenProtocol.LARGE_SIZE));
+    }
+
+    @Test
+    public void testSendUnitData() throws Exception
+    {
+        final CIPConnection connection = new CIPConnection(0x11223344, 0x55667788, (short)1, ForwardOpenProtocol.VENDOR, 42, 500);
+        final MRChipReadProtocol read = new MRChipReadProtocol("kay_ai");
+        final Encapsulation encap = new Encapsulation(SendUnitData, 0x1234, new SendUnitDataProtocol(connection, read));
+
+        final StringBuilder log = new StringBuilder();
+        encap.encode(this.buf, log);
+        System.out.println(log);
+        this.buf.flip();
+        final String dump = Hexdump.toHexdump(this.buf);
+        System.out.println(dump);
+        assertEquals("0000 - 70 00 22 00 34 12 00 00 00 00 00 00 30 30 30 30 - p.\".4.......0000\n"
+                   + "0010 - 30 30 30 31 00 00 00 00 00 00 00 00 00 00 02 00 - 0001............\n"
+                   + "0020 - A1 00 04 00 44 33 22 11 B1 00 0E 00 01 00 4C 04 - ....D3\".......L.\n"
+                   + "0030 - 91 06 6B 61 79 5F 61 69 01 00                   - ..kay_ai..      \n",
+                     dump);
+        assertEquals(1, this.buf.getShort(SendUnitDataProtocol.SEQUENCE_OFFSET));
+
+        // Fake reply with REAL value on the T->O connection, context is not echoed
+        this.buf.clear();
+        this.buf.putShort(SendUnitData.code());
+        this.buf.putShort((short) 32);
+        this.buf.putInt(0x1234);
+        this.buf.putInt(0);
+        this.buf.putLong(0);
+        this.buf.putInt(0);
+        this.buf.putInt(0);
+        this.buf.putShort((short) 0);
+        this.buf.putShort((short) 2);
+        this.buf.putShort((short) 0xA1);
+        this.buf.putShort((short) 4);
+        this.buf.putInt(0x55667788);
+        this.buf.putShort((short) 0xB1);
+        this.buf.putShort((short) 12);
+        this.buf.putShort((short) 1);
+        this.buf.put(new byte[] { (byte) 0xCC, 0, 0, 0, (byte) 0xCA, 0, (byte) 0xF9, (byte) 0x0F, (byte) 0x49, (byte) 0x40 });
+        this.buf.flip();
+        encap.decode(this.buf, this.buf.remaining(), log);
+        assertEquals(3.1416f, read.getData().getNumber(0).floatValue(), 0.0001);
+
+        // Reply with wrong sequence is detected
+        this.buf.putShort(SendUnitDataProtocol.SEQUENCE_OFFSET, (short) 2);
+        this.buf.rewind();
+        final Exception error = assertThrows(Exception.class, () -> encap.decode(this.buf, this.buf.remaining(), null));
+        assertTrue(error.getMessage().contains("sequence"));
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+/** @author Kay Kasemir */
+public class EncapsulationFramerTest
+{
+    /** @param buf Buffer where to add packet
+     *  @param marker Value for all bytes of the body
+     *  @param body_size Size of body
+     */
+    private static void addPacket(final ByteBuffer buf, final byte marker, final int body_size)
+    {
+        buf.putShort(Encapsulation.Command.SendRRData.code());
+        buf.putShort((short) body_size);
+        for (int i=4; i<Encapsulation.ENCAPSULATION_HEADER_SIZE + body_size; ++i)
+            buf.put(marker);
+    }
+
+    @Test
+    public void testBackToBack() throws Exception
+    {
+        final EncapsulationFramer framer = new EncapsulationFramer(200);
+        // One 'read' that returns two complete packets and the start of a third
+        final ByteBuffer data = framer.getReceiveBuffer();
+        addPacket(data, (byte) 1, 10);
+        addPacket(data, (byte) 2, 0);
+        data.putShort(Encapsulation.Command.SendRRData.code());
+        data.putShort((short) 5);
+        data.put((byte) 3);
+
+        ByteBuffer packet = framer.next();
+        assertEquals(34, packet.remaining());
+        assertEquals(10, packet.getShort(2));
+        assertEquals(1, packet.get(33));
+
+        packet = framer.next();
+        assertEquals(24, packet.remaining());
+        assertEquals(2, packet.get(23));
+
+        // Third packet is incomplete
+        assertNull(framer.next());
+        framer.compact();
+        assertEquals(5, data.position());
+
+        // Receive remainder of third packet
+        for (int i=5; i<29; ++i)
+            data.put((byte) 3);
+        packet = framer.next();
+        assertEquals(29, packet.remaining());
+        assertEquals(3, packet.get(28));
+        assertNull(framer.next());
+        framer.compact();
+        assertEquals(0, data.position());
+    }
+
+    @Test
+    public void testGrow() throws Exception
+    {
+        final EncapsulationFramer framer = new EncapsulationFramer(100, 1000);
+        ByteBuffer data = framer.getReceiveBuffer();
+        data.putShort(Encapsulation.Command.SendRRData.code());
+        data.putShort((short) 500);
+        for (int i=4; i<100; ++i)
+            data.put((byte) 7);
+        // Buffer is full with start of packet, grows to hold all of it
+        assertNull(framer.next());
+        framer.compact();
+        data = framer.getReceiveBuffer();
+        assertEquals(524, data.capacity());
+        assertEquals(100, data.position());
+        for (int i=100; i<524; ++i)
+            data.put((byte) 7);
+        final ByteBuffer packet = framer.next();
+        assertEquals(524, packet.remaining());
+        assertEquals(500, packet.getShort(2));
+        assertEquals(7, packet.get(523));
+    }
+
+    @Test
+    public void testTooLarge() throws Exception
+    {
+        final EncapsulationFramer framer = new EncapsulationFramer(100);
+        final ByteBuffer data = framer.getReceiveBuffer();
+        data.putShort(Encapsulation.Command.SendRRData.code());
+        data.putShort((short) 1000);
+        for (int i=4; i<Encapsulation.ENCAPSULATION_HEADER_SIZE; ++i)
+            data.put((byte) 0);
+        assertThrows(Exception.class, () -> framer.next());
+    }
+}
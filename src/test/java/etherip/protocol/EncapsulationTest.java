@@ -54,6 +54,12 @@ public class EncapsulationTest
                         return 42;
                     }
 
+                    @Override
+                    public void encode(final ByteBuffer buf, final StringBuilder log)
+                    {
+                        buf.put(new byte[42]);
+                    }
+
                     @Override
                     public void decode(final ByteBuffer buf,
                             final int available, final StringBuilder log)
@@ -63,7 +69,10 @@ public class EncapsulationTest
                     }
                 });
         encap.encode(send, null);
-        assertEquals(Encapsulation.ENCAPSULATION_HEADER_SIZE, send.position());
+        // Length in header is patched to the size of the encoded body
+        assertEquals(Encapsulation.ENCAPSULATION_HEADER_SIZE + 42, send.position());
+        // Continue with just the header
+        send.position(Encapsulation.ENCAPSULATION_HEADER_SIZE);
         send.flip();
 
         final String string = Hexdump.toCompactHexdump(send);
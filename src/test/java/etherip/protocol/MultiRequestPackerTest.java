@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import etherip.types.CIPData;
+import etherip.types.CIPData.Type;
+
+/** JUnit test of the {@link MultiRequestPacker}
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class MultiRequestPackerTest
+{
+    private static final int LIMIT = Connection.UNCONNECTED_MESSAGE_SIZE;
+
+    private ReplySizes sizes;
+
+    @BeforeEach
+    public void setup()
+    {
+        this.sizes = new ReplySizes();
+    }
+
+    /** @param messages Messages
+     *  @param groups Groups of those messages, checked to be within limits
+     */
+    private void checkGroups(final MessageRouterProtocol[] messages, final List<MessageRouterProtocol[]> groups)
+    {
+        final Set<MessageRouterProtocol> packed = new HashSet<>();
+        for (MessageRouterProtocol[] group : groups)
+        {
+            int request = CIPMultiRequestProtocol.OVERHEAD;
+            int response = MultiRequestPacker.REPLY_OVERHEAD;
+            int last = -1;
+            for (MessageRouterProtocol message : group)
+            {
+                request += 2 + message.getRequestSize();
+                response += 2 + message.getEstimatedResponseSize(this.sizes);
+                assertTrue(packed.add(message));
+                // Original order is preserved within group
+                int index = List.of(messages).indexOf(message);
+                assertTrue(index > last);
+                last = index;
+            }
+            if (group.length > 1)
+            {
+                assertTrue(request <= LIMIT, "Request size " + request);
+                assertTrue(response <= LIMIT, "Response size " + response);
+            }
+        }
+        assertEquals(messages.length, packed.size());
+    }
+
+    @Test
+    public void testReplySizes() throws Exception
+    {
+        final MRChipReadProtocol[] reads = new MRChipReadProtocol[100];
+        for (int i=0; i<reads.length; ++i)
+            reads[i] = new MRChipReadProtocol("tag" + i);
+
+        // Without knowing the tag types, replies are assumed to be large
+        List<MessageRouterProtocol[]> groups = MultiRequestPacker.pack(LIMIT, LIMIT, 100, this.sizes, reads);
+        checkGroups(reads, groups);
+        System.out.println("Unknown types: " + groups.size() + " groups");
+        assertEquals(20, groups.size());
+
+        // Once replies are known to be a DINT, most requests fit
+        for (int i=0; i<reads.length; ++i)
+            this.sizes.learn("tag" + i, 1, 2 + 4);
+        groups = MultiRequestPacker.pack(LIMIT, LIMIT, 100, this.sizes, reads);
+        checkGroups(reads, groups);
+        System.out.println("DINT replies: " + groups.size() + " groups");
+        // Request: 'tag..' read is 2 offset + 2 service, path + 6 name + 2 count = 12 (for 2 digit numbers)
+        // Reply: 2 offset + 4 header + 2 type + 4 value = 12
+        assertEquals(3, groups.size());
+
+        // Limit on number of requests per group
+        groups = MultiRequestPacker.pack(LIMIT, LIMIT, 10, this.sizes, reads);
+        checkGroups(reads, groups);
+        assertEquals(10, groups.size());
+    }
+
+    @Test
+    public void testMixedSizes() throws Exception
+    {
+        final MessageRouterProtocol[] messages = new MessageRouterProtocol[30];
+        for (int i=0; i<messages.length; ++i)
+        {
+            final String name = "tag" + i;
+            if (i % 3 == 0)
+            {   // Array read that fills about half of a reply
+                this.sizes.learn(name, 50, 2 + 50 * 4);
+                messages[i] = new MRChipReadProtocol(name, (short) 50);
+            }
+            else if (i % 3 == 1)
+            {   // DINT read
+                this.sizes.learn(name, 1, 2 + 4);
+                messages[i] = new MRChipReadProtocol(name);
+            }
+            else
+            {   // Write
+                messages[i] = new MRChipWriteProtocol(name, new CIPData(Type.DINT, 10));
+            }
+        }
+
+        final List<MessageRouterProtocol[]> groups = MultiRequestPacker.pack(LIMIT, LIMIT, 100, this.sizes, messages);
+        checkGroups(messages, groups);
+        // 10 array reads of 208 bytes each, two per reply, and all the rest fit in between
+        assertEquals(5, groups.size());
+    }
+
+    @Test
+    public void testOversized() throws Exception
+    {
+        this.sizes.learn("huge", 1000, 2 + 1000 * 4);
+        final MessageRouterProtocol[] messages = new MessageRouterProtocol[]
+        {
+            new MRChipReadProtocol("a"),
+            new MRChipReadProtocol("huge", (short) 1000),
+            new MRChipReadProtocol("b"),
+        };
+        final List<MessageRouterProtocol[]> groups = MultiRequestPacker.pack(LIMIT, LIMIT, 100, this.sizes, messages);
+        checkGroups(messages, groups);
+        assertEquals(2, groups.size());
+        // Oversized request is placed first, by itself
+        assertEquals(1, groups.get(0).length);
+        assertEquals(messages[1], groups.get(0)[0]);
+    }
+
+    @Test
+    public void testSeparateDevices() throws Exception
+    {
+        // Same tag name on two devices, a DINT on one and a larger structure on the other
+        final ReplySizes other = new ReplySizes();
+        this.sizes.learn("data", 1, 2 + 4);
+        other.learn("data", 1, 2 + 88);
+
+        final MRChipReadProtocol read = new MRChipReadProtocol("data");
+        assertEquals(MessageRouterProtocol.REPLY_HEADER_SIZE + 2 + 4, read.getEstimatedResponseSize(this.sizes));
+        assertEquals(MessageRouterProtocol.REPLY_HEADER_SIZE + 2 + 88, read.getEstimatedResponseSize(other));
+
+        // Unknown tag uses the default estimate
+        assertEquals(0, new ReplySizes().getEstimate("data", 1));
+    }
+}
@@ -10,6 +10,10 @@ package etherip.protocol;
 import static etherip.protocol.Encapsulation.Command.SendRRData;
 import static etherip.types.CNPath.MessageRouter;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.nio.ByteBuffer;
 
@@ -17,6 +21,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import etherip.TestSettings;
+import etherip.data.CipException;
 import etherip.types.CNService;
 import etherip.util.Hexdump;
 
@@ -62,4 +67,80 @@ public class MultiRequestTest
                    + "0050 - 79 5F 61 6F 01 00 01 00 01 00                   - y_ao......      \n",
                    dump);
     }
+
+    @Test
+    public void testPatchedLengths() throws Exception
+    {
+        // Odd tag name, array element: Lengths and offsets
+        // written after encoding must match the computed request size
+        final MRChipReadProtocol[] reads = new MRChipReadProtocol[]
+        {
+            new MRChipReadProtocol("odd"),
+            new MRChipReadProtocol("a[300]")
+        };
+        final CIPMultiRequestProtocol multi = new CIPMultiRequestProtocol(reads);
+        final UnconnectedSendProtocol unconnected = new UnconnectedSendProtocol(0,
+                new MessageRouterProtocol(CNService.CIP_MultiRequest, MessageRouter(), multi));
+        final Encapsulation encap = new Encapsulation(SendRRData, 0x12345678,
+                new SendRRDataProtocol(unconnected));
+        encap.encode(this.buf, null);
+
+        assertEquals(encap.getRequestSize(), this.buf.position());
+        // Encapsulation, SendRRData and Unconnected_Send lengths
+        assertEquals(this.buf.position() - Encapsulation.ENCAPSULATION_HEADER_SIZE, this.buf.getShort(2));
+        assertEquals(unconnected.getRequestSize(), this.buf.getShort(38));
+        final int mr_size = this.buf.getShort(48);
+        assertEquals(2 + 4 + multi.getRequestSize(), mr_size);
+        // Offsets of the multi-request
+        final int multi_start = 50 + 6;
+        int offset = 2 + 2 * reads.length;
+        for (int i=0; i<reads.length; ++i)
+        {
+            assertEquals(offset, this.buf.getShort(multi_start + 2 + 2 * i));
+            offset += reads[i].getRequestSize();
+        }
+    }
+
+    @Test
+    public void testEmbeddedErrors() throws Exception
+    {
+        final MRChipReadProtocol[] reads = new MRChipReadProtocol[]
+        {
+            new MRChipReadProtocol("good"),
+            new MRChipReadProtocol("bad"),
+            new MRChipReadProtocol("real"),
+        };
+        final MessageRouterProtocol multi = new MessageRouterProtocol(CNService.CIP_MultiRequest,
+                MessageRouter(), new CIPMultiRequestProtocol(reads));
+
+        // Multi-request reply with 'embedded service error',
+        // second read fails with 'path destination unknown'
+        this.buf.clear();
+        this.buf.put(new byte[] { (byte) 0x8A, 0, 0x1E, 0 });
+        this.buf.putShort((short) 3);
+        this.buf.putShort((short) 8);
+        this.buf.putShort((short) 18);
+        this.buf.putShort((short) 24);
+        this.buf.put(new byte[] { (byte) 0xCC, 0, 0, 0 }).putShort((short) 0xC4).putInt(42);
+        this.buf.put(new byte[] { (byte) 0xCC, 0, 0x05, 1 }).putShort((short) 0);
+        this.buf.put(new byte[] { (byte) 0xCC, 0, 0, 0 }).putShort((short) 0xCA).putFloat(1.5f);
+        this.buf.flip();
+
+        final StringBuilder log = new StringBuilder();
+        multi.decode(this.buf, this.buf.remaining(), log);
+        System.out.println(log);
+
+        final MultiRequestResult result = new MultiRequestResult(reads);
+        System.out.println(result);
+        assertEquals(1, result.getErrorCount());
+        assertTrue(result.isOk(0));
+        assertEquals(42, result.getData(0).getNumber(0).intValue());
+        assertFalse(result.isOk(1));
+        assertEquals(0x05, result.getStatus(1));
+        assertNull(result.getData(1));
+        assertEquals(0x05, result.getError(1).getStatusCode());
+        assertEquals(1.5, result.getValues()[2].getNumber(0).doubleValue());
+        final CipException error = assertThrows(CipException.class, () -> result.check());
+        assertEquals(0x05, error.getStatusCode());
+    }
 }
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/** JUnit test of the {@link PacketLimits}
+ *  @author Kay Kasemir
+ */
+public class PacketLimitsTest
+{
+    private static final int MAX = 500;
+
+    @Test
+    public void testLearning()
+    {
+        final PacketLimits limits = new PacketLimits();
+        assertEquals(MAX, limits.getRequestLimit(MAX));
+        assertEquals(MAX, limits.getResponseLimit(MAX));
+
+        // Other errors are not related to the size
+        assertFalse(limits.failure(MAX, 0x05, 400, 400));
+        assertEquals(MAX, limits.getResponseLimit(MAX));
+
+        // Reply of 400 bytes fails, ceiling is lowered half way
+        final long changes = limits.getChanges();
+        limits.success(MAX, 100, 100);
+        assertTrue(limits.failure(MAX, PacketLimits.REPLY_DATA_TOO_LARGE, 100, 400));
+        assertNotEquals(changes, limits.getChanges());
+        assertEquals(250, limits.getResponseLimit(MAX));
+        assertEquals(MAX, limits.getRequestLimit(MAX));
+
+        // Request failure only affects request limit
+        assertTrue(limits.failure(MAX, PacketLimits.REQUEST_PACKET_TOO_LARGE, 300, 100));
+        assertEquals(200, limits.getRequestLimit(MAX));
+        assertEquals(250, limits.getResponseLimit(MAX));
+
+        // After many successes, the ceiling is probed half way towards the failed size
+        for (int i=0; i<PacketLimits.PROBE_INTERVAL; ++i)
+            limits.success(MAX, 150, 250);
+        assertEquals(325, limits.getResponseLimit(MAX));
+        assertEquals(250, limits.getRequestLimit(MAX));
+
+        // Different connection size starts over
+        assertEquals(4000, limits.getResponseLimit(4000));
+        assertEquals(4000, limits.getRequestLimit(4000));
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/** JUnit test of {@link PipelinedTcpConnection}
+ *
+ *  Uses a fake device that only replies once it
+ *  received all requests, then sends the replies
+ *  in reverse order and back-to-back.
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class PipelinedTcpConnectionTest
+{
+    private static final int REQUESTS = 5;
+
+    /** Size of RegisterSession request and reply */
+    private static final int SIZE = Encapsulation.ENCAPSULATION_HEADER_SIZE + 4;
+
+    private static void replyInReverse(final ServerSocket server) throws Exception
+    {
+        try (Socket client = server.accept())
+        {
+            final DataInputStream in = new DataInputStream(client.getInputStream());
+            final byte[][] requests = new byte[REQUESTS][SIZE];
+            for (int i=0; i<REQUESTS; ++i)
+                in.readFully(requests[i]);
+
+            final ByteBuffer replies = ByteBuffer.allocate(REQUESTS * SIZE);
+            replies.order(Connection.BYTE_ORDER);
+            for (int i=REQUESTS-1; i>=0; --i)
+            {
+                final int start = replies.position();
+                replies.put(requests[i]);
+                // Assign session 1, 2, ...
+                replies.putInt(start + 4, i+1);
+            }
+            client.getOutputStream().write(replies.array());
+            client.getOutputStream().flush();
+            // Hold connection until client closes
+            in.read();
+        }
+    }
+
+    @Test
+    @Timeout(value = 10, unit = SECONDS)
+    public void testPipelining() throws Exception
+    {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            final CompletableFuture<Void> device = CompletableFuture.runAsync(() ->
+            {
+                try
+                {
+                    replyInReverse(server);
+                }
+                catch (Exception ex)
+                {
+                    throw new RuntimeException(ex);
+                }
+            });
+
+            try (PipelinedTcpConnection connection = new PipelinedTcpConnection("127.0.0.1", server.getLocalPort(), 0, REQUESTS))
+            {
+                // Submit all requests from this one thread
+                final RegisterSession[] registers = new RegisterSession[REQUESTS];
+                final CompletableFuture<?>[] done = new CompletableFuture<?>[REQUESTS];
+                for (int i=0; i<REQUESTS; ++i)
+                {
+                    registers[i] = new RegisterSession();
+                    done[i] = connection.executeAsync(registers[i]);
+                }
+                // Encapsulation.decode would throw on mismatched context
+                CompletableFuture.allOf(done).get();
+
+                final Set<Integer> sessions = new HashSet<>();
+                for (RegisterSession register : registers)
+                    sessions.add(register.getSession());
+                assertEquals(Set.of(1, 2, 3, 4, 5), sessions);
+            }
+            device.get(5, SECONDS);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.protocol;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/** JUnit test of {@link TcpConnection#executeAsync(Protocol)}
+ *
+ *  Uses a fake device that replies to each request
+ *  before it reads the next one.
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class TcpConnectionTest
+{
+    private static final int REQUESTS = 6;
+
+    /** Size of RegisterSession request and reply */
+    private static final int SIZE = Encapsulation.ENCAPSULATION_HEADER_SIZE + 4;
+
+    private static void replyInOrder(final ServerSocket server) throws Exception
+    {
+        try (Socket client = server.accept())
+        {
+            final DataInputStream in = new DataInputStream(client.getInputStream());
+            final byte[] request = new byte[SIZE];
+            for (int i=0; i<REQUESTS; ++i)
+            {
+                in.readFully(request);
+                final ByteBuffer reply = ByteBuffer.wrap(request);
+                reply.order(Connection.BYTE_ORDER);
+                // Assign session 1, 2, ...
+                reply.putInt(4, i+1);
+                client.getOutputStream().write(request);
+                client.getOutputStream().flush();
+            }
+            // Hold connection until client closes
+            in.read();
+        }
+    }
+
+    @Test
+    @Timeout(value = 10, unit = SECONDS)
+    public void testAsync() throws Exception
+    {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            final CompletableFuture<Void> device = CompletableFuture.runAsync(() ->
+            {
+                try
+                {
+                    replyInOrder(server);
+                }
+                catch (Exception ex)
+                {
+                    throw new RuntimeException(ex);
+                }
+            });
+
+            try (TcpConnection connection = new TcpConnection("127.0.0.1", server.getLocalPort(), 0))
+            {
+                // Queue requests, then mix in a blocking call
+                final RegisterSession[] registers = new RegisterSession[REQUESTS];
+                final CompletableFuture<?>[] done = new CompletableFuture<?>[REQUESTS-1];
+                for (int i=0; i<REQUESTS; ++i)
+                    registers[i] = new RegisterSession();
+                for (int i=0; i<REQUESTS-1; ++i)
+                    done[i] = connection.executeAsync(registers[i]);
+                connection.execute(registers[REQUESTS-1]);
+                CompletableFuture.allOf(done).get();
+
+                // Asynchronous requests are handled in order
+                int last = 0;
+                for (int i=0; i<REQUESTS-1; ++i)
+                {
+                    final int session = registers[i].getSession();
+                    assertEquals(true, session > last);
+                    last = session;
+                }
+                // Total of all sessions 1, 2, .. REQUESTS
+                int sum = 0;
+                for (RegisterSession register : registers)
+                    sum += register.getSession();
+                assertEquals(REQUESTS * (REQUESTS+1) / 2, sum);
+            }
+            device.get(5, SECONDS);
+        }
+    }
+
+    @Test
+    @Timeout(value = 10, unit = SECONDS)
+    public void testWriteWhileAsync() throws Exception
+    {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            final CompletableFuture<Void> device = CompletableFuture.runAsync(() ->
+            {
+                try
+                {
+                    replyInOrder(server);
+                }
+                catch (Exception ex)
+                {
+                    throw new RuntimeException(ex);
+                }
+            });
+
+            try (TcpConnection connection = new TcpConnection("127.0.0.1", server.getLocalPort(), 0))
+            {
+                // Write without response, like UnRegisterSession on close,
+                // while asynchronous requests are in flight
+                final RegisterSession[] registers = new RegisterSession[REQUESTS-1];
+                final CompletableFuture<?>[] done = new CompletableFuture<?>[REQUESTS-1];
+                for (int i=0; i<REQUESTS-1; ++i)
+                {
+                    registers[i] = new RegisterSession();
+                    done[i] = connection.executeAsync(registers[i]);
+                }
+                final RegisterSession written = new RegisterSession();
+                connection.write(written);
+                CompletableFuture.allOf(done).get();
+                // Device also replied to the written request
+                connection.read(written);
+
+                // Each request received one complete reply
+                int sum = written.getSession();
+                for (RegisterSession register : registers)
+                    sum += register.getSession();
+                assertEquals(REQUESTS * (REQUESTS+1) / 2, sum);
+            }
+            device.get(5, SECONDS);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.scan;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import etherip.EtherNetIP;
+import etherip.Tag;
+import etherip.TagListener;
+import etherip.sim.PLCSimulator;
+import etherip.types.CIPData;
+import etherip.types.CIPData.Type;
+
+/** JUnit test of the {@link Scanner} against the {@link PLCSimulator}
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+@Timeout(value = 20, unit = SECONDS)
+public class ScannerTest
+{
+    private PLCSimulator plc;
+    private EtherNetIP etherip;
+
+    @BeforeEach
+    public void connect() throws Exception
+    {
+        this.plc = new PLCSimulator();
+        this.etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0);
+        this.etherip.connectTcp();
+    }
+
+    @AfterEach
+    public void close() throws Exception
+    {
+        this.etherip.close();
+        this.plc.close();
+    }
+
+    @Test
+    public void testOverruns() throws Exception
+    {
+        final CIPData value = new CIPData(Type.DINT, 1);
+        value.set(0, 42);
+        this.plc.setTag("fast", value);
+        this.plc.setTag("slow", value);
+
+        // Each read takes 150 ms, so the 0.1 sec list cannot keep up
+        this.plc.setLatency(150);
+        final long start = System.nanoTime();
+        final Scanner scanner = new Scanner(this.etherip.getConnection());
+        final Tag fast = scanner.add(0.1, "fast");
+        final Tag slow = scanner.add(1.0, "slow");
+        // Period below the minimum is raised to it, joining the 0.1 sec list
+        scanner.add(0.01, "fast");
+        List<ScanStatistics> stats = scanner.getStatistics();
+        while (stats.get(0).getOverruns() <= 0  ||  stats.get(1).getCycles() < 1)
+        {
+            Thread.sleep(100);
+            stats = scanner.getStatistics();
+        }
+        scanner.stop();
+        final long ms = (System.nanoTime() - start) / 1000000;
+
+        stats = scanner.getStatistics();
+        System.out.println(scanner);
+        assertEquals(2, stats.size(), "0.01 sec list is handled as 0.1 sec list");
+        final ScanStatistics fast_stats = stats.get(0);
+        assertEquals(0.1, fast_stats.getPeriod());
+        assertTrue(fast_stats.isOverloaded());
+        // Skipped instead of bursting: No more cycles than the PLC can handle in the elapsed time
+        assertTrue(fast_stats.getCycles() <= ms / 150, fast_stats.getCycles() + " cycles in " + ms + " ms");
+        assertTrue(fast_stats.getAverageCycleTime() >= 150);
+        assertEquals(42, fast.getValue().getInt(0));
+        assertEquals(42, slow.getValue().getInt(0));
+    }
+
+    @Test
+    public void testMergedSchedule() throws Exception
+    {
+        final CIPData value = new CIPData(Type.DINT, 1);
+        value.set(0, 42);
+        this.plc.setTag("a", value);
+        this.plc.setTag("b", value);
+        this.plc.setTag("c", value);
+
+        final Scanner scanner = new Scanner(this.etherip.getConnection());
+        scanner.add(0.2, "a");
+        scanner.add(0.4, "b");
+        final Tag c = scanner.add(1.0, "c");
+        System.out.println(scanner.getSchedule());
+        assertTrue(scanner.getSchedule().contains("3 lists in 1 groups"));
+
+        final int start = this.plc.getRequestCount();
+        List<ScanStatistics> stats = scanner.getStatistics();
+        while (stats.get(2).getCycles() < 2)
+        {
+            Thread.sleep(100);
+            stats = scanner.getStatistics();
+        }
+        scanner.stop();
+        final int requests = this.plc.getRequestCount() - start;
+        System.out.println(scanner);
+        System.out.println("Requests: " + requests);
+
+        // Lists are due together, sharing one request per cycle of the 0.2 sec list
+        // instead of separate requests for each list.
+        // One more request may have been in progress when stopped.
+        stats = scanner.getStatistics();
+        final long cycles = stats.get(0).getCycles();
+        assertTrue(requests <= cycles + 1, "Requests: " + requests + " for " + cycles + " cycles");
+        assertTrue(cycles >= stats.get(1).getCycles());
+        assertTrue(stats.get(1).getCycles() >= stats.get(2).getCycles());
+        assertEquals(42, c.getValue().getInt(0));
+    }
+
+    @Test
+    public void testReplan() throws Exception
+    {
+        final CIPData value = new CIPData(Type.DINT, 1);
+        value.set(0, 42);
+        for (int i = 0; i < 6; ++i)
+        {
+            this.plc.setTag("tag" + i, value);
+        }
+
+        // With unknown reply sizes, the two lists don't fit one request
+        final Scanner scanner = new Scanner(this.etherip.getConnection());
+        for (int i = 0; i < 3; ++i)
+        {
+            scanner.add(0.2, "tag" + i);
+            scanner.add(0.4, "tag" + (i + 3));
+        }
+        System.out.println(scanner.getSchedule());
+        assertTrue(scanner.getSchedule().contains("2 lists in 2 groups"));
+
+        // After reading the tags, the learned sizes allow merging the lists
+        while (!scanner.getSchedule().contains("2 lists in 1 groups"))
+        {
+            Thread.sleep(100);
+        }
+        System.out.println(scanner.getSchedule());
+        scanner.stop();
+    }
+
+    @Test
+    public void testSubscriptions() throws Exception
+    {
+        final CIPData value = new CIPData(Type.DINT, 1);
+        value.set(0, 42);
+        this.plc.setTag("a", value);
+
+        // Subscribers at 1 and 0.2 seconds share one tag
+        final AtomicInteger slow_updates = new AtomicInteger(), fast_updates = new AtomicInteger();
+        final Scanner scanner = new Scanner(this.etherip.getConnection());
+        final Tag tag = scanner.subscribe(1.0, "a", new Listener(slow_updates));
+        assertSame(tag, scanner.subscribe(0.2, "a", new Listener(fast_updates)));
+        assertSame(tag, scanner.add(1.0, "a"));
+
+        // .. which is read by the faster list
+        assertEquals(1, scanner.scan_lists.get(200L).getTags().size());
+        assertEquals(0, scanner.scan_lists.get(1000L).getTags().size());
+
+        while (slow_updates.get() < 2  ||  fast_updates.get() < 10)
+        {
+            Thread.sleep(100);
+        }
+        scanner.stop();
+        System.out.println(scanner.getSchedule());
+        System.out.println("Updates: " + slow_updates.get() + " slow, " + fast_updates.get() + " fast");
+        // Slow subscriber is updated in every 5th cycle of the fast one,
+        // allowing for the phase of the first cycle and a cycle in progress when stopped
+        assertTrue(slow_updates.get() <= fast_updates.get() / 5 + 2);
+        assertEquals(42, tag.getValue().getInt(0));
+    }
+
+    /** Listener that counts updates */
+    private static class Listener implements TagListener
+    {
+        final private AtomicInteger updates;
+
+        Listener(final AtomicInteger updates)
+        {
+            this.updates = updates;
+        }
+
+        @Override
+        public void tagUpdate(final Tag tag)
+        {
+            this.updates.incrementAndGet();
+        }
+
+        @Override
+        public void tagError(final Tag tag)
+        {
+        }
+    }
+}
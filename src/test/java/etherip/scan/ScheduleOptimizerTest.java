@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.scan;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/** JUnit test of the {@link ScheduleOptimizer}
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class ScheduleOptimizerTest
+{
+    @Test
+    public void testMerge() throws Exception
+    {
+        // 1, 2 and 5 second lists are due together every 10 seconds and fit one packet
+        final ScheduleOptimizer optimizer = new ScheduleOptimizer(500, 500);
+        optimizer.add(5000, 50, 50);
+        optimizer.add(1000, 50, 50);
+        optimizer.add(2000, 50, 50);
+        final List<ScheduleOptimizer.Group> groups = optimizer.optimize();
+        System.out.println(optimizer);
+        assertEquals(1, groups.size());
+        assertEquals(1000, groups.get(0).getPeriod());
+        assertEquals(List.of(1, 2, 0), groups.get(0).getMembers());
+        assertEquals(1.0, optimizer.getPacketsPerSecond(), 0.001);
+        assertEquals(1.7, optimizer.getUnmergedPacketsPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testStagger() throws Exception
+    {
+        // Lists are too large to share a packet, so they are spread over the 1 second tick
+        final ScheduleOptimizer optimizer = new ScheduleOptimizer(100, 500);
+        optimizer.add(1000, 80, 50);
+        optimizer.add(2000, 80, 50);
+        optimizer.add(3000, 80, 50);
+        final List<ScheduleOptimizer.Group> groups = optimizer.optimize();
+        System.out.println(optimizer);
+        assertEquals(3, groups.size());
+        assertEquals(1000, optimizer.getTick());
+        assertEquals(1000, groups.get(0).getPeriod());
+        assertEquals(0, groups.get(0).getPhase());
+        assertEquals(2000, groups.get(1).getPeriod());
+        assertEquals(333333333, groups.get(1).getPhase());
+        assertEquals(3000, groups.get(2).getPeriod());
+        assertEquals(666666666, groups.get(2).getPhase());
+        assertEquals(optimizer.getUnmergedPacketsPerSecond(), optimizer.getPacketsPerSecond(), 0.001);
+
+        // 3 seconds is no multiple of 2 seconds, so those lists are never due together in each cycle
+        final ScheduleOptimizer other = new ScheduleOptimizer(500, 500);
+        other.add(2000, 50, 50);
+        other.add(3000, 50, 50);
+        assertEquals(2, other.optimize().size());
+        assertEquals(1000, other.getTick());
+        assertEquals(500000000, other.optimize().get(1).getPhase());
+    }
+
+    @Test
+    public void testLargeList() throws Exception
+    {
+        // List that needs 3 packets
+        final ScheduleOptimizer optimizer = new ScheduleOptimizer(100, 100);
+        optimizer.add(500, 50, 250);
+        optimizer.optimize();
+        assertEquals(6.0, optimizer.getPacketsPerSecond(), 0.001);
+    }
+}
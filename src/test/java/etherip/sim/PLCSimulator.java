@@ -0,0 +1,836 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.sim;
+
+import static etherip.protocol.Encapsulation.CONTEXT_OFFSET;
+import static etherip.protocol.Encapsulation.ENCAPSULATION_HEADER_SIZE;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import etherip.protocol.Connection;
+import etherip.protocol.Encapsulation.Command;
+import etherip.protocol.EncapsulationFramer;
+import etherip.types.CIPData;
+
+/**
+ * Simulated Logix PLC for tests and benchmarks
+ * <p>
+ * Listens on a local TCP port and answers
+ * RegisterSession, ListServices, ListIdentity,
+ * SendRRData and SendUnitData.
+ * CIP requests can read and write tags, also within a multi-request,
+ * get the identity, and open or close a connection.
+ * <p>
+ * Replies can be delayed to simulate network and PLC latency.
+ * Replies that exceed the maximum reply size result in errors
+ * similar to a real PLC.
+ * <p>
+ * All clients are handled by one thread.
+ *
+ * @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+public class PLCSimulator implements AutoCloseable
+{
+    final private static Logger logger = Logger.getLogger(PLCSimulator.class.getName());
+
+    /** CIP general status codes */
+    final public static int OK = 0x00,
+                            CONNECTION_FAILURE = 0x01,
+                            PATH_DESTINATION_UNKNOWN = 0x05,
+                            PARTIAL_TRANSFER = 0x06,
+                            SERVICE_NOT_SUPPORTED = 0x08,
+                            REPLY_DATA_TOO_LARGE = 0x11,
+                            NOT_ENOUGH_DATA = 0x13,
+                            EMBEDDED_SERVICE_ERROR = 0x1E;
+
+    /** Type code of CIPData.Type.STRUCT */
+    final private static short STRUCT = 0x02A0;
+
+    /** Value of a tag: Type code and raw data of all elements */
+    private static class TagValue
+    {
+        final short type;
+        final byte[] data;
+        final int element_size;
+
+        TagValue(final short type, final byte[] data, final int element_size)
+        {
+            this.type = type;
+            this.data = data;
+            this.element_size = element_size;
+        }
+
+        int getElementCount()
+        {
+            return this.data.length / this.element_size;
+        }
+    }
+
+    /** Connection opened via Forward_Open */
+    private static class CIPConnection
+    {
+        final int t_o_id;
+        final int size;
+        /** Timeout in nanoseconds: RPI x 4 << multiplier */
+        final long timeout;
+        long last_used = System.nanoTime();
+
+        CIPConnection(final int t_o_id, final int size, final long timeout)
+        {
+            this.t_o_id = t_o_id;
+            this.size = size;
+            this.timeout = timeout;
+        }
+    }
+
+    /** State of a client */
+    private static class Client
+    {
+        final SocketChannel channel;
+        final EncapsulationFramer framer = new EncapsulationFramer(600, EncapsulationFramer.MAX_PACKET_SIZE);
+        final Map<Integer, CIPConnection> connections = new HashMap<>();
+
+        Client(final SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+    }
+
+    final private static AtomicInteger ids = new AtomicInteger(0x1000);
+
+    final private Map<String, TagValue> tags = new ConcurrentHashMap<>();
+    final private ServerSocketChannel server;
+    final private Selector selector;
+    final private Thread thread;
+    private volatile boolean running = true;
+
+    private volatile long latency_ms = 0;
+    private volatile int max_reply_size = Connection.UNCONNECTED_MESSAGE_SIZE;
+    private volatile boolean large_forward_open = true;
+    private ScheduledExecutorService delayed_replies = null;
+
+    /** Statistics */
+    final private AtomicInteger request_count = new AtomicInteger();
+
+    /**
+     * Create simulator on a free local port
+     *
+     * @throws Exception
+     *             on error
+     */
+    public PLCSimulator() throws Exception
+    {
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.server.configureBlocking(false);
+        this.selector = Selector.open();
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::run, "PLCSimulator " + this.getPort());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** @return TCP port of the simulator */
+    public int getPort()
+    {
+        return this.server.socket().getLocalPort();
+    }
+
+    /** @param latency_ms Delay of each reply in milliseconds */
+    public synchronized void setLatency(final long latency_ms)
+    {
+        this.latency_ms = latency_ms;
+        if (latency_ms > 0  &&  this.delayed_replies == null)
+        {
+            this.delayed_replies = Executors.newSingleThreadScheduledExecutor(runnable ->
+            {
+                final Thread thread = new Thread(runnable, "PLCSimulator Replies " + this.getPort());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** @param max_reply_size Maximum size of an unconnected message router reply */
+    public void setMaxReplySize(final int max_reply_size)
+    {
+        this.max_reply_size = max_reply_size;
+    }
+
+    /** @param supported Is Large_Forward_Open supported? */
+    public void setLargeForwardOpen(final boolean supported)
+    {
+        this.large_forward_open = supported;
+    }
+
+    /** @return Number of encapsulated requests received */
+    public int getRequestCount()
+    {
+        return this.request_count.get();
+    }
+
+    /**
+     * Set or add a tag
+     *
+     * @param name
+     *            Tag name, may include array index "array[2]"
+     * @param value
+     *            Value of the tag
+     * @throws Exception
+     *             on error
+     */
+    public void setTag(final String name, final CIPData value) throws Exception
+    {
+        // Encoded STRUCT adds element count to the structure detail
+        final ByteBuffer buf = ByteBuffer.allocate(value.getEncodedSize() + 2);
+        buf.order(Connection.BYTE_ORDER);
+        value.encode(buf);
+        buf.flip();
+        this.tags.put(name, decodeValue(buf));
+    }
+
+    /**
+     * Get current value of a tag
+     *
+     * @param name
+     *            Tag name
+     * @return Value, <code>null</code> for unknown tag
+     * @throws Exception
+     *             on error
+     */
+    public CIPData getTag(final String name) throws Exception
+    {
+        final TagValue value = this.tags.get(name);
+        if (value == null)
+        {
+            return null;
+        }
+        return new CIPData(CIPData.Type.forCode(value.type), value.data.clone());
+    }
+
+    /** @param buf Buffer with type, element count and data as encoded by {@link CIPData}
+     *  @return {@link TagValue}
+     */
+    private static TagValue decodeValue(final ByteBuffer buf)
+    {
+        final short type = buf.getShort();
+        if (type == STRUCT)
+        {   // Structure detail, elements, data is read as structure detail, data
+            final short detail = buf.getShort();
+            buf.getShort();
+            final byte[] data = new byte[2 + buf.remaining()];
+            ByteBuffer.wrap(data).order(Connection.BYTE_ORDER).putShort(detail).put(buf);
+            return new TagValue(type, data, data.length);
+        }
+        final int elements = buf.getShort();
+        final byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+        return new TagValue(type, data, elements > 0 ? data.length / elements : 1);
+    }
+
+    private void run()
+    {
+        try
+        {
+            while (this.running)
+            {
+                this.selector.select();
+                final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable())
+                    {
+                        final SocketChannel channel = this.server.accept();
+                        if (channel == null)
+                            continue;
+                        channel.configureBlocking(false);
+                        channel.register(this.selector, SelectionKey.OP_READ, new Client(channel));
+                    }
+                    else if (key.isReadable())
+                    {
+                        final Client client = (Client) key.attachment();
+                        try
+                        {
+                            this.handleInput(client);
+                        }
+                        catch (final Exception ex)
+                        {
+                            logger.log(Level.FINE, "Closing client", ex);
+                            client.channel.close();
+                        }
+                    }
+                }
+            }
+        }
+        catch (final Exception ex)
+        {
+            if (this.running)
+                logger.log(Level.WARNING, "Simulator error", ex);
+        }
+    }
+
+    /** @param client Client that sent data */
+    private void handleInput(final Client client) throws Exception
+    {
+        if (client.channel.read(client.framer.getReceiveBuffer()) < 0)
+        {
+            client.channel.close();
+            return;
+        }
+        ByteBuffer request;
+        while ((request = client.framer.next()) != null)
+        {
+            this.request_count.incrementAndGet();
+            final ByteBuffer reply = this.handleRequest(client, request);
+            if (reply == null)
+            {
+                client.channel.close();
+                return;
+            }
+            reply.flip();
+            if (this.latency_ms > 0)
+            {
+                this.delayed_replies.schedule(() -> send(client, reply), this.latency_ms, TimeUnit.MILLISECONDS);
+            }
+            else
+            {
+                send(client, reply);
+            }
+        }
+        client.framer.compact();
+    }
+
+    /** @param client Client
+     *  @param reply Reply to send
+     */
+    private static void send(final Client client, final ByteBuffer reply)
+    {
+        synchronized (client)
+        {
+            try
+            {
+                while (reply.hasRemaining())
+                {
+                    client.channel.write(reply);
+                }
+            }
+            catch (final Exception ex)
+            {
+                logger.log(Level.FINE, "Cannot send reply", ex);
+            }
+        }
+    }
+
+    /** @param client Client
+     *  @param request Encapsulated request
+     *  @return Encapsulated reply, positioned at its end, or <code>null</code> to close the connection
+     */
+    private ByteBuffer handleRequest(final Client client, final ByteBuffer request) throws Exception
+    {
+        final short command = request.getShort(0);
+        final ByteBuffer reply = ByteBuffer.allocate(EncapsulationFramer.MAX_PACKET_SIZE);
+        reply.order(Connection.BYTE_ORDER);
+        // Header: Command, length (set below), session, status, context, options
+        reply.putShort(command);
+        reply.putShort((short) 0);
+        reply.putInt(request.getInt(4));
+        reply.putInt(0);
+        reply.putLong(request.getLong(CONTEXT_OFFSET));
+        reply.putInt(0);
+
+        request.position(ENCAPSULATION_HEADER_SIZE);
+        if (command == Command.RegisterSession.code())
+        {
+            reply.putInt(4, ids.incrementAndGet());
+            reply.putShort((short) 1); // Protocol version
+            reply.putShort((short) 0); // Options
+        }
+        else if (command == Command.UnRegisterSession.code())
+        {
+            return null;
+        }
+        else if (command == Command.ListServices.code())
+        {
+            reply.putShort((short) 1);
+            reply.putShort((short) 0x100);
+            reply.putShort((short) 20);
+            reply.putShort((short) 1);
+            reply.putShort((short) 0x120);
+            final byte[] name = new byte[16];
+            System.arraycopy("Communications".getBytes(), 0, name, 0, 14);
+            reply.put(name);
+        }
+        else if (command == Command.ListIdentity.code())
+        {
+            reply.putShort((short) 1);
+            reply.putShort((short) 0x0C);
+            final int length_pos = reply.position();
+            reply.putShort((short) 0);
+            reply.putShort((short) 1); // Encapsulation protocol version
+            reply.put(new byte[16]);   // Socket address
+            putIdentity(reply);
+            reply.putShort(length_pos, (short) (reply.position() - length_pos - 2));
+        }
+        else if (command == Command.SendRRData.code())
+        {
+            request.getInt();   // Interface
+            request.getShort(); // Timeout
+            request.getShort(); // Count
+            request.getShort(); // Null address type
+            request.position(request.position() + 2 + (request.getShort() & 0xFFFF));
+            request.getShort(); // Unconnected data type
+            final int length = request.getShort() & 0xFFFF;
+
+            reply.putInt(0);
+            reply.putShort((short) 0);
+            reply.putShort((short) 2);
+            reply.putShort((short) 0);
+            reply.putShort((short) 0);
+            reply.putShort((short) 0xB2);
+            final int length_pos = reply.position();
+            reply.putShort((short) 0);
+            final ByteBuffer cip = request.slice().order(Connection.BYTE_ORDER);
+            cip.limit(length);
+            this.handleCIP(client, cip, reply, this.max_reply_size);
+            reply.putShort(length_pos, (short) (reply.position() - length_pos - 2));
+        }
+        else if (command == Command.SendUnitData.code())
+        {
+            request.getInt();   // Interface
+            request.getShort(); // Timeout
+            request.getShort(); // Count
+            request.getShort(); // Connected address type
+            request.getShort(); // .. length
+            final int o_t_id = request.getInt();
+            request.getShort(); // Connected data type
+            final int length = request.getShort() & 0xFFFF;
+            final short sequence = request.getShort();
+            final CIPConnection connection = client.connections.get(o_t_id);
+            if (connection == null)
+            {
+                throw new Exception(String.format("Unknown connection 0x%08X", o_t_id));
+            }
+            final long now = System.nanoTime();
+            if (now - connection.last_used > connection.timeout)
+            {
+                client.connections.remove(o_t_id);
+                throw new Exception(String.format("Connection 0x%08X timed out", o_t_id));
+            }
+            connection.last_used = now;
+            reply.putInt(0);
+            reply.putShort((short) 0);
+            reply.putShort((short) 2);
+            reply.putShort((short) 0xA1);
+            reply.putShort((short) 4);
+            reply.putInt(connection.t_o_id);
+            reply.putShort((short) 0xB1);
+            final int length_pos = reply.position();
+            reply.putShort((short) 0);
+            reply.putShort(sequence);
+            final ByteBuffer cip = request.slice().order(Connection.BYTE_ORDER);
+            cip.limit(length - 2);
+            this.handleCIP(client, cip, reply, connection.size - 2);
+            reply.putShort(length_pos, (short) (reply.position() - length_pos - 2));
+        }
+        else
+        {   // Status 'invalid command'
+            reply.putInt(8, 1);
+        }
+        reply.putShort(2, (short) (reply.position() - ENCAPSULATION_HEADER_SIZE));
+        return reply;
+    }
+
+    /** @param reply Buffer where to add identity */
+    private static void putIdentity(final ByteBuffer reply)
+    {
+        reply.putShort((short) 1);    // Vendor: Rockwell
+        reply.putShort((short) 0x0E); // Device type: PLC
+        reply.putShort((short) 0x6C); // Product code
+        reply.put((byte) 32);         // Revision
+        reply.put((byte) 11);
+        reply.putShort((short) 0x3160);
+        reply.putInt(0x00C0FFEE);
+        final byte[] name = "Simulated PLC".getBytes();
+        reply.put((byte) name.length);
+        reply.put(name);
+        reply.put((byte) 3);          // State
+    }
+
+    /** Handle message router request
+     *  @param client Client
+     *  @param request Request
+     *  @param reply Buffer for reply
+     *  @param max_size Maximum reply size
+     */
+    private void handleCIP(final Client client, final ByteBuffer request, final ByteBuffer reply, final int max_size) throws Exception
+    {
+        final int start = reply.position();
+        final byte service = request.get();
+        final int path_size = 2 * (request.get() & 0xFF);
+        final ByteBuffer path = request.slice().order(Connection.BYTE_ORDER);
+        path.limit(path_size);
+        request.position(request.position() + path_size);
+
+        // Reply service, reserved, status, extended status size
+        reply.put((byte) (service | 0x80));
+        reply.put((byte) 0);
+        reply.putShort((short) 0);
+
+        final int class_id = (path_size >= 2  &&  path.get(0) == 0x20) ? path.get(1) & 0xFF : -1;
+        int status;
+        switch (service)
+        {
+        case 0x01: // Get_Attribute_All
+            if (class_id == 0x01)
+            {
+                putIdentity(reply);
+                status = OK;
+            }
+            else
+                status = PATH_DESTINATION_UNKNOWN;
+            break;
+        case 0x0A: // CIP_MultiRequest
+            status = this.handleMultiRequest(client, request, reply, max_size);
+            break;
+        case 0x4C: // CIP_ReadData
+            status = this.handleRead(path, request, reply, max_size);
+            break;
+        case 0x4D: // CIP_WriteData
+            status = this.handleWrite(path, request);
+            break;
+        case 0x52: // Unconnected_Send to connection manager, unwrap. Otherwise CIP_ReadDataFragmented
+            if (class_id == 0x06)
+            {
+                request.get();   // Priority/ticks
+                request.get();   // Timeout ticks
+                final int length = request.getShort() & 0xFFFF;
+                final ByteBuffer embedded = request.slice().order(Connection.BYTE_ORDER);
+                embedded.limit(length);
+                reply.position(start);
+                this.handleCIP(client, embedded, reply, max_size);
+                return;
+            }
+            status = this.handleReadFragmented(path, request, reply, max_size);
+            break;
+        case 0x53: // CIP_WriteDataFragmented
+            status = this.handleWriteFragmented(path, request);
+            break;
+        case 0x54: // Forward_Open
+            status = this.handleForwardOpen(client, request, reply, false);
+            break;
+        case 0x5B: // Large_Forward_Open
+            if (this.large_forward_open)
+                status = this.handleForwardOpen(client, request, reply, true);
+            else
+                status = SERVICE_NOT_SUPPORTED;
+            break;
+        case 0x4E: // Forward_Close
+            status = this.handleForwardClose(client, request, reply);
+            break;
+        default:
+            status = SERVICE_NOT_SUPPORTED;
+        }
+        reply.put(start + 2, (byte) status);
+        if (status != OK  &&  status != PARTIAL_TRANSFER  &&  status != EMBEDDED_SERVICE_ERROR)
+        {   // No data
+            reply.position(start + 4);
+        }
+    }
+
+    /** @param path Path to tag
+     *  @return Tag name, including array index
+     */
+    private static String decodeTagName(final ByteBuffer path)
+    {
+        final StringBuilder name = new StringBuilder();
+        while (path.hasRemaining())
+        {
+            final int segment = path.get() & 0xFF;
+            switch (segment)
+            {
+            case 0x91:
+            {
+                final byte[] text = new byte[path.get() & 0xFF];
+                path.get(text);
+                if ((text.length % 2) != 0)
+                    path.get();
+                if (name.length() > 0)
+                    name.append('.');
+                name.append(new String(text));
+                break;
+            }
+            case 0x28:
+                name.append('[').append(path.get() & 0xFF).append(']');
+                break;
+            case 0x29:
+                path.get();
+                name.append('[').append(path.getShort() & 0xFFFF).append(']');
+                break;
+            case 0x2A:
+                path.get();
+                name.append('[').append(path.getInt()).append(']');
+                break;
+            default:
+                return null;
+            }
+        }
+        return name.toString();
+    }
+
+    /** Locate tag
+     *  @param name Tag name
+     *  @return { tag, element index } or <code>null</code>
+     */
+    private Object[] locate(final String name)
+    {
+        if (name == null)
+            return null;
+        final TagValue value = this.tags.get(name);
+        if (value != null)
+            return new Object[] { value, 0 };
+        // Element of array?
+        if (name.endsWith("]"))
+        {
+            final int open = name.lastIndexOf('[');
+            final TagValue array = this.tags.get(name.substring(0, open));
+            final int index = Integer.parseInt(name.substring(open + 1, name.length() - 1));
+            if (array != null  &&  index < array.getElementCount())
+                return new Object[] { array, index };
+        }
+        return null;
+    }
+
+    private int handleRead(final ByteBuffer path, final ByteBuffer request, final ByteBuffer reply, final int max_size)
+    {
+        final Object[] found = this.locate(decodeTagName(path));
+        if (found == null)
+            return PATH_DESTINATION_UNKNOWN;
+        final TagValue value = (TagValue) found[0];
+        final int index = (Integer) found[1];
+        final int count = request.getShort() & 0xFFFF;
+        if (index + count > value.getElementCount())
+            return PATH_DESTINATION_UNKNOWN;
+
+        reply.putShort(value.type);
+        // Reply header (4) and type (2) are within the maximum reply size
+        final int room = max_size - 6;
+        int size = count * value.element_size;
+        int status = OK;
+        if (size > room)
+        {   // Send what fits
+            size = (room / value.element_size) * value.element_size;
+            status = PARTIAL_TRANSFER;
+        }
+        reply.put(value.data, index * value.element_size, size);
+        return status;
+    }
+
+    private int handleReadFragmented(final ByteBuffer path, final ByteBuffer request, final ByteBuffer reply, final int max_size)
+    {
+        final Object[] found = this.locate(decodeTagName(path));
+        if (found == null)
+            return PATH_DESTINATION_UNKNOWN;
+        final TagValue value = (TagValue) found[0];
+        final int index = (Integer) found[1];
+        final int count = request.getShort() & 0xFFFF;
+        final int offset = request.getInt();
+        if (index + count > value.getElementCount())
+            return PATH_DESTINATION_UNKNOWN;
+
+        reply.putShort(value.type);
+        // Reply header (4) and type (2) are within the maximum reply size
+        int room = max_size - 6;
+        int start = index * value.element_size;
+        int end = start + count * value.element_size;
+        int element_size = value.element_size;
+        if (value.type == STRUCT)
+        {   // Structure detail precedes each fragment
+            reply.putShort(ByteBuffer.wrap(value.data).order(Connection.BYTE_ORDER).getShort());
+            room -= 2;
+            start += 2;
+            element_size = 1;
+        }
+        start += offset;
+        if (start > end)
+            return NOT_ENOUGH_DATA;
+        int size = end - start;
+        int status = OK;
+        if (size > room)
+        {   // Send what fits, more to follow
+            size = (room / element_size) * element_size;
+            status = PARTIAL_TRANSFER;
+        }
+        reply.put(value.data, start, size);
+        return status;
+    }
+
+    private int handleWrite(final ByteBuffer path, final ByteBuffer request)
+    {
+        final String name = decodeTagName(path);
+        final Object[] found = this.locate(name);
+        if (found == null)
+            return PATH_DESTINATION_UNKNOWN;
+        final TagValue value = (TagValue) found[0];
+        final int index = (Integer) found[1];
+        final TagValue written = decodeValue(request);
+        if (written.type != value.type)
+            return 0x20; // Invalid parameter
+        if (index * value.element_size + written.data.length > value.data.length)
+            return NOT_ENOUGH_DATA;
+        synchronized (value)
+        {
+            System.arraycopy(written.data, 0, value.data, index * value.element_size, written.data.length);
+        }
+        return OK;
+    }
+
+    private int handleWriteFragmented(final ByteBuffer path, final ByteBuffer request)
+    {
+        final Object[] found = this.locate(decodeTagName(path));
+        if (found == null)
+            return PATH_DESTINATION_UNKNOWN;
+        final TagValue value = (TagValue) found[0];
+        final int index = (Integer) found[1];
+        final short type = request.getShort();
+        if (type != value.type)
+            return 0x20; // Invalid parameter
+        int start = index * value.element_size;
+        if (type == STRUCT)
+        {   // Structure detail, then data
+            request.getShort();
+            start += 2;
+        }
+        final int count = request.getShort() & 0xFFFF;
+        final int offset = request.getInt();
+        if (type != STRUCT  &&  index + count > value.getElementCount())
+            return PATH_DESTINATION_UNKNOWN;
+        start += offset;
+        if (start + request.remaining() > value.data.length)
+            return NOT_ENOUGH_DATA;
+        synchronized (value)
+        {
+            request.get(value.data, start, request.remaining());
+        }
+        return OK;
+    }
+
+    private int handleMultiRequest(final Client client, final ByteBuffer request, final ByteBuffer reply, final int max_size) throws Exception
+    {
+        final int start = request.position();
+        final int count = request.getShort() & 0xFFFF;
+        final int[] offsets = new int[count + 1];
+        for (int i=0; i<count; ++i)
+            offsets[i] = request.getShort() & 0xFFFF;
+        offsets[count] = request.limit() - start;
+
+        final int reply_start = reply.position();
+        reply.putShort((short) count);
+        final int offset_pos = reply.position();
+        reply.position(offset_pos + 2 * count);
+        boolean errors = false;
+        for (int i=0; i<count; ++i)
+        {
+            reply.putShort(offset_pos + 2 * i, (short) (reply.position() - reply_start));
+            final ByteBuffer embedded = request.duplicate().order(Connection.BYTE_ORDER);
+            embedded.limit(start + offsets[i + 1]);
+            embedded.position(start + offsets[i]);
+            final int embedded_start = reply.position();
+            this.handleCIP(client, embedded.slice().order(Connection.BYTE_ORDER), reply, Integer.MAX_VALUE);
+            if (reply.get(embedded_start + 2) != OK)
+                errors = true;
+        }
+        // Reply header (4) plus multi-request reply
+        if (4 + reply.position() - reply_start > max_size)
+            return REPLY_DATA_TOO_LARGE;
+        return errors ? EMBEDDED_SERVICE_ERROR : OK;
+    }
+
+    private int handleForwardOpen(final Client client, final ByteBuffer request, final ByteBuffer reply, final boolean large)
+    {
+        request.get();   // Priority/tick
+        request.get();   // Timeout ticks
+        request.getInt();
+        final int t_o_id = request.getInt();
+        final short serial = request.getShort();
+        final short vendor = request.getShort();
+        final int originator_serial = request.getInt();
+        final int multiplier = request.get() & 0x07;
+        request.position(request.position() + 3);
+        final int o_t_rpi = request.getInt();
+        final int o_t_params = large ? request.getInt() : request.getShort();
+        final int t_o_rpi = request.getInt();
+        final int size = o_t_params & (large ? 0xFFFF : 0x1FF);
+
+        final int o_t_id = ids.incrementAndGet();
+        client.connections.put(o_t_id, new CIPConnection(t_o_id, size, o_t_rpi * 1000L * (4 << multiplier)));
+
+        reply.putInt(o_t_id);
+        reply.putInt(t_o_id);
+        reply.putShort(serial);
+        reply.putShort(vendor);
+        reply.putInt(originator_serial);
+        reply.putInt(o_t_rpi);
+        reply.putInt(t_o_rpi);
+        reply.put((byte) 0);
+        reply.put((byte) 0);
+        return OK;
+    }
+
+    private int handleForwardClose(final Client client, final ByteBuffer request, final ByteBuffer reply)
+    {
+        request.get();
+        request.get();
+        final short serial = request.getShort();
+        final short vendor = request.getShort();
+        final int originator_serial = request.getInt();
+        // Simulator does not track serial numbers, close all connections of client
+        client.connections.clear();
+        reply.putShort(serial);
+        reply.putShort(vendor);
+        reply.putInt(originator_serial);
+        reply.put((byte) 0);
+        reply.put((byte) 0);
+        return OK;
+    }
+
+    /** Stop simulator, closing all client connections */
+    @Override
+    public void close() throws Exception
+    {
+        this.running = false;
+        this.selector.wakeup();
+        this.thread.join(2000);
+        for (final SelectionKey key : this.selector.keys())
+            key.channel().close();
+        this.selector.close();
+        synchronized (this)
+        {
+            if (this.delayed_replies != null)
+                this.delayed_replies.shutdownNow();
+        }
+    }
+}
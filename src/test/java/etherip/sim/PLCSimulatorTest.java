@@ -0,0 +1,537 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.sim;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import etherip.EtherNetIP;
+import etherip.data.CipException;
+import etherip.data.Identity;
+import etherip.protocol.Connection;
+import etherip.protocol.ForwardOpenProtocol;
+import etherip.protocol.MultiRequestResult;
+import etherip.protocol.NioEngine;
+import etherip.protocol.PacketLimits;
+import etherip.protocol.RequestCoalescer;
+import etherip.types.CIPData;
+import etherip.types.CIPData.Type;
+
+/** JUnit test of {@link EtherNetIP} against the {@link PLCSimulator}
+ *
+ *  @author Kay Kasemir
+ */
+@SuppressWarnings("nls")
+@Timeout(value = 10, unit = SECONDS)
+public class PLCSimulatorTest
+{
+    private PLCSimulator plc;
+
+    @BeforeEach
+    public void startSimulator() throws Exception
+    {
+        this.plc = new PLCSimulator();
+
+        final CIPData counter = new CIPData(Type.DINT, 1);
+        counter.set(0, 42);
+        this.plc.setTag("counter", counter);
+
+        final CIPData array = new CIPData(Type.REAL, 200);
+        for (int i=0; i<200; ++i)
+            array.set(i, i / 2.0);
+        this.plc.setTag("array", array);
+    }
+
+    @AfterEach
+    public void stopSimulator() throws Exception
+    {
+        this.plc.close();
+    }
+
+    @Test
+    public void testServicesAndIdentity() throws Exception
+    {
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            assertTrue(etherip.listServices()[0].getName().startsWith("Communications"));
+
+            final Identity[] identities = etherip.listIdentity();
+            assertEquals(1, identities.length);
+            assertEquals("Simulated PLC", identities[0].getProductName());
+
+            final Identity identity = etherip.getIdentity();
+            assertEquals(1, identity.getVendorId());
+            assertEquals(32, identity.getMajorRevision());
+            assertEquals("Simulated PLC", identity.getProductName());
+        }
+    }
+
+    @Test
+    public void testReadWrite() throws Exception
+    {
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            assertEquals(42, etherip.readTag("counter").getNumber(0).intValue());
+
+            // Array element, several elements, multi-request
+            assertEquals(1.5, etherip.readTag("array[3]").getNumber(0).doubleValue());
+            final CIPData elements = etherip.readTag("array", (short) 10);
+            assertEquals(10, elements.getElementCount());
+            assertEquals(4.5, elements.getNumber(9).doubleValue());
+            final CIPData[] values = etherip.readTags("counter", "array[2]");
+            assertEquals(42, values[0].getNumber(0).intValue());
+            assertEquals(1.0, values[1].getNumber(0).doubleValue());
+
+            final CIPData value = new CIPData(Type.DINT, 1);
+            value.set(0, 47);
+            etherip.writeTag("counter", value);
+            assertEquals(47, this.plc.getTag("counter").getNumber(0).intValue());
+
+            final CIPData real = new CIPData(Type.REAL, 1);
+            real.set(0, 3.25);
+            etherip.writeTag("array[5]", real);
+            assertEquals(3.25, this.plc.getTag("array").getNumber(5).doubleValue());
+
+            final CipException error = assertThrows(CipException.class, () -> etherip.readTag("nonexisting"));
+            assertEquals(PLCSimulator.PATH_DESTINATION_UNKNOWN, error.getStatusCode());
+            assertNull(this.plc.getTag("nonexisting"));
+        }
+    }
+
+    @Test
+    public void testPartialResults() throws Exception
+    {
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+
+            // Bad tag does not prevent reading the others
+            final MultiRequestResult result = etherip.readTagsWithStatus(10, "counter", "nonexisting", "array[2]");
+            assertEquals(1, result.getErrorCount());
+            assertEquals(PLCSimulator.PATH_DESTINATION_UNKNOWN, result.getStatus(1));
+            final CIPData[] values = etherip.readTags("counter", "nonexisting", "array[2]");
+            assertEquals(42, values[0].getNumber(0).intValue());
+            assertNull(values[1]);
+            assertEquals(1.0, values[2].getNumber(0).doubleValue());
+
+            // .. or writing the others
+            final CIPData value = new CIPData(Type.DINT, 1);
+            value.set(0, 47);
+            final MultiRequestResult written = etherip.writeTagsWithStatus(new String[] { "nonexisting", "counter" },
+                                                                           new CIPData[] { value, value });
+            assertFalse(written.isOk(0));
+            assertTrue(written.isOk(1));
+            assertEquals(47, this.plc.getTag("counter").getNumber(0).intValue());
+
+            // writeTags reports the failed write
+            value.set(0, 48);
+            final CipException error = assertThrows(CipException.class,
+                () -> etherip.writeTags(new String[] { "nonexisting", "counter" }, new CIPData[] { value, value }));
+            assertEquals(PLCSimulator.PATH_DESTINATION_UNKNOWN, error.getStatusCode());
+            assertEquals(48, this.plc.getTag("counter").getNumber(0).intValue());
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception
+    {
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+
+            // More writes than fit into one multi-request
+            final String[] tags = new String[100];
+            final CIPData[] values = new CIPData[tags.length];
+            for (int i=0; i<tags.length; ++i)
+            {
+                tags[i] = "array[" + i + "]";
+                values[i] = new CIPData(Type.REAL, 1);
+                values[i].set(0, -i);
+            }
+            final int requests = this.plc.getRequestCount();
+            etherip.writeTagsAsync(tags, values).get();
+            assertTrue(this.plc.getRequestCount() - requests > 1);
+            assertEquals(-99.0, this.plc.getTag("array").getDouble(99));
+
+            final CIPData[] read = etherip.readTagsAsync(tags).get();
+            assertEquals(-42.0, read[42].getDouble(0));
+
+            // Array larger than one reply is read in fragments, like readTag
+            final CIPData array = etherip.readTagAsync("array", (short) 200).get();
+            assertEquals(200, array.getElementCount());
+            assertEquals(-99.0, array.getDouble(99));
+            assertEquals(199 / 2.0, array.getDouble(199));
+
+            // Failed writes are reported via the result, or fail the future
+            final String[] bad = new String[] { "nonexisting", "counter" };
+            final CIPData counter = new CIPData(Type.DINT, 1);
+            final CIPData[] bad_values = new CIPData[] { counter, counter };
+            final MultiRequestResult result = etherip.writeTagsWithStatusAsync(bad, bad_values).get();
+            assertFalse(result.isOk(0));
+            assertTrue(result.isOk(1));
+            final ExecutionException error = assertThrows(ExecutionException.class,
+                                                          () -> etherip.writeTagsAsync(bad, bad_values).get());
+            assertEquals(PLCSimulator.PATH_DESTINATION_UNKNOWN, ((CipException) error.getCause()).getStatusCode());
+        }
+    }
+
+    @Test
+    public void testMaxReplySize() throws Exception
+    {
+        this.plc.setMaxReplySize(100);
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            final String[] tags = new String[20];
+            for (int i=0; i<tags.length; ++i)
+                tags[i] = "array[" + i + "]";
+            // Tag types are not known to the new connection, so few requests per multi-request fit
+            etherip.readTags(tags);
+            // Once the reply size is known, requests are packed
+            // for the client's reply size limit, which is too large for this PLC.
+            // Multi-requests are split and retried, and the limit is learned
+            final CIPData[] values = etherip.readTags(tags);
+            assertEquals(9.5, values[19].getNumber(0).doubleValue());
+            final int max = etherip.getConnection().getMaxMessageSize();
+            final int limit = etherip.getConnection().getPacketLimits().getResponseLimit(max);
+            System.out.println(etherip.getConnection().getPacketLimits());
+            assertTrue(limit <= 100);
+
+            // Limit is probed upward, getting closer to what the PLC supports
+            for (int i=0; i<5 * PacketLimits.PROBE_INTERVAL / 4; ++i)
+                etherip.readTags(tags);
+            System.out.println(etherip.getConnection().getPacketLimits());
+            assertTrue(etherip.getConnection().getPacketLimits().getResponseLimit(max) > limit);
+            final int requests = this.plc.getRequestCount();
+            etherip.readTags(tags);
+            // 20 replies of 12 bytes need at least 3 requests
+            assertTrue(this.plc.getRequestCount() - requests <= 4);
+
+            // Array read that's too large for one reply is read in fragments
+            final CIPData array = etherip.readTag("array", (short) 100);
+            assertEquals(100, array.getElementCount());
+            assertEquals(49.5, array.getNumber(99).doubleValue());
+        }
+    }
+
+    @Test
+    public void testMaxReplySizeAsync() throws Exception
+    {
+        this.plc.setMaxReplySize(100);
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp(4);
+            final String[] tags = new String[20];
+            for (int i=0; i<tags.length; ++i)
+                tags[i] = "array[" + i + "]";
+            etherip.readTagsAsync(tags).get();
+            // Packed for the client's reply size limit, which is too large for this PLC.
+            // Asynchronous multi-requests are also split and retried, and the limit is learned
+            final int max = etherip.getConnection().getMaxMessageSize();
+            final CIPData[] values = etherip.readTagsAsync(tags).get();
+            assertEquals(9.5, values[19].getNumber(0).doubleValue());
+            System.out.println(etherip.getConnection().getPacketLimits());
+            assertTrue(etherip.getConnection().getPacketLimits().getResponseLimit(max) <= 100);
+
+            // Later requests fit right away, without lowering the limit again
+            final long changes = etherip.getConnection().getPacketLimits().getChanges();
+            final int requests = this.plc.getRequestCount();
+            etherip.readTagsAsync(tags).get();
+            assertEquals(changes, etherip.getConnection().getPacketLimits().getChanges());
+            // 20 replies of 12 bytes, 4 per request for a limit below 100
+            assertTrue(this.plc.getRequestCount() - requests <= 5);
+        }
+    }
+
+    @Test
+    public void testFragmentedRead() throws Exception
+    {
+        final int count = 10000;
+        final CIPData big = new CIPData(Type.REAL, count);
+        for (int i=0; i<count; ++i)
+            big.set(i, i * 0.25);
+        this.plc.setTag("big", big);
+        final CIPData ints = new CIPData(Type.DINT, count);
+        for (int i=0; i<count; ++i)
+            ints.set(i, -i);
+        this.plc.setTag("ints", ints);
+
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            final int requests = this.plc.getRequestCount();
+            final float[] values = new float[count];
+            etherip.readArray("big", values);
+            for (int i=0; i<count; ++i)
+                assertEquals(i * 0.25f, values[i]);
+            // 40000 bytes in replies of about 500 bytes
+            final int fragments = this.plc.getRequestCount() - requests;
+            System.out.println("Read " + count + " REAL elements in " + fragments + " fragments");
+            assertTrue(fragments > 40000 / 500  &&  fragments < 40000 / 400);
+
+            final int[] dints = new int[count];
+            etherip.readArray("ints", dints);
+            assertEquals(-(count - 1), dints[count - 1]);
+
+            // Type must match
+            assertThrows(Exception.class, () -> etherip.readArray("big", new short[10]));
+
+            // Raw data into direct buffer
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(4 * count).order(Connection.BYTE_ORDER);
+            assertEquals(Type.REAL, etherip.readArray("big", count, buffer));
+            assertEquals(4 * count, buffer.position());
+            assertEquals(2499.75f, buffer.getFloat(4 * (count - 1)));
+        }
+    }
+
+    @Test
+    public void testReplySizePacking() throws Exception
+    {
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            final String[] tags = new String[100];
+            for (int i=0; i<tags.length; ++i)
+                tags[i] = "array[" + i + "]";
+
+            // All 100 tags do not fit into one reply,
+            // and without knowing the tag types, fewer fit
+            int requests = this.plc.getRequestCount();
+            CIPData[] values = etherip.readTags(tags);
+            final int unknown = this.plc.getRequestCount() - requests;
+            assertEquals(49.5, values[99].getNumber(0).doubleValue());
+
+            requests = this.plc.getRequestCount();
+            values = etherip.readTags(tags);
+            final int known = this.plc.getRequestCount() - requests;
+            assertEquals(49.5, values[99].getNumber(0).doubleValue());
+            System.out.println("Read 100 tags in " + unknown + " requests, then " + known);
+            assertTrue(known < unknown);
+            assertTrue(known <= 4);
+        }
+    }
+
+    @Test
+    public void testFragmentedWrite() throws Exception
+    {
+        final int count = 5000;
+        this.plc.setTag("recipe", new CIPData(Type.REAL, count));
+        this.plc.setTag("steps", new CIPData(Type.INT, count));
+
+        final float[] recipe = new float[count];
+        for (int i=0; i<count; ++i)
+            recipe[i] = i * 0.5f;
+        final short[] steps = new short[count];
+        for (int i=0; i<count; ++i)
+            steps[i] = (short) (count - i);
+
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp(4);
+            etherip.writeArray("recipe", recipe);
+            etherip.writeArray("steps", steps);
+            final float[] check = new float[count];
+            etherip.readArray("recipe", check);
+            assertArrayEquals(recipe, check);
+            final CIPData written = this.plc.getTag("steps");
+            assertEquals(count, written.getNumber(0).intValue());
+            assertEquals(1, written.getNumber(count - 1).intValue());
+
+            // Raw data via buffer, starting at its position
+            final ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * count).order(Connection.BYTE_ORDER);
+            buffer.putInt(-1);
+            for (int i=0; i<count; ++i)
+                buffer.putFloat(-i);
+            buffer.flip().position(4);
+            etherip.writeArray("recipe", Type.REAL, count, buffer);
+            assertEquals(-(count - 1), this.plc.getTag("recipe").getNumber(count - 1).doubleValue());
+
+            // Type must match
+            assertThrows(CipException.class, () -> etherip.writeArray("recipe", new int[10]));
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception
+    {
+        this.plc.setLatency(50);
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            etherip.enableCoalescing(10);
+
+            // Concurrent reads, some of the same tag, and one bad tag
+            final int threads = 20;
+            final CompletableFuture<?>[] done = new CompletableFuture<?>[threads];
+            final ExecutorService pool = Executors.newFixedThreadPool(threads);
+            final int requests = this.plc.getRequestCount();
+            for (int i=0; i<threads; ++i)
+            {
+                final int index = i;
+                done[i] = CompletableFuture.runAsync(() ->
+                {
+                    try
+                    {
+                        if (index == 0)
+                            assertThrows(CipException.class, () -> etherip.readTag("typo"));
+                        else if (index % 2 == 0)
+                            assertEquals(42, etherip.readTag("counter").getInt(0));
+                        else
+                            assertEquals(index / 2.0, etherip.readTag("array[" + index + "]").getDouble(0));
+                    }
+                    catch (Exception ex)
+                    {
+                        throw new RuntimeException(ex);
+                    }
+                }, pool);
+            }
+            CompletableFuture.allOf(done).get();
+            pool.shutdown();
+            final int sent = this.plc.getRequestCount() - requests;
+            System.out.println(threads + " reads in " + sent + " requests, " + etherip.getCoalescer().getBatchCount() + " batches");
+            assertTrue(sent < threads / 2);
+
+            // Writes are coalesced as well
+            final CIPData value = new CIPData(Type.DINT, 1);
+            value.set(0, 47);
+            final CompletableFuture<Void> write = etherip.writeTagAsync("counter", value);
+            final CompletableFuture<CIPData> read = etherip.readTagAsync("array[3]");
+            write.get();
+            assertEquals(1.5, read.get().getDouble(0));
+            assertEquals(47, this.plc.getTag("counter").getInt(0));
+
+            final RequestCoalescer coalescer = etherip.getCoalescer();
+            etherip.disableCoalescing();
+            assertEquals(47, etherip.readTag("counter").getInt(0));
+
+            // Requests that race with closing the coalescer fail instead of hanging
+            assertTrue(coalescer.read("counter").isCompletedExceptionally());
+            assertTrue(coalescer.write("counter", value).isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    public void testConnected() throws Exception
+    {
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            etherip.openConnection();
+            assertEquals(ForwardOpenProtocol.LARGE_SIZE, etherip.getConnection().getCIPConnection().getSize());
+
+            // 200 REAL values fit into the large connection
+            final CIPData array = etherip.readTag("array", (short) 200);
+            assertEquals(99.5, array.getNumber(199).doubleValue());
+            etherip.closeConnection();
+            assertNull(etherip.getConnection().getCIPConnection());
+            assertEquals(42, etherip.readTag("counter").getNumber(0).intValue());
+        }
+    }
+
+    @Test
+    public void testForwardOpenFallback() throws Exception
+    {
+        this.plc.setLargeForwardOpen(false);
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            etherip.openConnection();
+            assertEquals(ForwardOpenProtocol.DEFAULT_SIZE, etherip.getConnection().getCIPConnection().getSize());
+            assertEquals(42, etherip.readTag("counter").getNumber(0).intValue());
+        }
+    }
+
+    @Test
+    public void testKeepalive() throws Exception
+    {
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            // 10 ms RPI: Device drops connection after 320 ms without traffic
+            etherip.openConnection(10000);
+            assertEquals(320, etherip.getConnection().getCIPConnection().getTimeoutMillis());
+
+            // Idle for several timeouts, keepalive must preserve the connection
+            Thread.sleep(1000);
+            assertEquals(42, etherip.readTag("counter").getNumber(0).intValue());
+        }
+    }
+
+    @Test
+    public void testLatency() throws Exception
+    {
+        this.plc.setLatency(100);
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            final long start = System.nanoTime();
+            etherip.readTag("counter");
+            final long ms = (System.nanoTime() - start) / 1000000;
+            assertTrue(ms >= 100, "Read took " + ms + " ms");
+        }
+    }
+
+    /** @param etherip Connected {@link EtherNetIP}
+     *  @throws Exception on error
+     */
+    private static void checkBlockingContinuation(final EtherNetIP etherip) throws Exception
+    {
+        // Continuation must not run on the I/O thread that's needed to read the nested reply
+        final CompletableFuture<Integer> nested = etherip.readTagAsync("counter").thenApply(value ->
+        {
+            try
+            {
+                return value.getInt(0) + etherip.readTag("counter").getInt(0);
+            }
+            catch (Exception ex)
+            {
+                throw new RuntimeException(ex);
+            }
+        });
+        assertEquals(84, nested.get(5, SECONDS));
+    }
+
+    @Test
+    public void testBlockingContinuation() throws Exception
+    {
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp();
+            checkBlockingContinuation(etherip);
+        }
+        try (EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp(4);
+            checkBlockingContinuation(etherip);
+        }
+        try (NioEngine engine = new NioEngine(1);
+             EtherNetIP etherip = new EtherNetIP("127.0.0.1", this.plc.getPort(), 0))
+        {
+            etherip.connectTcp(engine);
+            checkBlockingContinuation(etherip);
+        }
+    }
+}
@@ -7,7 +7,9 @@
  *******************************************************************************/
 package etherip.types;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.nio.ByteBuffer;
@@ -77,4 +79,40 @@ public class CIPDataTest
         value.set(2, 3);
         assertEquals("CIP_INT (0x00C3): [1, 2, 3]", value.toString());
     }
+
+    @Test
+    public void testPrimitiveAccess() throws Exception
+    {
+        final CIPData reals = new CIPData(Type.REAL, 4);
+        reals.copyFrom(new float[] { -1.0f, 0.5f, 2.5f, 3.75f, 99.0f }, 1);
+        assertEquals("CIP_REAL (0x00CA): [0.5, 2.5, 3.75, 99.0]", reals.toString());
+        assertEquals(2.5f, reals.getFloat(1));
+        assertEquals(3, reals.getInt(2));
+        assertEquals(99.0, reals.getDouble(3));
+
+        final float[] copy = new float[6];
+        reals.copyTo(copy, 2);
+        assertArrayEquals(new float[] { 0, 0, 0.5f, 2.5f, 3.75f, 99.0f }, copy);
+
+        final CIPData ints = new CIPData(Type.INT, 3);
+        ints.copyFrom(new short[] { 1, -2, 3 }, 0);
+        assertEquals(-2, ints.getShort(1));
+        assertEquals(-2, ints.getInt(1));
+        assertEquals(-2.0f, ints.getFloat(1));
+        final short[] shorts = new short[3];
+        ints.copyTo(shorts, 0);
+        assertArrayEquals(new short[] { 1, -2, 3 }, shorts);
+
+        final CIPData dints = new CIPData(Type.DINT, 2);
+        dints.copyFrom(new int[] { 100000, -7 }, 0);
+        assertEquals(100000, dints.getInt(0));
+        assertEquals(dints.getNumber(1).intValue(), dints.getInt(1));
+        dints.set(0, 123456789);
+        assertEquals(123456789.0, dints.getDouble(0));
+
+        // Bulk access must match the type
+        assertThrows(Exception.class, () -> ints.copyTo(new float[3], 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> reals.copyTo(new float[3], 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> reals.getFloat(4));
+    }
 }
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2024 UT-Battelle, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package etherip.types;
+
+import static etherip.types.CNPath.Symbol;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import etherip.TestSettings;
+import etherip.util.Hexdump;
+
+/** @author Kay Kasemir */
+@SuppressWarnings("nls")
+public class TagHandleTest
+{
+    @Test
+    public void testEncoding() throws Exception
+    {
+        final ByteBuffer expected = TestSettings.getBuffer();
+        final ByteBuffer buf = TestSettings.getBuffer();
+        for (String name : new String[] { "my_tag", "my_tag2", "array[3]", "array[300]", "struct.array[2].x", "123.Name" })
+        {
+            expected.clear();
+            Symbol(name).encode(expected, null);
+            expected.flip();
+
+            final TagHandle handle = TagHandle.of(name);
+            buf.clear();
+            handle.encode(buf, null);
+            buf.flip();
+            System.out.println(handle + ": " + Hexdump.toCompactHexdump(buf));
+            assertEquals(Hexdump.toCompactHexdump(expected), Hexdump.toCompactHexdump(buf));
+            assertEquals(Symbol(name).getRequestSize(), handle.getRequestSize());
+            assertEquals(Symbol(name).toString(), handle.toString());
+        }
+    }
+
+    @Test
+    public void testCache() throws Exception
+    {
+        TagHandle.clearCache();
+        final TagHandle handle = TagHandle.of("my_tag");
+        assertSame(handle, TagHandle.of("my_tag"));
+        assertEquals("my_tag", handle.getName());
+
+        // Filling the cache drops the least recently used handle
+        for (int i=0; i<TagHandle.CACHE_SIZE; ++i)
+            TagHandle.of("tag" + i);
+        assertEquals(TagHandle.CACHE_SIZE, TagHandle.getCachedCount());
+        assertNotSame(handle, TagHandle.of("my_tag"));
+        TagHandle.clearCache();
+        assertEquals(0, TagHandle.getCachedCount());
+    }
+}